@@ -0,0 +1,143 @@
+package server.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic scan trees, apks and pdfs for benchmarks. Everything is created below a temp directory used as
+ * user.home, so the server finds it like its pi-share folder.
+ */
+public class BenchmarkFiles {
+
+    /**
+     * Create temp home and point user.home to it. Has to run before the server reads any path.
+     * @return home directory
+     * @throws IOException if directory can't be created
+     */
+    public static Path createHome() throws IOException {
+        var home = Files.createTempDirectory("scanserver-bench");
+        System.setProperty("user.home", home.toString());
+        Files.createDirectories(getScansPath(home));
+        return home;
+    }
+
+    public static Path getScansPath(Path home)
+    {
+        return home.resolve("pi-share").resolve("Scans");
+    }
+
+    /**
+     * Create folders named like scan dates, counting back from today
+     * @param home home of {@link #createHome()}
+     * @param count number of folders
+     * @return names of folders, newest first
+     * @throws IOException if a folder can't be created
+     */
+    public static String[] createFolders(Path home, int count) throws IOException {
+        var names = new String[count];
+        var day = LocalDate.now();
+        for (var i = 0; i < count; i++)
+        {
+            names[i] = day.minusDays(i).toString();
+            Files.createDirectories(getScansPath(home).resolve(names[i]));
+        }
+        return names;
+    }
+
+    /**
+     * Create empty files named like scans
+     * @param folder folder to create them in
+     * @param count number of files
+     * @throws IOException if a file can't be created
+     */
+    public static void createScans(Path folder, int count) throws IOException {
+        Files.createDirectories(folder);
+        for (var i = 0; i < count; i++)
+        {
+            Files.createFile(folder.resolve("scan_" + i + ".pdf"));
+        }
+    }
+
+    /**
+     * Create apks with versions 1.0.0, 1.0.1 and so on, created in random order
+     * @param home home of {@link #createHome()}
+     * @param count number of apks
+     * @return app directory
+     * @throws IOException if a file can't be created
+     */
+    public static Path createApks(Path home, int count) throws IOException {
+        var appDir = Files.createDirectories(home.resolve("pi-share").resolve("Apps").resolve("ScanApp"));
+        var versions = new ArrayList<String>();
+        for (var i = 0; i < count; i++)
+        {
+            versions.add("1." + (i / 100) + "." + (i % 100));
+        }
+        Collections.shuffle(versions, new Random(42));
+        for (var version : versions)
+        {
+            Files.write(appDir.resolve("ScanApp-" + version + ".apk"), new byte[1024]);
+        }
+        return appDir;
+    }
+
+    /**
+     * Write pdf with empty A4 pages
+     * @param file file to write
+     * @param pageCount number of pages
+     * @throws IOException if writing failed
+     */
+    public static void writePdf(File file, int pageCount) throws IOException {
+        var objects = new ArrayList<String>();
+        var kids = new StringBuilder();
+        for (var i = 0; i < pageCount; i++)
+        {
+            kids.append(3 + i).append(" 0 R ");
+        }
+        objects.add("<< /Type /Catalog /Pages 2 0 R >>");
+        objects.add("<< /Type /Pages /Kids [" + kids + "] /Count " + pageCount + " >>");
+        for (var i = 0; i < pageCount; i++)
+        {
+            objects.add("<< /Type /Page /Parent 2 0 R /MediaBox [0 0 595 842] >>");
+        }
+        var pdf = new StringBuilder("%PDF-1.4\n");
+        var offsets = new int[objects.size()];
+        for (var i = 0; i < objects.size(); i++)
+        {
+            offsets[i] = pdf.length();
+            pdf.append(i + 1).append(" 0 obj\n").append(objects.get(i)).append("\nendobj\n");
+        }
+        var xref = pdf.length();
+        pdf.append("xref\n0 ").append(objects.size() + 1).append("\n0000000000 65535 f \n");
+        for (var offset : offsets)
+        {
+            pdf.append(String.format("%010d 00000 n \n", offset));
+        }
+        pdf.append("trailer\n<< /Size ").append(objects.size() + 1).append(" /Root 1 0 R >>\nstartxref\n").append(xref).append("\n%%EOF\n");
+        Files.write(file.toPath(), pdf.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Delete directory with its content
+     * @param directory directory to delete
+     * @throws IOException if listing failed
+     */
+    public static void delete(Path directory) throws IOException {
+        if (!Files.exists(directory))
+        {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package server.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks and writes their results to benchmark-results.json, to compare them with earlier runs.
+ */
+public class BenchmarkRunner {
+
+    /**
+     * @param args regular expressions of benchmarks to run, like "Listing" or "RoundTrip.http", all if none
+     * @throws RunnerException if a benchmark failed
+     */
+    public static void main(String[] args) throws RunnerException {
+        var options = new OptionsBuilder()
+                .resultFormat(ResultFormatType.JSON)
+                .result("benchmark-results.json");
+        if (args.length == 0)
+        {
+            options.include("server\\.benchmarks\\..*Benchmark");
+        }
+        for (var pattern : args)
+        {
+            options.include(pattern);
+        }
+        new Runner(options.build()).run();
+    }
+}
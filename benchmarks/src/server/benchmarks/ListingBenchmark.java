@@ -0,0 +1,87 @@
+package server.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.actions.FileActions;
+import server.helper.PathHelper;
+import server.index.ScanIndex;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing folders and files over a synthetic scan tree: a folder with {@link #entries} files and
+ * {@link #entries} / 10 date folders. Cached runs are served by {@link ScanIndex}, uncached runs drop its
+ * listing first, so the directory is read again like on a change.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dscanserver.logLevel=warn")
+public class ListingBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int entries;
+
+    private Path home;
+
+    private String folderName;
+
+    @Setup
+    public void setUp() throws IOException {
+        home = BenchmarkFiles.createHome();
+        var folders = BenchmarkFiles.createFolders(home, Math.max(1, entries / 10));
+        folderName = folders[0];
+        BenchmarkFiles.createScans(BenchmarkFiles.getScansPath(home).resolve(folderName), entries);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFiles.delete(home);
+    }
+
+    @Benchmark
+    public String[] readFolders() throws Exception {
+        return PathHelper.readFolders();
+    }
+
+    @Benchmark
+    public String[] readFoldersUncached() throws Exception {
+        // a name that is no folder drops the cached folders
+        ScanIndex.invalidate("-");
+        return PathHelper.readFolders();
+    }
+
+    @Benchmark
+    public String[] readFiles() throws Exception {
+        return FileActions.readFiles(folderName);
+    }
+
+    @Benchmark
+    public String[] readFilesUncached() throws Exception {
+        ScanIndex.invalidate(folderName);
+        return FileActions.readFiles(folderName);
+    }
+
+    /**
+     * First page of 100 files with metadata, sorted by modification time
+     */
+    @Benchmark
+    public HashMap<String, Object> readFileInfos() throws Exception {
+        return FileActions.readFileInfos(folderName, "modified", true, 0, 100);
+    }
+}
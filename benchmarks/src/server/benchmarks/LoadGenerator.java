@@ -0,0 +1,368 @@
+package server.benchmarks;
+
+import data.Config;
+import server.Server;
+import server.helper.ServerConfigHelper;
+import server.protocol.BinaryCodec;
+import server.protocol.ConnectionOptions;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives a server with many clients over real sockets and reports throughput, p50/p99 latency and peak heap of
+ * every action.
+ * <p>
+ * Every client keeps one binary connection and sends requests of one action after another for the given time, one
+ * phase per action. Without a host a server is started in this jvm with fake tools and the fake scanner
+ * (see {@link server.tools.Tools}), so scans and merges don't need a scanner or the tools installed and their
+ * latency and output size can be set with {@code scanserver.fakeTool.*}. Peak heap is only known for that server.
+ * </p>
+ * <p>
+ * Usage: {@code LoadGenerator [--clients 8] [--seconds 10] [--actions ReadFolders,ReadFiles,...] [--host host] [--folder loadtest]}
+ * </p>
+ */
+public class LoadGenerator {
+
+    private final static List<String> Actions = List.of("ReadFolders", "ReadFiles", "StreamFile", "Scan", "MergeFiles");
+
+    /**
+     * Prefix of all files the generator creates, deleted when it is done
+     */
+    private final static String FilePrefix = "load-";
+
+    private final static String FirstFile = FilePrefix + "a";
+
+    private final static String SecondFile = FilePrefix + "b";
+
+    /**
+     * Empty files next to the generated ones, so ReadFiles has something to list
+     */
+    private final static int ListedFiles = 200;
+
+    private final String host;
+
+    private final String folder;
+
+    private final int clients;
+
+    private final int seconds;
+
+    /**
+     * If the server runs in this jvm, so its heap can be measured
+     */
+    private final boolean inProcess;
+
+    private LoadGenerator(String host, String folder, int clients, int seconds, boolean inProcess)
+    {
+        this.host = host;
+        this.inProcess = inProcess;
+        this.folder = folder;
+        this.clients = clients;
+        this.seconds = seconds;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = null;
+        var folder = "loadtest";
+        var clients = 8;
+        var seconds = 10;
+        var actions = Actions;
+        for (var i = 0; i + 1 < args.length; i += 2)
+        {
+            switch (args[i])
+            {
+                case "--host":
+                    host = args[i + 1];
+                    break;
+                case "--folder":
+                    folder = args[i + 1];
+                    break;
+                case "--clients":
+                    clients = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--actions":
+                    actions = Arrays.asList(args[i + 1].split(","));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        Path home = null;
+        if (host == null)
+        {
+            home = startServer(folder);
+            host = "localhost";
+        }
+        var generator = new LoadGenerator(host, folder, clients, seconds, home != null);
+        try {
+            generator.prepare();
+            System.out.printf("%-12s %8s %8s %8s %10s %10s %10s %12s%n", "action", "clients", "requests", "errors", "req/s", "p50 ms", "p99 ms",
+                    "peak heap MB");
+            for (var action : actions)
+            {
+                generator.runPhase(action);
+            }
+        }
+        finally {
+            generator.cleanUp();
+            if (home != null)
+            {
+                BenchmarkFiles.delete(home);
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Start server in this jvm below a temp home, fake tools and quiet log unless set otherwise
+     * @return temp home
+     */
+    private static Path startServer(String folder) throws Exception {
+        setDefault("fakeTools", "true");
+        setDefault("fakeScanner.openMs", "0");
+        setDefault("fakeScanner.pageMs", "100");
+        setDefault("mergeEngine", "pdftk");
+        setDefault("logLevel", "warn");
+        var home = BenchmarkFiles.createHome();
+        BenchmarkFiles.createScans(BenchmarkFiles.getScansPath(home).resolve(folder), ListedFiles);
+        var server = new Thread(() -> Server.main(new String[0]), "load-server");
+        server.setDaemon(true);
+        server.start();
+        var deadline = System.currentTimeMillis() + 10000;
+        while (true)
+        {
+            // http starts after the socket, probing it doesn't leave a failed request in the log
+            try
+            {
+                new Socket("localhost", ServerConfigHelper.getHttpPort()).close();
+                return home;
+            }
+            catch (IOException e)
+            {
+                if (System.currentTimeMillis() > deadline)
+                {
+                    throw new IllegalStateException("server did not start", e);
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static void setDefault(String name, String value)
+    {
+        if (System.getProperty("scanserver." + name) == null)
+        {
+            System.setProperty("scanserver." + name, value);
+        }
+    }
+
+    /**
+     * Scan the two files StreamFile and MergeFiles work on
+     */
+    private void prepare() throws IOException {
+        try (var connection = new Connection(host))
+        {
+            for (var name : List.of(FirstFile, SecondFile))
+            {
+                if (!Boolean.TRUE.equals(connection.request("Scan", Map.of("folderName", folder, "chosenName", name, "profile", "text"))))
+                {
+                    throw new IllegalStateException("scan of " + name + " failed, are the tools or fake tools available?");
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete all files the generator created
+     */
+    private void cleanUp() throws IOException {
+        try (var connection = new Connection(host))
+        {
+            var files = (String[]) connection.request("ReadFiles", Map.of("folderName", folder));
+            var created = new ArrayList<String>();
+            for (var file : files)
+            {
+                if (file.startsWith(FilePrefix))
+                {
+                    created.add(file);
+                }
+            }
+            if (!created.isEmpty())
+            {
+                connection.request("DeleteFiles", Map.of("folderName", folder, "filesToDelete", created));
+            }
+        }
+    }
+
+    /**
+     * Let all clients send requests of action for the configured time and print the results
+     */
+    private void runPhase(String action) throws Exception {
+        var heapPools = new ArrayList<MemoryPoolMXBean>();
+        for (var pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+            {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        var latencies = new long[clients][];
+        var errors = new AtomicInteger();
+        var done = new CountDownLatch(clients);
+        var end = System.nanoTime() + seconds * 1_000_000_000L;
+        for (var i = 0; i < clients; i++)
+        {
+            var client = i;
+            var thread = new Thread(() -> {
+                try {
+                    latencies[client] = runClient(action, client, end, errors);
+                }
+                catch (IOException e)
+                {
+                    System.err.println("client " + client + " failed: " + e);
+                    latencies[client] = new long[0];
+                    errors.incrementAndGet();
+                }
+                finally {
+                    done.countDown();
+                }
+            }, "load-client-" + i);
+            thread.start();
+        }
+        done.await();
+        var all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        var peakHeap = 0L;
+        for (var pool : heapPools)
+        {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+        System.out.printf("%-12s %8d %8d %8d %10.1f %10.2f %10.2f %12s%n", action, clients, all.length, errors.get(), all.length / (double) seconds,
+                getPercentile(all, 0.5), getPercentile(all, 0.99), inProcess ? "" + peakHeap / (1024 * 1024) : "-");
+    }
+
+    /**
+     * Send requests till end
+     * @return latencies of successful requests in ns
+     */
+    private long[] runClient(String action, int client, long end, AtomicInteger errors) throws IOException {
+        var latencies = new long[1024];
+        var count = 0;
+        try (var connection = new Connection(host))
+        {
+            for (var n = 0; System.nanoTime() < end; n++)
+            {
+                var start = System.nanoTime();
+                var result = connection.request(action, getParameters(action, client, n));
+                var latency = System.nanoTime() - start;
+                if (result == null || Boolean.FALSE.equals(result))
+                {
+                    errors.incrementAndGet();
+                    continue;
+                }
+                if (count == latencies.length)
+                {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = latency;
+            }
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    private Map<String, Object> getParameters(String action, int client, int n)
+    {
+        switch (action)
+        {
+            case "ReadFolders":
+                return Map.of();
+            case "StreamFile":
+                return Map.of("folderName", folder, "fileName", FirstFile + ".pdf");
+            case "Scan":
+                return Map.of("folderName", folder, "chosenName", FilePrefix + "scan-" + client + "-" + n, "profile", "text");
+            case "MergeFiles":
+                return Map.of("folderName", folder, "filesToMerge", List.of(FirstFile + ".pdf", SecondFile + ".pdf"),
+                        "mergedFileName", FilePrefix + "merged-" + client + "-" + n);
+            default:
+                return Map.of("folderName", folder);
+        }
+    }
+
+    private static double getPercentile(long[] sorted, double percentile)
+    {
+        if (sorted.length == 0)
+        {
+            return 0;
+        }
+        var index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+
+    /**
+     * Binary connection, see {@link ConnectionOptions}
+     */
+    private static class Connection implements Closeable {
+
+        private final Socket socket;
+
+        private final DataOutputStream output;
+
+        private final DataInputStream input;
+
+        private int requestId;
+
+        Connection(String host) throws IOException {
+            socket = new Socket(host, Config.getPort());
+            socket.setTcpNoDelay(true);
+            output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            output.writeInt(ConnectionOptions.Magic);
+            output.writeInt(ConnectionOptions.Binary);
+            output.flush();
+            input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            // header of the object stream, written before the server reads the options
+            input.readInt();
+        }
+
+        Object request(String action, Map<String, Object> parameters) throws IOException {
+            var frame = new ByteArrayOutputStream();
+            var request = new DataOutputStream(frame);
+            request.writeInt(++requestId);
+            BinaryCodec.writeString(request, action);
+            BinaryCodec.writeValue(request, parameters);
+            output.writeInt(frame.size());
+            frame.writeTo(output);
+            output.flush();
+            var response = new byte[input.readInt()];
+            input.readFully(response);
+            var responseInput = new DataInputStream(new ByteArrayInputStream(response));
+            responseInput.readInt();
+            return BinaryCodec.readValue(responseInput);
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
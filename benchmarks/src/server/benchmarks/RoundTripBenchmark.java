@@ -0,0 +1,239 @@
+package server.benchmarks;
+
+import data.Config;
+import data.ServerAction;
+import data.packages.implementations.PackageData.PackageDataListFiles;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.Server;
+import server.helper.ServerConfigHelper;
+import server.protocol.BinaryCodec;
+import server.protocol.ConnectionOptions;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests from a client to a server running in the benchmark jvm, over loopback.
+ * <p>
+ * Scans use the fake scanner and the stand-ins of the conversion tools, all without delay, so no tool has to be
+ * installed. Merges run in process on generated pdfs.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Dscanserver.logLevel=warn", "-Dscanserver.scanner=fake", "-Dscanserver.fakeScanner.openMs=0",
+        "-Dscanserver.fakeScanner.pageMs=0", "-Dscanserver.fakeTools=true", "-Dscanserver.fakeTool.ms=0", "-Dscanserver.mergeEngine=java" })
+public class RoundTripBenchmark {
+
+    /**
+     * Files in the listed folder
+     */
+    private final static int FileCount = 200;
+
+    private final static String ListFolder = "2000-01-01";
+
+    private final static String ScanFolder = "2000-01-02";
+
+    private final static String MergeFolder = "2000-01-03";
+
+    private Path home;
+
+    private Socket binarySocket;
+
+    private DataOutputStream binaryOutput;
+
+    private DataInputStream binaryInput;
+
+    private int requestId;
+
+    @Setup
+    public void setUp() throws Exception {
+        home = BenchmarkFiles.createHome();
+        var scans = BenchmarkFiles.getScansPath(home);
+        BenchmarkFiles.createScans(scans.resolve(ListFolder), FileCount);
+        Files.createDirectories(scans.resolve(ScanFolder));
+        Files.createDirectories(scans.resolve(MergeFolder));
+        BenchmarkFiles.writePdf(scans.resolve(MergeFolder).resolve("first.pdf").toFile(), 5);
+        BenchmarkFiles.writePdf(scans.resolve(MergeFolder).resolve("second.pdf").toFile(), 20);
+        var server = new Thread(() -> Server.main(new String[0]), "bench-server");
+        server.setDaemon(true);
+        server.start();
+        waitForServer();
+        binarySocket = new Socket("localhost", Config.getPort());
+        binaryOutput = new DataOutputStream(new BufferedOutputStream(binarySocket.getOutputStream()));
+        binaryOutput.writeInt(ConnectionOptions.Magic);
+        binaryOutput.writeInt(ConnectionOptions.Binary);
+        binaryOutput.flush();
+        binaryInput = new DataInputStream(new BufferedInputStream(binarySocket.getInputStream()));
+        // header of the object stream, written before the server reads the options
+        binaryInput.readInt();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        binarySocket.close();
+        BenchmarkFiles.delete(home);
+    }
+
+    /**
+     * Delete scanned and merged files, so folders don't grow while measuring
+     */
+    @TearDown(Level.Iteration)
+    public void deleteResults()
+    {
+        var scans = BenchmarkFiles.getScansPath(home);
+        deleteFiles(scans.resolve(ScanFolder).toFile(), "scan");
+        deleteFiles(scans.resolve(MergeFolder).toFile(), "merged");
+    }
+
+    /**
+     * ReadFiles like old clients send it: one connection per request, java serialization
+     */
+    @Benchmark
+    public String[] legacyReadFiles() throws Exception {
+        try (var socket = new Socket("localhost", Config.getPort()))
+        {
+            var output = new ObjectOutputStream(socket.getOutputStream());
+            var data = new PackageDataListFiles();
+            data.action = ServerAction.ReadFiles;
+            data.folderName = ListFolder;
+            output.writeObject(data);
+            output.flush();
+            var input = new ObjectInputStream(socket.getInputStream());
+            input.readInt();
+            return (String[]) input.readObject();
+        }
+    }
+
+    /**
+     * ReadFiles on a kept binary connection
+     */
+    @Benchmark
+    public Object binaryReadFiles() throws IOException {
+        var frame = new ByteArrayOutputStream();
+        var request = new DataOutputStream(frame);
+        request.writeInt(++requestId);
+        BinaryCodec.writeString(request, "ReadFiles");
+        BinaryCodec.writeValue(request, Map.of("folderName", ListFolder));
+        binaryOutput.writeInt(frame.size());
+        frame.writeTo(binaryOutput);
+        binaryOutput.flush();
+        var response = new byte[binaryInput.readInt()];
+        binaryInput.readFully(response);
+        var responseInput = new DataInputStream(new ByteArrayInputStream(response));
+        responseInput.readInt();
+        return BinaryCodec.readValue(responseInput);
+    }
+
+    @Benchmark
+    public String httpReadFiles() throws IOException {
+        return httpRequest("GET", "/files?folderName=" + ListFolder, null);
+    }
+
+    /**
+     * Scan of one text page, waits for the converted pdf
+     */
+    @Benchmark
+    public String httpScan() throws IOException {
+        var result = httpRequest("POST", "/scan", "folderName=" + ScanFolder + "&chosenName=scan&profile=text");
+        if (!result.equals("true"))
+        {
+            throw new IllegalStateException("scan failed");
+        }
+        return result;
+    }
+
+    /**
+     * Merge of 25 pages from two files
+     */
+    @Benchmark
+    public String httpMerge() throws IOException {
+        var result = httpRequest("POST", "/merge", "folderName=" + MergeFolder + "&filesToMerge=first.pdf&filesToMerge=second.pdf&mergedFileName=merged");
+        if (!result.equals("true"))
+        {
+            throw new IllegalStateException("merge failed");
+        }
+        return result;
+    }
+
+    private static String httpRequest(String method, String path, String body) throws IOException {
+        var connection = (HttpURLConnection) new URL("http://localhost:" + ServerConfigHelper.getHttpPort() + path).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null)
+        {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            try (var output = connection.getOutputStream())
+            {
+                output.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        // reading the whole response lets the connection be reused
+        try (var input = connection.getInputStream())
+        {
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void waitForServer() throws InterruptedException {
+        var deadline = System.currentTimeMillis() + 10000;
+        while (true)
+        {
+            try
+            {
+                new Socket("localhost", ServerConfigHelper.getHttpPort()).close();
+                return;
+            }
+            catch (IOException e)
+            {
+                if (System.currentTimeMillis() > deadline)
+                {
+                    throw new IllegalStateException("server did not start", e);
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static void deleteFiles(File folder, String prefix)
+    {
+        var files = folder.listFiles((dir, name) -> name.startsWith(prefix));
+        if (files != null)
+        {
+            for (var file : files)
+            {
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package server.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.protocol.BinaryCodec;
+import server.protocol.ResponseWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing results of ReadFiles (String[]) and StreamFile (byte[]) with java serialization like legacy clients get them,
+ * compared to the binary protocol.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dscanserver.logLevel=warn")
+public class SerializationBenchmark {
+
+    /**
+     * Number of file names of a listing
+     */
+    @Param({ "10", "1000", "10000" })
+    public int fileCount;
+
+    /**
+     * Size of a file in kb
+     */
+    @Param({ "300" })
+    public int fileSizeKb;
+
+    private String[] fileNames;
+
+    private byte[] fileData;
+
+    private ObjectOutputStream writer;
+
+    private OutputStream output;
+
+    private DataOutputStream binaryOutput;
+
+    /**
+     * Counts bytes like a socket would receive them, without keeping them
+     */
+    private static class CountingNullStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            count += length;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        fileNames = new String[fileCount];
+        for (var i = 0; i < fileCount; i++)
+        {
+            fileNames[i] = "scan_" + i + ".pdf";
+        }
+        fileData = new byte[fileSizeKb * 1024];
+        output = new CountingNullStream();
+        writer = new ObjectOutputStream(output);
+        binaryOutput = new DataOutputStream(new CountingNullStream());
+    }
+
+    @Benchmark
+    public void serializeFileNames() throws IOException {
+        ResponseWriter.write(writer, output, "ReadFiles", fileNames);
+    }
+
+    @Benchmark
+    public void serializeFileData() throws IOException {
+        ResponseWriter.write(writer, output, "StreamFile", fileData);
+        // the stream would remember the array otherwise and send a reference next time
+        writer.reset();
+    }
+
+    @Benchmark
+    public void binaryFileNames() throws IOException {
+        BinaryCodec.writeValue(binaryOutput, fileNames);
+        binaryOutput.flush();
+    }
+
+    @Benchmark
+    public void binaryFileData() throws IOException {
+        BinaryCodec.writeValue(binaryOutput, fileData);
+        binaryOutput.flush();
+    }
+
+    /**
+     * Prints the size of the answers for each number of file names, as reference for the times
+     * @param args not used
+     * @throws Exception if the sizes can't be determined
+     */
+    public static void main(String[] args) throws Exception {
+        var counts = SerializationBenchmark.class.getField("fileCount").getAnnotation(Param.class).value();
+        for (var count : counts)
+        {
+            var benchmark = new SerializationBenchmark();
+            benchmark.fileCount = Integer.parseInt(count);
+            benchmark.setUp();
+            var serialized = new ByteArrayOutputStream();
+            new ObjectOutputStream(serialized).writeObject(benchmark.fileNames);
+            var binary = new ByteArrayOutputStream();
+            BinaryCodec.writeValue(new DataOutputStream(binary), benchmark.fileNames);
+            System.out.println(count + " file names: serialized " + serialized.size() + " bytes, binary " + binary.size() + " bytes");
+        }
+    }
+}
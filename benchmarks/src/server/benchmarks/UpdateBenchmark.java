@@ -0,0 +1,72 @@
+package server.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.actions.UpdateActions;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Update checks over an app directory with {@link #apkCount} apks. The newest apk is cached till the directory
+ * changes, uncached runs touch the directory so every apk name is parsed and compared again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dscanserver.logLevel=warn")
+public class UpdateBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    public int apkCount;
+
+    private Path home;
+
+    private File appDir;
+
+    private long modified;
+
+    @Setup
+    public void setUp() throws IOException {
+        home = BenchmarkFiles.createHome();
+        appDir = BenchmarkFiles.createApks(home, apkCount).toFile();
+        modified = appDir.lastModified();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFiles.delete(home);
+    }
+
+    @Benchmark
+    public boolean updateCheck()
+    {
+        return UpdateActions.updateCheck("1.0.5");
+    }
+
+    @Benchmark
+    public File latestApkUncached()
+    {
+        // modification time changes every call, so the cached apk is not used
+        modified += 1000;
+        if (!appDir.setLastModified(modified))
+        {
+            throw new IllegalStateException("can't touch " + appDir);
+        }
+        return UpdateActions.getUpdateFile("1.0.5");
+    }
+}
@@ -0,0 +1,69 @@
+package server;
+
+import server.helper.ServerConfigHelper;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits how many requests of the same action run at the same time.
+ * Limits are read once per action from {@link ServerConfigHelper#getActionLimit(String)}.
+ */
+public class ActionLimiter {
+
+	/**
+	 * Semaphores of limited actions, by action name. Unlimited actions have no entry.
+	 */
+	private final static ConcurrentHashMap<String, Semaphore> Permits = new ConcurrentHashMap<>();
+
+	/**
+	 * Marker for actions without limit, since ConcurrentHashMap can't hold null values.
+	 */
+	private final static Semaphore Unlimited = new Semaphore(0);
+
+	/**
+	 * Wait till action may run.
+	 * Every successful call has to be followed by {@link #release(String)}.
+	 * @param actionName action to run
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public static void acquire(String actionName) throws InterruptedException {
+		var permits = getPermits(actionName);
+		if (permits != Unlimited)
+		{
+			permits.acquire();
+		}
+	}
+
+	/**
+	 * Mark action as finished.
+	 * @param actionName action that finished
+	 */
+	public static void release(String actionName)
+	{
+		var permits = getPermits(actionName);
+		if (permits != Unlimited)
+		{
+			permits.release();
+		}
+	}
+
+	/**
+	 * Number of requests waiting for given action.
+	 * @param actionName action to check
+	 * @return number of waiting requests, 0 for unlimited actions
+	 */
+	public static int getWaiting(String actionName)
+	{
+		var permits = getPermits(actionName);
+		return permits == Unlimited ? 0 : permits.getQueueLength();
+	}
+
+	private static Semaphore getPermits(String actionName)
+	{
+		return Permits.computeIfAbsent(actionName, name -> {
+			var limit = ServerConfigHelper.getActionLimit(name);
+			return limit > 0 ? new Semaphore(limit, true) : Unlimited;
+		});
+	}
+}
@@ -0,0 +1,237 @@
+package server;
+
+import server.actions.FileActions;
+import server.actions.JobActions;
+import server.actions.UpdateActions;
+import server.helper.LogHelper;
+import server.helper.PathHelper;
+import server.helper.ServerConfigHelper;
+import server.metrics.Metrics;
+import server.protocol.BinaryCodec;
+import server.protocol.BinaryRequest;
+import server.protocol.ConnectionOptions;
+import server.protocol.FileStreamer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Connection of a client that enabled {@link ConnectionOptions#Binary}: requests and responses are length prefixed frames
+ * encoded with {@link BinaryCodec} instead of java serialization.
+ * <p>
+ * Request frame: int length, int request id, string action name, map of parameters.
+ * Response frame: int length, int request id, value. Files are sent as bytes value, streamed from disk.
+ * The connection carries requests till the client closes it or is idle for the session timeout, they're answered in order.
+ * </p>
+ */
+public class BinaryConnection {
+
+	/**
+	 * Largest request frame accepted, requests only contain names and options
+	 */
+	private final static int MaxRequestSize = 1024 * 1024;
+
+	/**
+	 * Bytes of a file response before the file: request id, tag and length
+	 */
+	private final static int FileHeaderSize = Integer.BYTES + 1 + Integer.BYTES;
+
+	private final Socket clientSocket;
+
+	private final DataInputStream input;
+
+	private final DataOutputStream output;
+
+	/**
+	 * Create connection, the preamble was read already
+	 * @param clientSocket connection to client
+	 * @param clientInputStream input of client after the preamble
+	 * @throws IOException if output of socket can't be opened
+	 */
+	BinaryConnection(Socket clientSocket, BufferedInputStream clientInputStream) throws IOException {
+		this.clientSocket = clientSocket;
+		this.input = new DataInputStream(clientInputStream);
+		this.output = new DataOutputStream(new BufferedOutputStream(clientSocket.getOutputStream()));
+	}
+
+	/**
+	 * Read and answer requests till the client closes the connection or is idle
+	 */
+	void run() throws IOException {
+		clientSocket.setSoTimeout(ServerConfigHelper.getSessionIdleTimeout() * 1000);
+		var requests = 0;
+		try {
+			while (true)
+			{
+				var length = input.readInt();
+				if (length < 0 || length > MaxRequestSize)
+				{
+					LogHelper.log("Binary request of " + length + " bytes rejected");
+					break;
+				}
+				var frame = new byte[length];
+				input.readFully(frame);
+				var request = BinaryRequest.decode(frame);
+				LogHelper.log("Binary request " + request);
+				requests++;
+				handle(request);
+			}
+		}
+		catch (EOFException e)
+		{
+			// client closed connection
+		}
+		catch (SocketTimeoutException e)
+		{
+			LogHelper.log("Binary connection idle, closing");
+		}
+		finally {
+			LogHelper.log("Binary connection ended after " + requests + " requests");
+		}
+	}
+
+	/**
+	 * Execute request and send its response
+	 * @throws IOException if response could not be sent
+	 */
+	private void handle(BinaryRequest request) throws IOException {
+		var actionName = request.getActionName();
+		var start = Metrics.start();
+		try {
+			ActionLimiter.acquire(actionName);
+		}
+		catch (InterruptedException e)
+		{
+			throw new IOException("interrupted while waiting for " + actionName, e);
+		}
+		try {
+			if (isFileAction(actionName))
+			{
+				File file;
+				try {
+					file = getFile(request);
+				}
+				catch (Exception e)
+				{
+					LogHelper.log("Binary request " + request.getRequestId() + " failed: " + e);
+					file = null;
+				}
+				sendFile(request.getRequestId(), file);
+				return;
+			}
+			Object result;
+			try {
+				result = execute(request);
+			}
+			catch (Exception e)
+			{
+				LogHelper.log("Binary request " + request.getRequestId() + " failed: " + e);
+				result = null;
+			}
+			sendValue(request.getRequestId(), result);
+		}
+		finally {
+			ActionLimiter.release(actionName);
+			Metrics.observeAction(actionName, start);
+		}
+	}
+
+	/**
+	 * Execute action, parameters are named like the fields of its IPackageData
+	 * @param request request to execute
+	 * @return result to send
+	 * @throws Exception if action failed or is unknown
+	 */
+	private static Object execute(BinaryRequest request) throws Exception {
+		var folderName = request.getString("folderName");
+		switch (request.getActionName())
+		{
+			case "ReadFolders":
+				return PathHelper.readFolders();
+			case "CheckUpdate":
+				return UpdateActions.updateCheck(request.getRequiredString("version"));
+			case "ReadFiles":
+				return FileActions.readFiles(folderName);
+			case "MergeFiles":
+				return FileActions.mergeFiles(folderName, request.getStrings("filesToMerge"), request.getRequiredString("mergedFileName"));
+			case "Scan":
+				var profile = FileActions.getScanProfile(request.getInt("chosenOption", 0), request.getString("profile"), request.getInt("targetSizeKb", 0));
+				return FileActions.scanToFile(folderName, profile, request.getRequiredString("chosenName"));
+			case "DeleteFiles":
+				return FileActions.deleteFiles(folderName, request.getStrings("filesToDelete"));
+			default:
+				return ClientHandler.execute(request.toExtendedRequest());
+		}
+	}
+
+	private static boolean isFileAction(String actionName)
+	{
+		return actionName.equals("StreamFile") || actionName.equals("GetUpdate") || actionName.equals("GetJobResult") || actionName.equals("GetPreview");
+	}
+
+	/**
+	 * Resolve file of file action
+	 * @return file to send, null if there is none
+	 */
+	private static File getFile(BinaryRequest request) throws Exception {
+		switch (request.getActionName())
+		{
+			case "StreamFile":
+				return FileActions.getFilePath(request.getString("folderName"), request.getRequiredString("fileName")).toFile();
+			case "GetUpdate":
+				return UpdateActions.getUpdateFile(request.getRequiredString("version"));
+			case "GetPreview":
+				return FileActions.getPreviewFile(request.getString("folderName"), request.getRequiredString("fileName"), request.getInt("size", 0));
+			default:
+				return JobActions.getJobResultFile(request.toExtendedRequest());
+		}
+	}
+
+	private void sendValue(int requestId, Object value) throws IOException {
+		var buffer = new ByteArrayOutputStream();
+		var frame = new DataOutputStream(buffer);
+		frame.writeInt(requestId);
+		BinaryCodec.writeValue(frame, value);
+		output.writeInt(buffer.size());
+		buffer.writeTo(output);
+		output.flush();
+		Metrics.addBytesOut("socket", Integer.BYTES + buffer.size());
+	}
+
+	/**
+	 * Send file as bytes value without loading it, null value if there is no file
+	 */
+	private void sendFile(int requestId, File file) throws IOException {
+		if (file == null)
+		{
+			sendValue(requestId, null);
+			return;
+		}
+		try (var fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			var size = fileChannel.size();
+			if (size > Integer.MAX_VALUE - FileHeaderSize)
+			{
+				throw new IOException(file.getName() + " too big for a frame");
+			}
+			output.writeInt(FileHeaderSize + (int) size);
+			output.writeInt(requestId);
+			output.writeByte(BinaryCodec.TagBytes);
+			output.writeInt((int) size);
+			output.flush();
+			Metrics.addBytesOut("socket", Integer.BYTES + FileHeaderSize);
+			FileStreamer.transfer(fileChannel, 0, size, clientSocket);
+			LogHelper.log("streamed " + size + " bytes of " + file.getName());
+		}
+	}
+}
@@ -0,0 +1,337 @@
+package server;
+
+import data.ServerAction;
+import data.packages.interfaces.IPackageData;
+import server.actions.FileActions;
+import server.actions.JobActions;
+import server.actions.UpdateActions;
+import server.helper.LogHelper;
+import server.helper.PathHelper;
+import server.helper.ServerConfigHelper;
+import server.metrics.CountingInputStream;
+import server.metrics.Metrics;
+import server.protocol.ConnectionOptions;
+import server.protocol.ExtendedAction;
+import server.protocol.ExtendedRequest;
+import server.protocol.FileStreamer;
+import server.protocol.ResponseWriter;
+import server.protocol.SocketInput;
+import server.protocol.TransferRange;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.util.Map;
+
+/**
+ * Handles a single client connection: reads one request, executes its action and sends back the result.
+ * Connections with {@link ConnectionOptions#Session} enabled are handed to a {@link ClientSession} running on its own thread instead,
+ * connections with {@link ConnectionOptions#Binary} to a {@link BinaryConnection}.
+ * Requests are either an IPackageData of the shared ScanData package or a map describing an {@link ExtendedRequest}.
+ * Runs on a worker thread of {@link ConnectionDispatcher}.
+ */
+public class ClientHandler implements Runnable {
+
+	/**
+	 * Connection to client
+	 */
+	private final Socket clientSocket;
+
+	/**
+	 * Create handler for accepted connection
+	 * @param clientSocket connection to handle, will be closed after handling
+	 */
+	public ClientHandler(Socket clientSocket)
+	{
+		this.clientSocket = clientSocket;
+	}
+
+	/**
+	 * Log messages
+	 * @param message message to log
+	 */
+	private static void log(String message)
+	{
+		LogHelper.log(message);
+	}
+
+	@Override
+	public void run() {
+		var sessionStarted = false;
+		try {
+			// host name lookup only if it is logged
+			LogHelper.debug(() -> "Client connected: " + clientSocket.getInetAddress().getCanonicalHostName());
+			// a client that connects and sends nothing must not hold the worker
+			clientSocket.setSoTimeout(ServerConfigHelper.getReadTimeout() * 1000);
+			// prepare streams
+			//log("prepare streams..");
+			ObjectOutputStream writer = new ObjectOutputStream(clientSocket.getOutputStream());
+			//log("prepare reader...");
+			var socketInput = new SocketInput(clientSocket);
+			var clientInputStream = new BufferedInputStream(new CountingInputStream(socketInput, "socket"));
+			var options = ConnectionOptions.read(clientInputStream);
+			if (options != ConnectionOptions.Legacy)
+			{
+				log("Connection options: " + options);
+			}
+			if (options.isEnabled(ConnectionOptions.Binary))
+			{
+				new BinaryConnection(clientSocket, clientInputStream).run();
+				log("disconnecting");
+				return;
+			}
+			//log("got stream...");
+			ObjectInputStream inReader = new ObjectInputStream(clientInputStream);
+			if (options.isEnabled(ConnectionOptions.Session))
+			{
+				// the session closes the connection when it ends, it doesn't keep this worker
+				sessionStarted = ClientSession.start(new ClientSession(clientSocket, options, writer, inReader, clientInputStream, socketInput));
+				return;
+			}
+			//log("reading data..");
+			Object request;
+			try {
+				request = readRequest(inReader);
+			}
+			catch(Exception e)
+			{
+				LogHelper.warn("failed to read data: " + e);
+				LogHelper.debug(() -> LogHelper.getStackTrace(e));
+				return;
+			}
+			//log("getting action...");
+			var actionName = getActionName(request);
+			log("Action: " + actionName);
+			var streamFile = options.isEnabled(ConnectionOptions.StreamFiles) && isFileAction(request);
+			TransferRange range = null;
+			if (streamFile && options.isEnabled(ConnectionOptions.Ranges))
+			{
+				range = TransferRange.read(inReader);
+				log("Range: " + range);
+			}
+			Object result;
+			var start = Metrics.start();
+			ActionLimiter.acquire(actionName);
+			try {
+				if (streamFile)
+				{
+					if (range != null)
+					{
+						FileStreamer.sendRange(writer, clientSocket, getResultFile(request), range);
+					}
+					else
+					{
+						FileStreamer.send(writer, clientSocket, getResultFile(request));
+					}
+					Metrics.observeAction(actionName, start);
+					log("disconnecting");
+					return;
+				}
+				result = execute(request);
+			}
+			finally {
+				ActionLimiter.release(actionName);
+			}
+			//log("returning result of action " + actionName + " ...");
+			ResponseWriter.write(writer, clientSocket.getOutputStream(), actionName, result);
+			Metrics.observeAction(actionName, start);
+			log("disconnecting");
+		} catch (SocketTimeoutException e) {
+			log("Client sent no request within " + ServerConfigHelper.getReadTimeout() + " s, disconnecting");
+		} catch (Exception e) {
+			LogHelper.warn("Exception happened: " + e);
+			LogHelper.debug(() -> LogHelper.getStackTrace(e));
+		} finally {
+			if (!sessionStarted)
+			{
+				try {
+					clientSocket.close();
+				} catch (IOException e1) {
+					LogHelper.warn("Closing client socket failed: " + e1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read request of client
+	 * @param inReader stream to read from
+	 * @return IPackageData or ExtendedRequest
+	 * @throws Exception if reading failed or request is neither of both
+	 */
+	static Object readRequest(ObjectInputStream inReader) throws Exception {
+		var request = inReader.readObject();
+		if (request instanceof IPackageData)
+		{
+			return request;
+		}
+		if (request instanceof Map)
+		{
+			return ExtendedRequest.from((Map<?, ?>) request);
+		}
+		throw new IllegalArgumentException("unsupported request type " + (request == null ? "null" : request.getClass().getName()));
+	}
+
+	/**
+	 * Get name of requested action
+	 * @param request IPackageData or ExtendedRequest
+	 * @return name of action
+	 */
+	static String getActionName(Object request)
+	{
+		if (request instanceof IPackageData)
+		{
+			return ((IPackageData) request).getAction().name();
+		}
+		return ((ExtendedRequest) request).getAction().name();
+	}
+
+	/**
+	 * Execute action of request
+	 * @param request IPackageData or ExtendedRequest
+	 * @return result to send to client
+	 * @throws Exception if action failed
+	 */
+	static Object execute(Object request) throws Exception {
+		if (request instanceof IPackageData)
+		{
+			var data = (IPackageData) request;
+			return execute(data.getAction(), data);
+		}
+		return execute((ExtendedRequest) request);
+	}
+
+	/**
+	 * Execute action of request
+	 * @param action action to execute
+	 * @param data request data
+	 * @return result to send to client
+	 * @throws Exception if action failed
+	 */
+	private static Object execute(ServerAction action, IPackageData data) throws Exception {
+		Object result = "failed";
+		switch (action) {
+			case ReadFolders:
+				result = PathHelper.readFolders();
+				break;
+			case CheckUpdate:
+				result = UpdateActions.updateCheck(data);
+				break;
+			case GetUpdate:
+				result = UpdateActions.getUpdate(data);
+				break;
+			case ReadFiles:
+				result = FileActions.readFiles(data);
+				break;
+			case MergeFiles:
+				result = FileActions.mergeFiles(data);
+				break;
+			case Scan:
+				result = FileActions.scanToFile(data);
+				break;
+			case DeleteFiles:
+				result = FileActions.deleteFiles(data);
+				break;
+			case StreamFile:
+				result = FileActions.getFile(data);
+				break;
+			default:
+				break;
+		}
+		return result;
+	}
+
+	/**
+	 * Execute extended action
+	 * @param request request with action and parameters
+	 * @return result to send to client
+	 * @throws Exception if action failed
+	 */
+	private static Object execute(ExtendedRequest request) throws Exception {
+		Object result = "failed";
+		switch (request.getAction()) {
+			case ScanAsync:
+				result = JobActions.scanAsync(request);
+				break;
+			case BatchScan:
+				result = JobActions.batchScan(request);
+				break;
+			case GetJobStatus:
+				result = JobActions.getJobStatus(request);
+				break;
+			case GetJobResult:
+				var file = JobActions.getJobResultFile(request);
+				result = file == null ? null : Files.readAllBytes(file.toPath());
+				break;
+			case CancelJob:
+				result = JobActions.cancelJob(request);
+				break;
+			case GetUpdateInfo:
+				result = UpdateActions.getUpdateInfo();
+				break;
+			case GetPreview:
+				result = Files.readAllBytes(getResultFile(request).toPath());
+				break;
+			case ReadFileInfos:
+				result = FileActions.readFileInfos(request.getString("folderName"), request.getString("sort"),
+						Boolean.parseBoolean(request.getString("descending")), request.getInt("offset", 0), request.getInt("limit", 0));
+				break;
+			case GetMetrics:
+				result = Metrics.toPrometheus();
+				break;
+			case MergeFilesReport:
+				result = FileActions.mergeFilesWithReport(request.getString("folderName"), request.getStrings("filesToMerge"),
+						request.getRequiredString("mergedFileName"));
+				break;
+			default:
+				break;
+		}
+		return result;
+	}
+
+	/**
+	 * Check if result of action is a file, which can be streamed
+	 * @param request IPackageData or ExtendedRequest
+	 * @return true for StreamFile, GetUpdate, GetJobResult and GetPreview
+	 */
+	static boolean isFileAction(Object request)
+	{
+		if (request instanceof IPackageData)
+		{
+			var action = ((IPackageData) request).getAction();
+			return action == ServerAction.StreamFile || action == ServerAction.GetUpdate;
+		}
+		var action = ((ExtendedRequest) request).getAction();
+		return action == ExtendedAction.GetJobResult || action == ExtendedAction.GetPreview;
+	}
+
+	/**
+	 * Resolve file of file action
+	 * @param request request of StreamFile, GetUpdate, GetJobResult or GetPreview
+	 * @return file to send, null if there is none (no update needed, job not done)
+	 * @throws Exception if file could not be resolved
+	 */
+	static File getResultFile(Object request) throws Exception {
+		if (request instanceof ExtendedRequest)
+		{
+			var extendedRequest = (ExtendedRequest) request;
+			if (extendedRequest.getAction() == ExtendedAction.GetPreview)
+			{
+				return FileActions.getPreviewFile(extendedRequest.getString("folderName"), extendedRequest.getRequiredString("fileName"),
+						extendedRequest.getInt("size", 0));
+			}
+			return JobActions.getJobResultFile(extendedRequest);
+		}
+		var data = (IPackageData) request;
+		if (data.getAction() == ServerAction.StreamFile)
+		{
+			return FileActions.getFilePath(data).toFile();
+		}
+		return UpdateActions.getUpdateFile(data);
+	}
+}
@@ -0,0 +1,324 @@
+package server;
+
+import server.helper.LogHelper;
+import server.helper.ServerConfigHelper;
+import server.helper.ThreadHelper;
+import server.metrics.Metrics;
+import server.protocol.ConnectionOptions;
+import server.protocol.FileStreamer;
+import server.protocol.ResponseWriter;
+import server.protocol.SocketInput;
+import server.protocol.TransferRange;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection of a client that enabled {@link ConnectionOptions#Session}: one connection carries many requests.
+ * <p>
+ * Every request is preceded by an int request id, every response by the id of its request. Requests are read
+ * one after another, but executed concurrently (up to {@link ServerConfigHelper#getSessionConcurrency()} per session),
+ * so clients may pipeline them and a long scan doesn't hold back a listing. Responses are sent as soon as they're ready,
+ * followed by a reset of the object stream, so neither side keeps references to old responses.
+ * The session ends when the client closes the connection or sends nothing for the idle timeout while no request is running.
+ * Requests are read from the channel of the socket, see {@link SocketInput}, so the idle timeout is checked by a timer.
+ * </p>
+ * <p>
+ * Sessions run on their own threads instead of a worker of {@link ConnectionDispatcher}, so idle sessions don't block
+ * other clients. At most {@link ServerConfigHelper#getMaxSessions()} sessions are open at the same time.
+ * </p>
+ */
+public class ClientSession {
+
+	private final static int MaxSessions = Math.max(1, ServerConfigHelper.getMaxSessions());
+
+	private final static int Concurrency = Math.max(1, ServerConfigHelper.getSessionConcurrency());
+
+	/**
+	 * Sessions that may still be opened
+	 */
+	private final static Semaphore OpenSessions = new Semaphore(MaxSessions);
+
+	/**
+	 * Reads requests of sessions, one thread per open session
+	 */
+	private final static ExecutorService SessionExecutor = newExecutor(MaxSessions, "session-reader");
+
+	/**
+	 * Executes requests of all sessions. Its size is bounded by open sessions times session concurrency.
+	 */
+	private final static ExecutorService RequestExecutor = newExecutor(MaxSessions * Concurrency, "session-worker");
+
+	/**
+	 * Closes idle sessions
+	 */
+	private final static ScheduledExecutorService IdleTimer = Executors.newSingleThreadScheduledExecutor(ThreadHelper.newThreadFactory("session-idle"));
+
+	private final static long IdleCheckMs = 1000;
+
+	private final Socket clientSocket;
+
+	private final ConnectionOptions options;
+
+	private final ObjectOutputStream writer;
+
+	private final ObjectInputStream inReader;
+
+	/**
+	 * Input the object stream reads from, used to wait for the next request
+	 */
+	private final BufferedInputStream clientInputStream;
+
+	private final SocketInput socketInput;
+
+	/**
+	 * Limits requests of this session running at the same time
+	 */
+	private final Semaphore running = new Semaphore(Concurrency);
+
+	/**
+	 * Time of last request or response in ms
+	 */
+	private volatile long lastActivity = System.currentTimeMillis();
+
+	/**
+	 * Create session for connection, streams are created by {@link ClientHandler}
+	 */
+	ClientSession(Socket clientSocket, ConnectionOptions options, ObjectOutputStream writer, ObjectInputStream inReader, BufferedInputStream clientInputStream,
+			SocketInput socketInput)
+	{
+		this.clientSocket = clientSocket;
+		this.options = options;
+		this.writer = writer;
+		this.inReader = inReader;
+		this.clientInputStream = clientInputStream;
+		this.socketInput = socketInput;
+	}
+
+	/**
+	 * Executor with fixed number of threads, which end when idle
+	 */
+	private static ExecutorService newExecutor(int threads, String name)
+	{
+		var executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+				ThreadHelper.newThreadFactory(name));
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Run session on a thread of its own, closes the connection when the session ended.
+	 * @param session session to run
+	 * @return false if too many sessions are open, the caller has to close the connection then
+	 */
+	static boolean start(ClientSession session)
+	{
+		if (!OpenSessions.tryAcquire())
+		{
+			LogHelper.log("Rejecting session, " + MaxSessions + " sessions open");
+			return false;
+		}
+		SessionExecutor.execute(() -> {
+			try {
+				session.run();
+			}
+			catch (Exception e)
+			{
+				LogHelper.warn("Session failed: " + e);
+				LogHelper.debug(() -> LogHelper.getStackTrace(e));
+			}
+			finally {
+				OpenSessions.release();
+				try {
+					session.clientSocket.close();
+				} catch (IOException e1) {
+					LogHelper.warn("Closing session socket failed: " + e1);
+				}
+				LogHelper.log("disconnecting");
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Read and dispatch requests till the client closes the connection or is idle.
+	 * Returns after all responses are sent.
+	 * @throws Exception if waiting for running requests got interrupted
+	 */
+	private void run() throws Exception {
+		// the idle timer replaces the read timeout of the request, reads from the channel ignore it anyway
+		clientSocket.setSoTimeout(0);
+		socketInput.readFromChannel();
+		var idleTimeoutMs = ServerConfigHelper.getSessionIdleTimeout() * 1000L;
+		var idleCheck = IdleTimer.scheduleWithFixedDelay(() -> closeIfIdle(idleTimeoutMs), IdleCheckMs, IdleCheckMs, TimeUnit.MILLISECONDS);
+		var requests = 0;
+		try {
+			while (waitForRequest())
+			{
+				var requestId = inReader.readInt();
+				var request = ClientHandler.readRequest(inReader);
+				var actionName = ClientHandler.getActionName(request);
+				var streamFile = options.isEnabled(ConnectionOptions.StreamFiles) && ClientHandler.isFileAction(request);
+				TransferRange range = null;
+				if (streamFile && options.isEnabled(ConnectionOptions.Ranges))
+				{
+					range = TransferRange.read(inReader);
+				}
+				LogHelper.log("Session request " + requestId + ": " + actionName + (range == null ? "" : " " + range));
+				requests++;
+				lastActivity = System.currentTimeMillis();
+				running.acquire();
+				var finalRange = range;
+				RequestExecutor.execute(() -> {
+					try {
+						handle(requestId, request, actionName, streamFile, finalRange);
+					}
+					finally {
+						running.release();
+					}
+				});
+			}
+		}
+		catch (EOFException e)
+		{
+			// client closed connection
+		}
+		catch (Exception e)
+		{
+			LogHelper.log("Session failed to read request: " + e);
+		}
+		finally {
+			idleCheck.cancel(false);
+			// wait for running requests, so their responses are sent before the connection is closed
+			running.acquire(Concurrency);
+			LogHelper.log("Session ended after " + requests + " requests");
+		}
+	}
+
+	/**
+	 * Wait till the client sends something. While requests are running, the client may stay quiet as long as it wants.
+	 * @return false if the client closed the connection or was idle too long
+	 */
+	private boolean waitForRequest() throws IOException {
+		if (inReader.available() > 0)
+		{
+			return true;
+		}
+		clientInputStream.mark(1);
+		if (clientInputStream.read() < 0)
+		{
+			return false;
+		}
+		clientInputStream.reset();
+		return true;
+	}
+
+	/**
+	 * Shut down input if no request ran for the idle timeout, so {@link #waitForRequest()} returns. Runs on the idle timer.
+	 */
+	private void closeIfIdle(long idleTimeoutMs)
+	{
+		if (running.availablePermits() != Concurrency || System.currentTimeMillis() - lastActivity < idleTimeoutMs)
+		{
+			return;
+		}
+		LogHelper.log("Session idle, closing");
+		try {
+			clientSocket.shutdownInput();
+		}
+		catch (IOException e)
+		{
+			// closed meanwhile
+		}
+	}
+
+	/**
+	 * Execute request and send its response, runs on a session worker
+	 */
+	private void handle(int requestId, Object request, String actionName, boolean streamFile, TransferRange range)
+	{
+		var start = Metrics.start();
+		try {
+			ActionLimiter.acquire(actionName);
+			try {
+				if (streamFile)
+				{
+					File file;
+					try {
+						file = ClientHandler.getResultFile(request);
+					}
+					catch (Exception e)
+					{
+						LogHelper.log("Session request " + requestId + " failed: " + e);
+						file = null;
+					}
+					synchronized (writer)
+					{
+						writer.writeInt(requestId);
+						if (range != null)
+						{
+							FileStreamer.sendRange(writer, clientSocket, file, range);
+						}
+						else
+						{
+							FileStreamer.send(writer, clientSocket, file);
+						}
+						endFrame();
+					}
+					return;
+				}
+				Object result;
+				try {
+					result = ClientHandler.execute(request);
+				}
+				catch (Exception e)
+				{
+					// the client waits for an answer to this id, unlike single requests closing the connection is no option
+					LogHelper.log("Session request " + requestId + " failed: " + e);
+					result = null;
+				}
+				synchronized (writer)
+				{
+					writer.writeInt(requestId);
+					ResponseWriter.write(writer, clientSocket.getOutputStream(), actionName, result);
+					endFrame();
+				}
+			}
+			finally {
+				ActionLimiter.release(actionName);
+				Metrics.observeAction(actionName, start);
+				lastActivity = System.currentTimeMillis();
+			}
+		}
+		catch (Exception e)
+		{
+			// response could not be sent completely, so the stream is broken
+			LogHelper.log("Session response " + requestId + " failed: " + e);
+			try {
+				clientSocket.close();
+			} catch (IOException e1) {
+				LogHelper.warn("Closing session socket failed: " + e1);
+			}
+		}
+	}
+
+	/**
+	 * Reset object stream after a response, so the next one starts with a fresh handle table on both sides
+	 */
+	private void endFrame() throws IOException {
+		writer.reset();
+		writer.flush();
+	}
+}
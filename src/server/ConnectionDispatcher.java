@@ -0,0 +1,106 @@
+package server;
+
+import server.helper.LogHelper;
+import server.helper.ServerConfigHelper;
+import server.helper.ThreadHelper;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands accepted connections to a bounded pool of worker threads, so long running actions (like scans)
+ * don't block other clients. If all workers are busy and the queue is full, new connections get closed right away.
+ */
+public class ConnectionDispatcher {
+
+	/**
+	 * Workers handling connections
+	 */
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Highest number of connections waiting in queue so far
+	 */
+	private final AtomicInteger peakQueueDepth = new AtomicInteger();
+
+	/**
+	 * Number of connections rejected because queue was full
+	 */
+	private final AtomicLong rejectedConnections = new AtomicLong();
+
+	/**
+	 * Create dispatcher with worker and queue sizes of {@link ServerConfigHelper}
+	 */
+	public ConnectionDispatcher()
+	{
+		var workers = ServerConfigHelper.getWorkerThreads();
+		executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(ServerConfigHelper.getConnectionQueueCapacity()), ThreadHelper.newThreadFactory("client-worker"));
+		executor.allowCoreThreadTimeOut(true);
+		LogHelper.log("Dispatching connections to " + workers + " workers");
+	}
+
+	/**
+	 * Queue connection for handling. Closes connection if it can't be queued.
+	 * @param clientSocket accepted connection
+	 */
+	public void dispatch(Socket clientSocket)
+	{
+		try {
+			executor.execute(new ClientHandler(clientSocket));
+			peakQueueDepth.accumulateAndGet(getQueueDepth(), Math::max);
+		}
+		catch (RejectedExecutionException e)
+		{
+			rejectedConnections.incrementAndGet();
+			LogHelper.log("Rejecting client, all workers busy and " + getQueueDepth() + " connections queued");
+			try {
+				clientSocket.close();
+			} catch (IOException e1) {
+				LogHelper.warn("Closing rejected client failed: " + e1);
+			}
+		}
+	}
+
+	/**
+	 * Number of connections waiting for a worker
+	 * @return current queue depth
+	 */
+	public int getQueueDepth()
+	{
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Highest queue depth since start
+	 * @return peak queue depth
+	 */
+	public int getPeakQueueDepth()
+	{
+		return peakQueueDepth.get();
+	}
+
+	/**
+	 * Number of connections currently handled
+	 * @return active connections
+	 */
+	public int getActiveConnections()
+	{
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * Number of connections rejected since start
+	 * @return rejected connections
+	 */
+	public long getRejectedConnections()
+	{
+		return rejectedConnections.get();
+	}
+}
@@ -2,29 +2,31 @@
 package server;
 
 import data.Config;
-import data.ServerAction;
-import data.packages.interfaces.IPackageData;
 import server.actions.FileActions;
-import server.actions.UpdateActions;
+import server.helper.EnvironmentHelper;
 import server.helper.LogHelper;
-import server.helper.PathHelper;
+import server.http.HttpFrontend;
+import server.helper.ServerConfigHelper;
+import server.index.ContentIndex;
+import server.jobs.JobManager;
+import server.maintenance.Maintenance;
+import server.metrics.Metrics;
+import server.scan.ScannerDevices;
+import server.tools.ProcessRunner;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.List;
 import java.util.Locale;
 
 
 /**
- * client tries to connect to server server (if no other client connected
- * already) accepts connection client receives connection established and points
- * out options: low quality (fast, may bad result), medium quality (decent, decent)
- * and good quality (slow, good quality) will send chosen option to server (if
- * taking longer than 30 sec, server will close connection) server tries to do
- * chosen option server sends result
+ * Socket server to scan, list, merge and download files.
+ * Clients connect, send a single request and receive its result, see {@link ClientHandler}.
+ * Connections are handled concurrently. Scans run as background jobs: Scan waits for its job,
+ * ScanAsync returns a job id right away, which can be polled with GetJobStatus and fetched with GetJobResult.
+ * The same actions are served over http next to the socket port, see {@link HttpFrontend}.
  **/
 public class Server {
 
@@ -50,115 +52,55 @@ public class Server {
 				Config.switchDebug();
 			}
 		}
-		ServerSocket ss = null;
+		ServerSocketChannel ss = null;
 		try {
-			ss = new ServerSocket(Config.getPort());
+			// opened as channel, so accepted sockets have channels files can be transferred to directly
+			ss = ServerSocketChannel.open();
+			ss.bind(new InetSocketAddress(Config.getPort()), ServerConfigHelper.getBacklog());
 			log("Server running");
+			if (!EnvironmentHelper.isDebug())
+			{
+				// open scanner now, so the first scan doesn't wait for it
+				ScannerDevices.prepare(FileActions.getScanProfile(0, null, 0), List.of());
+			}
 
 		} catch (Exception e) {
-			log("Failure!");
+			LogHelper.warn("Failure! " + e);
+			LogHelper.debug(() -> LogHelper.getStackTrace(e));
 			System.exit(1);
 		}
+		try {
+			HttpFrontend.start();
+		} catch (Exception e) {
+			// the socket protocol works without it
+			LogHelper.warn("Http front end could not be started: " + e);
+			LogHelper.debug(() -> LogHelper.getStackTrace(e));
+		}
+		var dispatcher = new ConnectionDispatcher();
+		Metrics.registerGauge("active_connections", "Connections handled by socket workers", dispatcher::getActiveConnections);
+		Metrics.registerGauge("queued_connections", "Connections waiting for a socket worker", dispatcher::getQueueDepth);
+		Metrics.registerGauge("queued_connections_peak", "Highest number of connections waiting for a socket worker", dispatcher::getPeakQueueDepth);
+		Metrics.registerGauge("rejected_connections", "Connections rejected since start, all workers busy and queue full", dispatcher::getRejectedConnections);
+		Metrics.registerGauge("active_jobs", "Scan jobs not finished yet", JobManager::getActiveJobs);
+		Metrics.registerGauge("tool_slots_used", "CPU slots used by running external tools", ProcessRunner::getUsedSlots);
+		Metrics.registerGauge("tool_slots_waiting", "External tools waiting for a CPU slot", ProcessRunner::getWaiting);
+		Metrics.registerGauge("corrupt_files", "Files whose content changed without their size or time changing, of the folders checked so far", ContentIndex::getCorruptFiles);
+		Metrics.registerGauge("linked_files", "Duplicate files replaced by hard links since start", ContentIndex::getLinkedFiles);
+		Metrics.registerGauge("linked_bytes", "Bytes saved by replacing duplicate files by hard links since start", ContentIndex::getLinkedBytes);
+		Maintenance.start();
 
 		//noinspection InfiniteLoopStatement
 		while (true) {
-			Socket clientSocket = null;
 			try {
-				log("waiting for client..");
-				clientSocket = ss.accept();
-				log("Client connected: " + clientSocket.getInetAddress().getCanonicalHostName());
-				// prepare streams
-				//log("prepare streams..");
-				ObjectOutputStream writer = new ObjectOutputStream(clientSocket.getOutputStream());
-				//log("prepare reader...");
-				var clientInputStream = clientSocket.getInputStream();
-				//log("got stream...");
-				ObjectInputStream inReader = new ObjectInputStream(clientInputStream);
-				//log("reading data..");
-				IPackageData data;
-				try {
-					data = (IPackageData) inReader.readObject();
-				}
-				catch(Exception e)
-				{
-					log("failed to read data!");
-					log(e.toString());
-					log("message:");
-					log(e.getMessage());
-					log("stacktrace:");
-					e.printStackTrace();
-					clientSocket.close();
-					continue;
-				}
-				Object result = "failed";
-				//log("getting action...");
-				ServerAction action = data.getAction();
-				log("Action: " + action.name());
-				switch (action) {
-					case ReadFolders:
-						result = PathHelper.readFolders();
-						break;
-					case CheckUpdate:
-						result = UpdateActions.updateCheck(data);
-						break;
-					case GetUpdate:
-						result = UpdateActions.getUpdate(data);
-						break;
-					case ReadFiles:
-						result = FileActions.readFiles(data);
-						break;
-					case MergeFiles:
-						result = FileActions.mergeFiles(data);
-						break;
-					case Scan:
-						result = FileActions.scanToFile(data);
-						break;
-					case DeleteFiles:
-						result = FileActions.deleteFiles(data);
-						break;
-					case StreamFile:
-						result = FileActions.getFile(data);
-						break;
-					default:
-						break;
-				}
-				//log("returning result of action " + action + " ...");
-				var size = getSize(result);
-				//log("with size " + size);
-				writer.writeInt(size);
-				writer.writeObject(result);
-				writer.flush();
-				log("disconnecting");
-				clientSocket.close();
+				LogHelper.debug(() -> "waiting for client..");
+				Socket clientSocket = ss.accept().socket();
+				// host name lookup happens on the worker, so it doesn't delay accepting the next client
+				log("Client accepted (active: " + dispatcher.getActiveConnections() + ", queued: " + dispatcher.getQueueDepth() + ")");
+				dispatcher.dispatch(clientSocket);
 			} catch (Exception e) {
-				System.err.println("Exception happened: " + e.getMessage());
-				try {
-					if (clientSocket != null) {
-						clientSocket.close();
-					}
-				} catch (IOException e1) {
-					e1.printStackTrace();
-				}
+				LogHelper.warn("Exception happened: " + e);
+				LogHelper.debug(() -> LogHelper.getStackTrace(e));
 			}
 		}
 	}
-
-	/**
-	 * get size of file in bytes
-	 * @param object object to get byte size from
-	 * @return byteSize of object
-	 * @throws IOException if streams don't work out
-	 */
-	private static int getSize(Object object) throws IOException {
-		if (object instanceof byte[])
-		{
-			byte[] a = (byte[]) object;
-			return a.length;
-		}
-		var byteArrayStream = new ByteArrayOutputStream();
-		var objectStream = new ObjectOutputStream(byteArrayStream);
-		objectStream.writeObject(object);
-		objectStream.flush();
-		return byteArrayStream.size();
-	}
 }
@@ -2,6 +2,8 @@ package server.actions;
 
 import server.helper.LogHelper;
 
+import java.util.function.Supplier;
+
 /**
  * Base of action classes. Contains helping methods, so action classes do not have to implement them again.
  */
@@ -15,4 +17,13 @@ public class BaseAction {
     {
         LogHelper.log(message);
     }
+
+    /**
+     * Log debug message, only built if debug messages are logged
+     * @param message supplier of message
+     */
+    protected static void debug(Supplier<String> message)
+    {
+        LogHelper.debug(message);
+    }
 }
@@ -3,13 +3,39 @@ package server.actions;
 import data.packages.implementations.PackageData.*;
 import data.packages.interfaces.IPackageData;
 import server.helper.EnvironmentHelper;
+import server.helper.FileHelper;
+import server.helper.LogHelper;
 import server.helper.PathHelper;
+import server.helper.ServerConfigHelper;
+import server.index.ContentIndex;
+import server.index.FileInfo;
+import server.index.PreviewCache;
+import server.index.ScanIndex;
+import server.jobs.BatchScanJob;
+import server.jobs.Job;
+import server.jobs.JobManager;
+import server.jobs.ScanJob;
+import server.metrics.Metrics;
+import server.pdf.PageRangeException;
+import server.pdf.PageSelection;
+import server.pdf.MergeReport;
+import server.pdf.ParallelMerger;
+import server.pdf.PdfMerger;
+import server.scan.ScanPipeline;
+import server.scan.ScanProfile;
+import server.scan.ToolException;
+import server.tools.ProcessRunner;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -34,20 +60,63 @@ public class FileActions  extends BaseAction {
      * @throws Exception if no latest folder or path given not found
      */
     public static byte[] getFile(IPackageData data) throws Exception {
-        var getFileData = (PackageDataGetFile) data;
-        if (getFileData.folderName == null || getFileData.folderName.length() < 1)
-        {
-            getFileData.folderName = PathHelper.getLatestFolder();
-        }
-        var dirPath = PathHelper.getTargetDirPath(getFileData.folderName);
-        var filePath = Paths.get(dirPath.toString(), getFileData.fileName);
-        var file = filePath.toFile();
+        var file = getFilePath(data).toFile();
         var inputStream = new FileInputStream(file);
         var fileData = inputStream.readAllBytes();
         inputStream.close();
         return fileData;
     }
 
+    /**
+     * Returns path of file, so it can be streamed without loading it.
+     * @param data file to retrieve
+     * @return path of file to retrieve
+     * @throws Exception if no latest folder or path given not found
+     */
+    public static Path getFilePath(IPackageData data) throws Exception {
+        var getFileData = (PackageDataGetFile) data;
+        return getFilePath(getFileData.folderName, getFileData.fileName);
+    }
+
+    /**
+     * Returns path of file, so it can be streamed without loading it.
+     * @param folderName folder of file, latest folder if not set
+     * @param fileName name of file
+     * @return path of file to retrieve
+     * @throws Exception if no latest folder or path given not found
+     */
+    public static Path getFilePath(String folderName, String fileName) throws Exception {
+        if (folderName == null || folderName.length() < 1)
+        {
+            folderName = PathHelper.getLatestFolder();
+        }
+        var dirPath = PathHelper.getTargetDirPath(folderName);
+        var filePath = Paths.get(dirPath.toString(), fileName);
+        if (!filePath.toFile().isFile())
+        {
+            throw new FileNotFoundException(filePath.toString());
+        }
+        return filePath;
+    }
+
+    /**
+     * Returns jpeg preview of first page of pdf, rendered if not cached yet.
+     * @param folderName folder of file, latest folder if not set
+     * @param fileName name of pdf
+     * @param size longer side of preview in pixels, 0 for default size
+     * @return preview file
+     * @throws Exception if file not found, is no pdf or preview could not be rendered
+     * @see PreviewCache
+     */
+    public static File getPreviewFile(String folderName, String fileName, int size) throws Exception {
+        var pdf = getFilePath(folderName, fileName).toFile();
+        if (!pdf.getName().toLowerCase().endsWith(".pdf"))
+        {
+            throw new IllegalArgumentException(fileName + " is no pdf");
+        }
+        return PreviewCache.getPreview(pdf, size > 0 ? size : PreviewCache.DefaultSize);
+    }
+
     /**
      * Merge multiple pdfs to one file.
      *
@@ -56,63 +125,226 @@ public class FileActions  extends BaseAction {
      */
     public static boolean mergeFiles(IPackageData data) throws Exception {
         var mergeData = (PackageDataMerge) data;
-        if (mergeData.folderName == null || mergeData.folderName.length() < 1)
+        return mergeFiles(mergeData.folderName, mergeData.filesToMerge, mergeData.mergedFileName);
+    }
+
+    /**
+     * Merge multiple pdfs to one file.
+     *
+     * @param folderName folder of files, latest folder if not set
+     * @param filesToMerge names of files to merge, in order
+     * @param mergedFileName name of merged file without extension
+     * @return boolean indicating if everything worked or not
+     */
+    public static boolean mergeFiles(String folderName, List<String> filesToMerge, String mergedFileName) throws Exception {
+        if (folderName == null || folderName.length() < 1)
         {
-            mergeData.folderName = PathHelper.getLatestFolder();
+            folderName = PathHelper.getLatestFolder();
         }
         try {
-            Path targetDirPath = PathHelper.getTargetDirPath(mergeData.folderName);
-            var filePaths = mergeData.filesToMerge.stream().map(f -> Paths.get(targetDirPath.toString(), f).toString()).collect(Collectors.toList());
-            String mergedFileName = mergeData.mergedFileName;
+            Path targetDirPath = PathHelper.getTargetDirPath(folderName);
+            var selections = filesToMerge.stream().map(f -> PageSelection.parse(targetDirPath.toFile(), f)).collect(Collectors.toList());
             if (!isReal())
             {
                 return true;
             }
-            File targetDir = targetDirPath.toFile();
-            // prepare files
-            String targetFilePath = Paths.get(targetDirPath.toString(), mergedFileName).toString();
-            File targetFile = new File(targetFilePath + ".pdf");
-
-            // if file exist, rename
-            if (targetFile.exists()) {
-                int counter = 0;
-                while (targetFile.exists()) {
-                    targetFile = new File(targetFilePath + "_" + counter + ".pdf");
-                    counter++;
+            // reserved, so a concurrent merge to the same name doesn't write into it
+            var reservedFile = FileHelper.reserveFreeFile(targetDirPath.toFile(), mergedFileName, ".pdf");
+            File targetFile = null;
+            try {
+                if (mergeSelections(targetDirPath.toFile(), selections, reservedFile))
+                {
+                    targetFile = FileHelper.publish(reservedFile);
                 }
             }
+            finally {
+                Files.deleteIfExists(reservedFile.toPath());
+            }
+            var merged = targetFile != null;
+            ScanIndex.invalidate(folderName);
+            if (merged)
+            {
+                PreviewCache.renderLater(targetFile);
+                ContentIndex.addLater(targetFile);
+            }
+            return merged;
+        } catch (Exception e) {
+            LogHelper.warn("Merging into " + mergedFileName + " failed: " + e);
+            LogHelper.debug(() -> LogHelper.getStackTrace(e));
+            return false;
+        }
 
-            // Merge:
-            // pdftk page1.pdf page2.pdf ... cat output result.pdf
-            ArrayList<String> mergeCommandsList = new ArrayList<>();
-            mergeCommandsList.add("pdftk");
-            mergeCommandsList.addAll(filePaths);
-            mergeCommandsList.add("cat");
-            mergeCommandsList.add("output");
-            mergeCommandsList.add(targetFile.getAbsolutePath());
-            String[] mergeCommands =mergeCommandsList.toArray(new String[0]);
+    }
 
-            log("Will execute command: \"" + String.join(" ", mergeCommands) + "\"");
-            ProcessBuilder pb = new ProcessBuilder();
-            Process mergeProcess = pb.directory(targetDir).command(mergeCommands).start();
-            BufferedReader errorReader = new BufferedReader(new
-                    InputStreamReader(mergeProcess.getErrorStream()));
-            // Read any errors from the attempted command
-            log("Here is the standard error of the command (if any):\n");
-            String s;
-            while ((s = errorReader.readLine()) != null) {
-                log(s);
+    /**
+     * Merge multiple pdfs to one file, validating and merging them in parallel.
+     *
+     * @param folderName folder of files, latest folder if not set
+     * @param filesToMerge names of files to merge, in order, optionally with pages like "scan.pdf#2-3"
+     * @param mergedFileName name of merged file without extension
+     * @return report with success and timing of merge and every file
+     * @throws Exception if folder doesn't exist or got interrupted
+     * @see MergeReport#toMap()
+     */
+    public static HashMap<String, Object> mergeFilesWithReport(String folderName, List<String> filesToMerge, String mergedFileName) throws Exception {
+        if (folderName == null || folderName.length() < 1)
+        {
+            folderName = PathHelper.getLatestFolder();
+        }
+        var targetDir = PathHelper.getTargetDirPath(folderName).toFile();
+        var selections = filesToMerge.stream().map(f -> PageSelection.parse(targetDir, f)).collect(Collectors.toList());
+        if (!isReal())
+        {
+            return ParallelMerger.merge(selections, FileHelper.getFreeFile(targetDir, mergedFileName, ".pdf"), (s, t) -> true).toMap();
+        }
+        // reserved, so a concurrent merge to the same name doesn't write into it
+        var reservedFile = FileHelper.reserveFreeFile(targetDir, mergedFileName, ".pdf");
+        File targetFile = null;
+        MergeReport report;
+        try {
+            report = ParallelMerger.merge(selections, reservedFile, (s, t) -> mergeSelections(targetDir, s, t));
+            if (report.isSuccess())
+            {
+                targetFile = FileHelper.publish(reservedFile);
+                report.setTarget(targetFile);
+            }
+        }
+        finally {
+            Files.deleteIfExists(reservedFile.toPath());
+        }
+        log("Merge report of " + report);
+        if (targetFile != null)
+        {
+            ScanIndex.invalidate(folderName);
+            PreviewCache.renderLater(targetFile);
+            ContentIndex.addLater(targetFile);
+        }
+        return report.toMap();
+    }
+
+    /**
+     * Merge whole pdfs.
+     *
+     * @param workingDir working directory of pdftk
+     * @param filePaths paths of pdfs to merge, in order
+     * @param targetFile file to write merged pdf to
+     * @return if merging succeeded
+     * @throws Exception if pdftk could not be started or got interrupted
+     * @see #mergeSelections(File, List, File)
+     */
+    public static boolean mergePdfs(File workingDir, List<String> filePaths, File targetFile) throws Exception {
+        var selections = filePaths.stream().map(f -> new PageSelection(new File(f), null)).collect(Collectors.toList());
+        return mergeSelections(workingDir, selections, targetFile);
+    }
+
+    /**
+     * Merge pages of pdfs. Merges in process, pdftk is used if that's configured or a file can't be merged in process
+     * (like encrypted files).
+     *
+     * @param workingDir working directory of pdftk
+     * @param selections pdfs and their pages to merge, in order
+     * @param targetFile file to write merged pdf to
+     * @return if merging succeeded
+     * @throws Exception if pdftk could not be started or got interrupted
+     * @see ServerConfigHelper#getMergeEngine()
+     */
+    public static boolean mergeSelections(File workingDir, List<PageSelection> selections, File targetFile) throws Exception {
+        if (ServerConfigHelper.getMergeEngine().equals("java"))
+        {
+            var start = System.nanoTime();
+            try {
+                var pageCount = PdfMerger.merge(selections, targetFile);
+                Metrics.observeStage("merge", System.nanoTime() - start);
+                log("Merged " + pageCount + " pages into " + targetFile.getName() + " in " + (System.nanoTime() - start) / 1000000 + "ms");
+                return true;
             }
+            catch (PageRangeException e)
+            {
+                // pdftk would fail as well
+                log("Can't merge into " + targetFile.getName() + ": " + e.getMessage());
+                return false;
+            }
+            catch (Exception e)
+            {
+                log("Merging in process failed (" + e + "), using pdftk");
+            }
+        }
+        return mergeWithPdftk(workingDir, selections, targetFile);
+    }
+
+    /**
+     * Merge pdfs with pdftk.
+     *
+     * @param workingDir working directory of pdftk
+     * @param selections pdfs and their pages to merge, in order
+     * @param targetFile file to write merged pdf to
+     * @return if pdftk succeeded
+     * @throws Exception if pdftk could not be started or got interrupted
+     */
+    private static boolean mergeWithPdftk(File workingDir, List<PageSelection> selections, File targetFile) throws Exception {
+        // Merge:
+        // pdftk page1.pdf page2.pdf ... cat output result.pdf
+        // with pages:
+        // pdftk A=page1.pdf B=page2.pdf cat A1-3 B5 output result.pdf
+        var allPages = selections.stream().allMatch(PageSelection::isAllPages);
+        ArrayList<String> mergeCommandsList = new ArrayList<>();
+        mergeCommandsList.add("pdftk");
+        var handles = new ArrayList<String>();
+        for (int index = 0; index < selections.size(); index++)
+        {
+            var path = selections.get(index).getFile().getPath();
+            if (allPages)
+            {
+                mergeCommandsList.add(path);
+            }
+            else
+            {
+                var handle = getPdftkHandle(index);
+                handles.add(handle);
+                mergeCommandsList.add(handle + "=" + path);
+            }
+        }
+        mergeCommandsList.add("cat");
+        for (int index = 0; index < handles.size(); index++)
+        {
+            mergeCommandsList.addAll(List.of(selections.get(index).toPdftkRanges(handles.get(index)).split(" ")));
+        }
+        mergeCommandsList.add("output");
+        mergeCommandsList.add(targetFile.getAbsolutePath());
+        String[] mergeCommands =mergeCommandsList.toArray(new String[0]);
 
-            mergeProcess.waitFor();
+        log("Will execute command: \"" + String.join(" ", mergeCommands) + "\"");
+        var start = System.nanoTime();
+        // errors of pdftk are logged by the runner if it fails
+        try {
+            ProcessRunner.run(new ProcessBuilder(mergeCommands).directory(workingDir));
             return true;
-        } catch (Exception e) {
-            e.printStackTrace();
+        }
+        catch (ToolException e)
+        {
+            log("Merging with pdftk failed: " + e.getMessage());
             return false;
         }
-
+        finally {
+            Metrics.observeStage("pdftk", System.nanoTime() - start);
+        }
     }
 
+    /**
+     * Handle of file for pdftk, upper case letters only: A..Z, AA..AZ, BA..
+     */
+    private static String getPdftkHandle(int index)
+    {
+        var handle = new StringBuilder();
+        index++;
+        while (index > 0)
+        {
+            index--;
+            handle.insert(0, (char) ('A' + index % 26));
+            index /= 26;
+        }
+        return handle.toString();
+    }
 
     /**
      * Deletes files.
@@ -120,29 +352,47 @@ public class FileActions  extends BaseAction {
      * @return if delete worked for all files
      */
     public static boolean deleteFiles(IPackageData data) throws Exception {
-        var result = true;
         PackageDataDelete deleteFileData = (PackageDataDelete) data;
-        if (deleteFileData.folderName == null || deleteFileData.folderName.length() < 1)
+        return deleteFiles(deleteFileData.folderName, deleteFileData.filesToDelete);
+    }
+
+    /**
+     * Deletes files.
+     * @param folderName folder of files, latest folder if not set
+     * @param filesToDelete names of files to delete
+     * @return if delete worked for all files
+     */
+    public static boolean deleteFiles(String folderName, List<String> filesToDelete) throws Exception {
+        var result = true;
+        if (folderName == null || folderName.length() < 1)
         {
-            deleteFileData.folderName = PathHelper.getLatestFolder();
+            folderName = PathHelper.getLatestFolder();
         }
         try
         {
-            for(int fileIndex = 0; fileIndex < deleteFileData.filesToDelete.size(); fileIndex++)
+            for(int fileIndex = 0; fileIndex < filesToDelete.size(); fileIndex++)
             {
-                var currentFilePath = Paths.get(PathHelper.getTargetDirPath(deleteFileData.folderName).toString(), deleteFileData.filesToDelete.get(fileIndex));
+                var currentFilePath = Paths.get(PathHelper.getTargetDirPath(folderName).toString(), filesToDelete.get(fileIndex));
                 var currentFile = currentFilePath.toFile();
-                result &= currentFile.delete();
-                if (!result)
+                var deleted = currentFile.delete();
+                result &= deleted;
+                if (deleted)
+                {
+                    PreviewCache.delete(currentFile);
+                    ContentIndex.remove(currentFile);
+                }
+                else
                 {
                     log("Failed to delete file " + currentFilePath);
                 }
             }
+            ScanIndex.invalidate(folderName);
             return result;
         }
         catch(Exception e)
         {
-            e.printStackTrace();
+            LogHelper.warn("Deleting files in " + folderName + " failed: " + e);
+            LogHelper.debug(() -> LogHelper.getStackTrace(e));
             return false;
         }
     }
@@ -153,133 +403,179 @@ public class FileActions  extends BaseAction {
      */
     public static String[] readFiles(IPackageData data) throws Exception {
         PackageDataListFiles listFileData = (PackageDataListFiles) data;
-        if (listFileData.folderName == null || listFileData.folderName.length() < 1)
+        return readFiles(listFileData.folderName);
+    }
+
+    /**
+     * Return list of files in folder
+     * @param folderName folder to list, latest folder if not set
+     * @return String array of fileNames contained in folder
+     */
+    public static String[] readFiles(String folderName) throws Exception {
+        if (folderName == null || folderName.length() < 1)
         {
-            listFileData.folderName = PathHelper.getLatestFolder();
+            folderName = PathHelper.getLatestFolder();
         }
-        log("folderName: " + listFileData.folderName);
-        Path targetDirPath = PathHelper.getTargetDirPath(listFileData.folderName);
-        log("trying to read from '" + targetDirPath.toString() + "' ...");
-        File targetDir = targetDirPath.toFile();
-        File[] files = targetDir.listFiles();
-        if (files == null)
+        Path targetDirPath = PathHelper.getTargetDirPath(folderName);
+        String[] fileNames = ScanIndex.getFiles(folderName);
+        log("Found " + fileNames.length + " files in " + folderName);
+        debug(() -> "Files in " + targetDirPath + ": " + String.join(", ", fileNames));
+        return fileNames;
+    }
+
+    /**
+     * Return metadata of files in folder, sorted and paged on the server, so clients don't have to download files
+     * to learn their size or page count.
+     * @param folderName folder to list, latest folder if not set
+     * @param sort "name", "size" or "modified", name if not set
+     * @param descending if order is reversed
+     * @param offset number of files to skip
+     * @param limit maximum number of files to return, 0 for all
+     * @return map with total (number of files in folder), offset, columns (names of values) and
+     * files (array of [name, size, modified time in ms, page count or -1])
+     * @throws Exception if folder can't be read
+     * @see FileInfo
+     */
+    public static HashMap<String, Object> readFileInfos(String folderName, String sort, boolean descending, int offset, int limit) throws Exception {
+        if (folderName == null || folderName.length() < 1)
         {
-            log("no files found!");
-            return new String[0];
+            folderName = PathHelper.getLatestFolder();
         }
-        String[] fileNames = new String[files.length];
-        for (int fileIndex = 0; fileIndex < fileNames.length; fileIndex++) {
-            fileNames[fileIndex] = files[fileIndex].getName();
+        if (offset < 0 || limit < 0)
+        {
+            throw new IllegalArgumentException("offset and limit can't be negative");
         }
-        log("Found " + fileNames.length + " files: " + String.join(", ", fileNames));
-        return fileNames;
+        var comparator = FileInfo.getComparator(sort == null || sort.isEmpty() ? "name" : sort);
+        var folder = PathHelper.getTargetDirPath(folderName);
+        var infos = Files.isDirectory(folder) ? FileInfo.readFolder(folder) : new ArrayList<FileInfo>();
+        infos.sort(descending ? comparator.reversed() : comparator);
+        var end = limit == 0 ? infos.size() : (int) Math.min(infos.size(), (long) offset + limit);
+        // page counts are only read for the returned files
+        var page = offset >= infos.size() ? List.<FileInfo>of() : infos.subList(offset, end);
+        var result = new HashMap<String, Object>();
+        result.put("total", infos.size());
+        result.put("offset", offset);
+        result.put("columns", FileInfo.Columns.clone());
+        result.put("files", page.stream().map(FileInfo::toArray).toArray(String[][]::new));
+        return result;
     }
 
     /**
      * Scans and saves result to file. Will use some logic to minimize fileSize.
+     * Waits till the scan job finished.
      *
      * @param data detailed data of how to scan to what file
      * @return false if exception happened, true if not
+     * @see #submitScan(String, ScanProfile, String)
      */
     public static boolean scanToFile(IPackageData data) {
         PackageDataScan scanData = (PackageDataScan) data;
-        if (scanData.folderName == null || scanData.folderName.length() < 1)
-        {
-            scanData.folderName = PathHelper.FolderDateFormat.format(new Date());
-        }
-        try {
-            // read options from stream
-            int resolution = scanData.chosenOption  * 150 + 150;
-            String fileName = scanData.chosenName;
+        return scanToFile(scanData.folderName, getScanProfile(scanData.chosenOption, null, 0), scanData.chosenName);
+    }
 
+    /**
+     * Scans and saves result to file. Waits till the scan job finished.
+     *
+     * @param folderName folder to save scan to, folder of current date if not set
+     * @param profile how to scan and compress
+     * @param fileName name of file without extension
+     * @return false if exception happened, true if not
+     * @see #getScanProfile(int, String, int)
+     */
+    public static boolean scanToFile(String folderName, ScanProfile profile, String fileName) {
+        try {
             if (EnvironmentHelper.isDebug())
             {
                 return true;
             }
+            var job = submitScan(folderName, profile, fileName);
+            job.await(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            log("Scan job " + job.getId() + " finished: " + job.getStatus());
+            return job.getState() == Job.State.Done;
+        } catch (Exception e) {
+            LogHelper.warn("Scan to " + fileName + " failed: " + e);
+            LogHelper.debug(() -> LogHelper.getStackTrace(e));
+            return false;
+        }
+    }
 
-            Path targetDirPath = PathHelper.getTargetDirPath(scanData.folderName);
-            File targetDir = targetDirPath.toFile();
-
-            // prepare files
-            String targetFilePath = Paths.get(targetDirPath.toString(), fileName).toString();
-            File targetFile = new File(targetFilePath + ".pdf");
-
-            // if file exist, rename
-            if (targetFile.exists()) {
-                int counter = 0;
-                while (targetFile.exists()) {
-                    targetFile = new File(targetFilePath + "_" + counter + ".pdf");
-                    counter++;
-                }
-            }
-
-            // scan
-            @SuppressWarnings("SpellCheckingInspection")
-            String[] scanCommand = { "scanimage", "--format=tiff", "--resolution", "" + resolution };
-            log("Will execute command: \"" + String.join(" ", scanCommand) + "\"");
-            ProcessBuilder pb = new ProcessBuilder();
-            Process scanProcess;
-            scanProcess = pb.directory(targetDir).command(scanCommand).start();
-            // write result to file
-            InputStream in = scanProcess.getInputStream();
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            byte[] scanResultBytes;
-            byte[] buffer = new byte[8 * 1024];
-            int bytesRead;
-            while ((bytesRead = in.read(buffer)) != -1) {
-                out.write(buffer, 0, bytesRead);
-            }
-            scanResultBytes = out.toByteArray();
-            out.close();
-            scanProcess.waitFor();
-            scanProcess.destroy();
-            in.close();
-
-            // write to tiff
-            log("writing result to file...");
-            File tempTiffFile = Paths.get(targetFilePath + "_temp.tiff").toFile();
-            FileOutputStream fos = new FileOutputStream(tempTiffFile);
-            fos.write(scanResultBytes);
-            fos.flush();
-            fos.close();
-
-            // convert to pdf
-            log("converting file to pdf...");
-            File targetTempPdfFile = new File(targetFilePath + "_temp.pdf");
-            String[] pdfConvertCommand = { "tiff2pdf", "-o", targetTempPdfFile.getAbsolutePath(),
-                    tempTiffFile.getAbsolutePath() };
-            log("Will execute command: \"" + String.join(" ", pdfConvertCommand) + "\"");
-            Process convertProcess = pb.command(pdfConvertCommand).start();
-            convertProcess.waitFor();
-            // convert to postscript
-            log("converting to postscript...");
-            File targetTempPsFile = Paths.get(targetFilePath + "_temp.ps").toFile();
-            @SuppressWarnings("SpellCheckingInspection")
-            String[] pdfConvertToPsCommand = { "pdftops", targetTempPdfFile.getAbsolutePath(),
-                    targetTempPsFile.getAbsolutePath() };
-            log("Will execute command: \"" + String.join(" ", pdfConvertToPsCommand) + "\"");
-            Process convertToPsProcess = pb.command(pdfConvertToPsCommand).start();
-            convertToPsProcess.waitFor();
+    /**
+     * Queue scan. Will use some logic to minimize fileSize.
+     *
+     * @param folderName folder to save scan to, folder of current date if not set
+     * @param profile how to scan and compress
+     * @param fileName name of file without extension
+     * @return queued job
+     * @throws Exception if target folder can't be created
+     * @see ScanPipeline
+     */
+    public static ScanJob submitScan(String folderName, ScanProfile profile, String fileName) throws Exception {
+        if (folderName == null || folderName.length() < 1)
+        {
+            folderName = PathHelper.FolderDateFormat.format(LocalDate.now());
+        }
+        Path targetDirPath = PathHelper.getTargetDirPath(folderName);
+        return JobManager.submitScan(targetDirPath.toFile(), folderName, fileName, profile);
+    }
 
-            // convert to final file
-            String[] psConvertToPdfCommand = { "ps2pdf", targetTempPsFile.getAbsolutePath(),
-                    targetFile.getAbsolutePath() };
-            log("Will execute command: \"" + String.join(" ", psConvertToPdfCommand) + "\"");
-            Process convertToPdfProcess = pb.command(psConvertToPdfCommand).start();
-            convertToPdfProcess.waitFor();
+    /**
+     * Queue scan of multiple pages into one file. Pages are converted while the next one is scanned.
+     *
+     * @param folderName folder to save scan to, folder of current date if not set
+     * @param profile how to scan and compress every page
+     * @param fileName name of merged file without extension
+     * @param pageCount pages to scan, 0 to scan till the document feeder is empty
+     * @param source scanner source like "ADF", null for default source
+     * @return queued job
+     * @throws IllegalArgumentException if page count is negative, or 0 without a document feeder as source
+     * @throws Exception if target folder can't be created
+     */
+    public static BatchScanJob submitBatchScan(String folderName, ScanProfile profile, String fileName, int pageCount, String source) throws Exception {
+        if (pageCount < 0)
+        {
+            throw new IllegalArgumentException("pageCount can't be negative");
+        }
+        // a flatbed never runs empty, it would scan the same page till the batch limit
+        if (pageCount == 0 && (source == null || source.isBlank() || source.toLowerCase(Locale.ROOT).contains("flatbed")))
+        {
+            throw new IllegalArgumentException("pageCount is required unless a document feeder is the source");
+        }
+        if (folderName == null || folderName.length() < 1)
+        {
+            folderName = PathHelper.FolderDateFormat.format(LocalDate.now());
+        }
+        Path targetDirPath = PathHelper.getTargetDirPath(folderName);
+        List<String> scanArguments = source == null || source.isEmpty() ? List.of() : List.of("--source", source);
+        return JobManager.submitBatchScan(targetDirPath.toFile(), folderName, fileName, profile, pageCount, scanArguments);
+    }
 
-            log("Deleting temp files...");
-            boolean deletion = targetTempPsFile.delete();
-            deletion = deletion & targetTempPdfFile.delete();
-            deletion = deletion & tempTiffFile.delete();
-            if (!deletion)
-            {
-                log("At least one file failed to delete!");
-            }
-            return true;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
+    /**
+     * Choose how to scan. Without profile name the configured default profile is used, and if there is none,
+     * the quality option is mapped to a resolution and the page is converted like before profiles existed.
+     * @param chosenOption quality option (0 = low, 1 = medium, 2 = high), used without profile
+     * @param profileName "text", "greyscale", "photo" or null
+     * @param targetSizeKb size a page should have at most, 0 for the profile's defaults
+     * @return profile
+     * @throws IllegalArgumentException if profile name is unknown
+     * @see ServerConfigHelper#getDefaultScanProfile()
+     */
+    public static ScanProfile getScanProfile(int chosenOption, String profileName, int targetSizeKb)
+    {
+        if (profileName == null || profileName.isBlank())
+        {
+            profileName = ServerConfigHelper.getDefaultScanProfile();
         }
+        var profile = profileName == null ? ScanProfile.legacy(getResolution(chosenOption)) : ScanProfile.forName(profileName);
+        return profile.withTargetSize(targetSizeKb);
+    }
+
+    /**
+     * Map quality option to scan resolution
+     * @param chosenOption quality option (0 = low, 1 = medium, 2 = high)
+     * @return resolution in dpi
+     */
+    private static int getResolution(int chosenOption)
+    {
+        return chosenOption  * 150 + 150;
     }
 }
@@ -0,0 +1,89 @@
+package server.actions;
+
+import server.jobs.JobManager;
+import server.protocol.ExtendedRequest;
+import server.scan.ScanProfile;
+
+import java.io.File;
+import java.util.HashMap;
+
+/**
+ * All actions regarding background jobs
+ */
+public class JobActions extends BaseAction {
+
+    /**
+     * Queue scan
+     * @param request parameters folderName (optional), chosenName, chosenOption, profile (optional) and targetSizeKb (optional)
+     * @return id of queued job
+     * @throws Exception if target folder can't be created
+     */
+    public static String scanAsync(ExtendedRequest request) throws Exception {
+        var job = FileActions.submitScan(request.getString("folderName"), getScanProfile(request), request.getRequiredString("chosenName"));
+        return job.getId();
+    }
+
+    /**
+     * Queue scan of multiple pages into one file
+     * @param request parameters folderName (optional), chosenName, chosenOption, profile (optional), targetSizeKb (optional, per page),
+     *                pageCount (optional, scans till document feeder is empty if not set, then source has to be the feeder)
+     *                and source (optional, like "ADF")
+     * @return id of queued job
+     * @throws Exception if target folder can't be created
+     */
+    public static String batchScan(ExtendedRequest request) throws Exception {
+        var job = FileActions.submitBatchScan(request.getString("folderName"), getScanProfile(request),
+                request.getRequiredString("chosenName"), request.getInt("pageCount", 0), request.getString("source"));
+        return job.getId();
+    }
+
+    /**
+     * Return status of job
+     * @param request parameter jobId
+     * @return status map or null if job is unknown
+     * @see server.jobs.Job#getStatus()
+     */
+    public static HashMap<String, String> getJobStatus(ExtendedRequest request)
+    {
+        var job = JobManager.getJob(request.getRequiredString("jobId"));
+        if (job == null)
+        {
+            log("unknown job " + request.getString("jobId"));
+            return null;
+        }
+        return job.getStatus();
+    }
+
+    /**
+     * Return resulting file of job
+     * @param request parameter jobId
+     * @return file or null if job is unknown or not done
+     */
+    public static File getJobResultFile(ExtendedRequest request)
+    {
+        var job = JobManager.getJob(request.getRequiredString("jobId"));
+        return job == null ? null : job.getResultFile();
+    }
+
+    /**
+     * Cancel job
+     * @param request parameter jobId
+     * @return true if job was cancelled, false if unknown or finished already
+     */
+    public static boolean cancelJob(ExtendedRequest request)
+    {
+        var job = JobManager.getJob(request.getRequiredString("jobId"));
+        if (job == null)
+        {
+            return false;
+        }
+        var cancelled = job.cancel();
+        log("cancel job " + job.getId() + ": " + cancelled);
+        return cancelled;
+    }
+
+    private static ScanProfile getScanProfile(ExtendedRequest request)
+    {
+        return FileActions.getScanProfile(request.getInt("chosenOption", 0), request.getString("profile"), request.getInt("targetSizeKb", 0));
+    }
+}
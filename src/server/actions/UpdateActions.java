@@ -5,28 +5,43 @@ import data.packages.implementations.PackageData.PackageDataUpdate;
 import data.packages.interfaces.IPackageData;
 import server.helper.FileHelper;
 import server.helper.PathHelper;
+import server.index.ChecksumCache;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
 import java.util.Arrays;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.HashMap;
 
 /**
  * All actions/logic regarding updates
  */
 public class UpdateActions extends BaseAction {
 
+    /**
+     * Cached newest apk, see {@link #getLatestApp()}
+     */
+    private static volatile LatestApp latestApp;
+
     public static boolean updateCheck(IPackageData data) {
         PackageDataUpdateCheck updateCheckData = (PackageDataUpdateCheck) data;
+        return updateCheck(updateCheckData.version);
+    }
+
+    /**
+     * Check if there's an apk newer than given version
+     * @param version current app version like "1.2.3"
+     * @return true if a newer apk exists
+     */
+    public static boolean updateCheck(String version) {
         var latestFileVersion = getLatestAppVersion();
-        log("updateCheck for version "+ updateCheckData.version + ", latest version is: " + latestFileVersion);
+        log("updateCheck for version "+ version + ", latest version is: " + latestFileVersion);
         if (latestFileVersion == null)
         {
             return false;
         }
-        return compareVersions(latestFileVersion, updateCheckData.version) > 0;
+        return compareVersions(latestFileVersion, version) > 0;
     }
 
     /**
@@ -36,7 +51,7 @@ public class UpdateActions extends BaseAction {
      */
     public static byte[] getUpdate(IPackageData data) {
         var updateData = (PackageDataUpdate) data;
-        if (updateCheck(new PackageDataUpdateCheck(updateData.version)))
+        if (updateCheck(updateData.version))
         {
             try {
                 var fileData = getLatestAppVersionApkData();
@@ -61,37 +76,59 @@ public class UpdateActions extends BaseAction {
     }
 
     /**
-     * Overload for CompareVersions.
-     * Has overhead, since it converts the int arrays to strings first ([1,2,3] to "1.2.3")
-     * @param firstVersionParts first version(parts) to compare
-     * @param secondVersionParts second version(parts) to compare
-     * @return int value indicating if first or second is newer or both the same
+     * retrieve apk file for update, so it can be streamed without loading it
+     * @param data information about current app version
+     * @return apk file or null if no update needed
      */
-    private static int compareVersions(int[] firstVersionParts, int[] secondVersionParts)
-    {
-        return compareVersions(String.join(".", Arrays.stream(firstVersionParts).mapToObj(String::valueOf).toArray(String[]::new)), String.join(".", Arrays.stream(secondVersionParts).mapToObj(String::valueOf).toArray(String[]::new)));
+    public static File getUpdateFile(IPackageData data) {
+        var updateData = (PackageDataUpdate) data;
+        return getUpdateFile(updateData.version);
     }
 
     /**
-     * Compare version strings.
+     * retrieve apk file for update, so it can be streamed without loading it
+     * @param version current app version
+     * @return apk file or null if no update needed
+     */
+    public static File getUpdateFile(String version) {
+        if (updateCheck(version))
+        {
+            return getLatestAppVersionFile();
+        }
+        log("no update needed!");
+        return null;
+    }
+
+    /**
+     * Return metadata of latest apk
+     * @return map with version, fileName, size and checksum (sha-256, hex) or null if there is no apk
+     * @throws IOException if checksum could not be calculated
+     */
+    public static HashMap<String, String> getUpdateInfo() throws IOException {
+        var latest = getLatestApp();
+        if (latest == null)
+        {
+            return null;
+        }
+        var info = new HashMap<String, String>();
+        info.put("version", latest.version);
+        info.put("fileName", latest.file.getName());
+        info.put("size", String.valueOf(latest.size));
+        info.put("checksum", latest.getChecksum());
+        return info;
+    }
+
+    /**
+     * Compare version parts.
      * Return 0 if same.
      * Return 1 if first is newer than second
      * Return -1 if first is older than second
-     * @param first first to compare
-     * @param second second to compare
-     * @return int-value indicating result
+     * @param firstSplit first version(parts) to compare
+     * @param secondSplit second version(parts) to compare
+     * @return int value indicating if first or second is newer or both the same
      */
-    private static int compareVersions(String first, String second)
+    private static int compareVersions(int[] firstSplit, int[] secondSplit)
     {
-        //log("Comparing versions "+ first + " and " + second);
-        if (first.equals(second))
-        {
-            //log("They are same, returning 0");
-            // same
-            return 0;
-        }
-        var firstSplit = getAppFileNameVersionParts(first);
-        var secondSplit = getAppFileNameVersionParts(second);
         // max index is min of one of them, since we can't compare 1.2.3.4 to 1.2.3, need to handle that after comparing previous parts
         var maxIndex = Math.min(firstSplit.length, secondSplit.length);
         // handle differences in versions like 1.2.8 and 2.0.0
@@ -101,44 +138,46 @@ public class UpdateActions extends BaseAction {
             var secondPart = secondSplit[i];
             if (firstPart > secondPart)
             {
-                //log("Part " + i + "(" + firstPart +") of first " + first + " is higher than ("+secondPart+") of second" + second);
                 // any version part is greater than current, like 2.0.0 is newer than 1.0.0
                 return 1;
             }
             else if (firstPart < secondPart)
             {
-                //log("Part " + i + "(" + firstPart +") of first " + first + " is lower than ("+secondPart+") of second" + second);
                 // case unlike other else, like 1.0.0 is older than 2.0.0
                 return -1;
             }
         }
         // till here, versions are the same, now see if there's a subversion in one of them
-        if (firstSplit.length > secondSplit.length)
-        {
-            //log("length of first " + first + " is longer than that of seconds "+ second);
-            // first is newer, since it has a subversion
-            return 1;
-        }
-        else
+        // first is newer, if it has a subversion, second is newer if it has one
+        return Integer.compare(firstSplit.length, secondSplit.length);
+    }
+
+    /**
+     * Compare version strings.
+     * Return 0 if same.
+     * Return 1 if first is newer than second
+     * Return -1 if first is older than second
+     * @param first first to compare
+     * @param second second to compare
+     * @return int-value indicating result
+     */
+    private static int compareVersions(String first, String second)
+    {
+        if (first.equals(second))
         {
-            //log("length of first " + first + " is lower than that of seconds "+ second);
-            // second is newer, since it has subversion
-            return -1;
+            // same
+            return 0;
         }
+        return compareVersions(getAppFileNameVersionParts(first), getAppFileNameVersionParts(second));
     }
 
     private static byte[] getLatestAppVersionApkData() throws IOException {
-        var latest = getLatestAppVersionFile();
+        var latest = getLatestApp();
         if (latest == null)
         {
             return null;
         }
-        var fileInputStream = new FileInputStream(latest.getAbsolutePath());
-        log("loading data..");
-        var bytes = fileInputStream.readAllBytes();
-        fileInputStream.close();
-        log("finished loading data!");
-        return bytes;
+        return latest.getData();
     }
 
     /**
@@ -146,23 +185,80 @@ public class UpdateActions extends BaseAction {
      * @return file information about newest apk file
      */
     private static File getLatestAppVersionFile()
+    {
+        var latest = getLatestApp();
+        return latest == null ? null : latest.file;
+    }
+
+    /**
+     * Return cached newest apk. The cache is checked against the modification time of the app directory
+     * (changes when apks are added, removed or renamed) and of the cached apk itself, so a check costs two stats
+     * instead of listing the directory and parsing every file name.
+     * @return newest apk or null if there is none
+     */
+    private static LatestApp getLatestApp()
+    {
+        var appDirFile = PathHelper.getAppDirPath().toFile();
+        var dirModified = appDirFile.lastModified();
+        var cached = latestApp;
+        if (cached != null && cached.isCurrent(dirModified))
+        {
+            return cached;
+        }
+        synchronized (UpdateActions.class)
+        {
+            cached = latestApp;
+            if (cached != null && cached.isCurrent(dirModified))
+            {
+                return cached;
+            }
+            latestApp = findLatestApp(appDirFile, dirModified);
+            return latestApp;
+        }
+    }
+
+    /**
+     * Find newest apk in app directory. Every file name is parsed once.
+     * @param appDirFile app directory
+     * @param dirModified modification time of app directory before listing it
+     * @return newest apk or null if there is none
+     */
+    private static LatestApp findLatestApp(File appDirFile, long dirModified)
     {
         log("get latest file..");
-        var appDir = PathHelper.getAppDirPath();
-        var appDirFile = appDir.toFile();
-        if (appDirFile.listFiles() == null)
+        var files = appDirFile.listFiles(File::isFile);
+        if (files == null)
         {
             return null;
         }
-        var filesStream = Arrays.stream(Objects.requireNonNull(appDirFile.listFiles()));
-        var orderedFiles = filesStream.sorted((o1, o2) -> compareVersions(getAppFileNameVersionParts(FileHelper.getFileNameWithoutExtension(o2.getName())), getAppFileNameVersionParts(FileHelper.getFileNameWithoutExtension(o1.getName())))).collect(Collectors.toList());
-        var latest = orderedFiles.get(0);
-        log("latest: " + latest.getName());
-        return latest;
+        File latestFile = null;
+        int[] latestVersionParts = null;
+        for (var file : files)
+        {
+            int[] versionParts;
+            try {
+                versionParts = getAppFileNameVersionParts(FileHelper.getFileNameWithoutExtension(file.getName()));
+            }
+            catch (RuntimeException e)
+            {
+                log("ignoring " + file.getName() + ", no version in name");
+                continue;
+            }
+            if (latestVersionParts == null || compareVersions(versionParts, latestVersionParts) > 0)
+            {
+                latestFile = file;
+                latestVersionParts = versionParts;
+            }
+        }
+        if (latestFile == null)
+        {
+            return null;
+        }
+        log("latest: " + latestFile.getName());
+        var version = FileHelper.getFileNameWithoutExtension(latestFile.getName()).split("-")[1];
+        return new LatestApp(latestFile, version, dirModified);
     }
 
-
-
     /**
      * fileName has to be without extensions
      * @param fileNameWithoutExtension file name without extension like "ScanApp-1.2.3" instead of "ScanApp-1.2.3.apk"
@@ -189,12 +285,64 @@ public class UpdateActions extends BaseAction {
      * @return null if none found (see {@link #getLatestAppVersionFile()} or latest version as string
      */
     private static String getLatestAppVersion() {
-        var latest = getLatestAppVersionFile();
-        if (latest == null)
+        var latest = getLatestApp();
+        return latest == null ? null : latest.version;
+    }
+
+    /**
+     * Newest apk with its metadata. Data and checksum are loaded on first use.
+     */
+    private static class LatestApp {
+
+        final File file;
+
+        final String version;
+
+        final long size;
+
+        final long lastModified;
+
+        /**
+         * Modification time of app directory when this apk was found
+         */
+        final long dirModified;
+
+        /**
+         * Data of apk, may be collected if memory gets low
+         */
+        private SoftReference<byte[]> data = new SoftReference<>(null);
+
+        LatestApp(File file, String version, long dirModified)
         {
-            return null;
+            this.file = file;
+            this.version = version;
+            this.size = file.length();
+            this.lastModified = file.lastModified();
+            this.dirModified = dirModified;
+        }
+
+        /**
+         * Check if neither app directory nor apk changed
+         */
+        boolean isCurrent(long currentDirModified)
+        {
+            return dirModified == currentDirModified && file.lastModified() == lastModified && file.length() == size;
+        }
+
+        synchronized byte[] getData() throws IOException {
+            var bytes = data.get();
+            if (bytes == null)
+            {
+                log("loading data..");
+                bytes = Files.readAllBytes(file.toPath());
+                data = new SoftReference<>(bytes);
+                log("finished loading data!");
+            }
+            return bytes;
+        }
+
+        String getChecksum() throws IOException {
+            return ChecksumCache.getChecksum(file);
         }
-        var fileNameWithoutExtension = FileHelper.getFileNameWithoutExtension(latest.getName());
-        return fileNameWithoutExtension.split("-")[1];
     }
 }
@@ -1,10 +1,24 @@
 package server.helper;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 /**
  * Helper for handling files
  */
 public class FileHelper {
 
+    /**
+     * Suffix of hidden files reserving the name of a file still being written
+     */
+    public final static String ReservedSuffix = ".part";
+
     /**
      * Return fileName without extension (very simple logic, might fail for some files)
      * @param fileName fileName/path to remove extension from
@@ -14,4 +28,108 @@ public class FileHelper {
     {
         return fileName.substring(0, fileName.lastIndexOf("."));
     }
+
+    /**
+     * Return file in directory with given name. If it exists already, a counter is added to the name (name_0, name_1, ..).
+     * @param directory directory of file
+     * @param baseName name of file without extension
+     * @param extension extension including dot, like ".pdf"
+     * @return file not existing yet
+     */
+    public static File getFreeFile(File directory, String baseName, String extension)
+    {
+        String filePath = Paths.get(directory.getAbsolutePath(), baseName).toString();
+        File file = new File(filePath + extension);
+        int counter = 0;
+        while (file.exists()) {
+            file = new File(filePath + "_" + counter + extension);
+            counter++;
+        }
+        return file;
+    }
+
+    /**
+     * Like {@link #getFreeFile(File, String, String)}, but reserves the name, so concurrent callers get different names.
+     * The name is reserved by the hidden file ".name{@value #ReservedSuffix}", which listings skip. Write into it and
+     * {@link #publish(File)} it when it is complete, or delete it.
+     * @param directory directory of file
+     * @param baseName name of file without extension
+     * @param extension extension including dot, like ".pdf"
+     * @return empty hidden file created by this call
+     * @throws IOException if file could not be created
+     */
+    public static File reserveFreeFile(File directory, String baseName, String extension) throws IOException {
+        var counter = -1;
+        while (true)
+        {
+            var file = new File(directory, counter < 0 ? baseName + extension : baseName + "_" + counter + extension);
+            counter++;
+            if (file.exists())
+            {
+                continue;
+            }
+            var reserved = new File(directory, "." + file.getName() + ReservedSuffix);
+            try {
+                Files.createFile(reserved.toPath());
+            }
+            catch (FileAlreadyExistsException e)
+            {
+                // reserved by another thread
+                continue;
+            }
+            if (file.exists())
+            {
+                // published by another thread just before
+                Files.deleteIfExists(reserved.toPath());
+                continue;
+            }
+            return reserved;
+        }
+    }
+
+    /**
+     * Give file reserved by {@link #reserveFreeFile(File, String, String)} the name it reserved
+     * @param reserved complete reserved file
+     * @return file with its final name
+     * @throws IOException if file could not be renamed
+     */
+    public static File publish(File reserved) throws IOException {
+        var name = reserved.getName();
+        var file = new File(reserved.getParentFile(), name.substring(1, name.length() - ReservedSuffix.length()));
+        Files.move(reserved.toPath(), file.toPath());
+        return file;
+    }
+
+    /**
+     * Calculate sha-256 checksum of file
+     * @param file file to calculate checksum of
+     * @return checksum as lower case hex string
+     * @throws IOException if file could not be read
+     */
+    public static String getChecksum(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // every jvm has to support sha-256
+            throw new IllegalStateException(e);
+        }
+        var buffer = new byte[64 * 1024];
+        try (var input = new FileInputStream(file))
+        {
+            int read;
+            while ((read = input.read(buffer)) != -1)
+            {
+                digest.update(buffer, 0, read);
+            }
+        }
+        var hex = new StringBuilder();
+        for (var b : digest.digest())
+        {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
 }
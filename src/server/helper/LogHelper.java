@@ -2,31 +2,365 @@ package server.helper;
 
 import data.Config;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 /**
  * Helper to log messages.
+ * <p>
+ * Messages are put into a ring buffer and written by the "log" thread, so callers never wait for the console or the
+ * sd card. Date and text are formatted on that thread too. If the buffer is full, new messages are dropped and
+ * counted instead of blocking the caller. Messages below the level set with {@code scanserver.logLevel} are skipped,
+ * use the {@link Supplier} variants for messages that are expensive to build.
+ * </p>
  */
 public class LogHelper {
 
+    public enum Level {
+        Debug,
+        Info,
+        Warn,
+        Error
+    }
+
+    /**
+     * Format for date and time of messages, thread safe
+     */
+    private final static DateTimeFormatter LogDateFormat = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm:ss").withZone(ZoneId.systemDefault());
+
     /**
-     * Format for date and time used in log method.
-     * @see #log(String)
+     * Messages the buffer holds, power of two
      */
-    private final static SimpleDateFormat LogDateFormat = new SimpleDateFormat("dd.MM.yyyy HH:mm:ss");
+    private final static int Capacity = 8192;
 
     /**
-     * Log message formatted with current date and time
+     * Slots of the ring buffer, written by callers and read by the log thread
+     */
+    private final static long[] Times = new long[Capacity];
+    private final static Level[] Levels = new Level[Capacity];
+    private final static String[] Threads = new String[Capacity];
+    private final static String[] Messages = new String[Capacity];
+
+    private final static ReentrantLock Lock = new ReentrantLock();
+
+    private final static Condition Changed = Lock.newCondition();
+
+    /**
+     * Number of messages taken by the log thread, guarded by {@link #Lock}
+     */
+    private static long head;
+
+    /**
+     * Number of messages put into the buffer, guarded by {@link #Lock}
+     */
+    private static long tail;
+
+    /**
+     * Messages dropped since the last written one, guarded by {@link #Lock}
+     */
+    private static long dropped;
+
+    /**
+     * Lowest level logged
+     */
+    private static volatile Level minLevel = parseLevel(ServerConfigHelper.getString("logLevel", "info"));
+
+    static {
+        var writer = new Thread(LogHelper::writeMessages, "log");
+        writer.setDaemon(true);
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(2000), "log-flush"));
+    }
+
+    /**
+     * Log message with level info
      * @param message message to log
      */
     public static void log(String message)
     {
-        message = LogDateFormat.format(new Date()) + " " + message;
+        log(Level.Info, message);
+    }
+
+    /**
+     * Log message
+     * @param level level of message
+     * @param message message to log
+     */
+    public static void log(Level level, String message)
+    {
+        if (isEnabled(level))
+        {
+            put(level, message);
+        }
+    }
+
+    /**
+     * Log message, built only if level is logged
+     * @param level level of message
+     * @param message supplier of message to log
+     */
+    public static void log(Level level, Supplier<String> message)
+    {
+        if (isEnabled(level))
+        {
+            put(level, message.get());
+        }
+    }
+
+    /**
+     * Log debug message, built only if debug messages are logged
+     * @param message supplier of message to log
+     */
+    public static void debug(Supplier<String> message)
+    {
+        log(Level.Debug, message);
+    }
+
+    /**
+     * Log message with level warn
+     * @param message message to log
+     */
+    public static void warn(String message)
+    {
+        log(Level.Warn, message);
+    }
+
+    /**
+     * Stack trace as text, to log it instead of printing it
+     * @param throwable throwable to get trace of
+     * @return stack trace like {@link Throwable#printStackTrace()}
+     */
+    public static String getStackTrace(Throwable throwable)
+    {
+        var trace = new StringWriter();
+        throwable.printStackTrace(new PrintWriter(trace));
+        return trace.toString();
+    }
+
+    /**
+     * @param level level to check
+     * @return if messages of level are logged
+     */
+    public static boolean isEnabled(Level level)
+    {
+        return level.compareTo(minLevel) >= 0;
+    }
+
+    /**
+     * Change lowest level logged
+     * @param level lowest level to log
+     */
+    public static void setLevel(Level level)
+    {
+        minLevel = level;
+    }
+
+    /**
+     * Wait till buffered messages are written
+     * @param timeoutMs maximum time to wait
+     * @return true if all messages were written
+     */
+    public static boolean flush(long timeoutMs)
+    {
+        var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        Lock.lock();
+        try {
+            var target = tail;
+            while (head < target)
+            {
+                var remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                {
+                    return false;
+                }
+                Changed.awaitNanos(remaining);
+            }
+            return true;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        finally {
+            Lock.unlock();
+        }
+    }
+
+    private static Level parseLevel(String name)
+    {
+        for (var level : Level.values())
+        {
+            if (level.name().equalsIgnoreCase(name))
+            {
+                return level;
+            }
+        }
+        return Level.Info;
+    }
+
+    /**
+     * Put message into buffer, drops it if the buffer is full
+     */
+    private static void put(Level level, String message)
+    {
+        var time = System.currentTimeMillis();
+        var thread = Thread.currentThread().getName();
+        Lock.lock();
+        try {
+            if (tail - head == Capacity)
+            {
+                dropped++;
+                return;
+            }
+            var slot = (int) (tail & (Capacity - 1));
+            Times[slot] = time;
+            Levels[slot] = level;
+            Threads[slot] = thread;
+            Messages[slot] = message;
+            if (tail++ == head)
+            {
+                Changed.signalAll();
+            }
+        }
+        finally {
+            Lock.unlock();
+        }
+    }
+
+    /**
+     * Loop of log thread: takes all buffered messages at once, writes them and frees their slots
+     */
+    private static void writeMessages()
+    {
+        var output = LogOutput.open();
+        var line = new StringBuilder(256);
+        while (true)
+        {
+            long start;
+            long end;
+            long droppedMessages;
+            Lock.lock();
+            try {
+                while (head == tail)
+                {
+                    Changed.awaitUninterruptibly();
+                }
+                start = head;
+                end = tail;
+                droppedMessages = dropped;
+                dropped = 0;
+            }
+            finally {
+                Lock.unlock();
+            }
+            try {
+                // slots between head and tail are not touched by callers till head moves
+                for (var index = start; index < end; index++)
+                {
+                    var slot = (int) (index & (Capacity - 1));
+                    format(line, Times[slot], Levels[slot], Threads[slot], Messages[slot]);
+                    output.write(line);
+                    Threads[slot] = null;
+                    Messages[slot] = null;
+                }
+                if (droppedMessages > 0)
+                {
+                    format(line, System.currentTimeMillis(), Level.Warn, "log", droppedMessages + " messages dropped, log buffer full");
+                    output.write(line);
+                }
+                output.flush();
+            }
+            catch (IOException e)
+            {
+                System.err.println("Writing log failed: " + e);
+            }
+            Lock.lock();
+            try {
+                head = end;
+                Changed.signalAll();
+            }
+            finally {
+                Lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Format line like "18.10.2026 14:03:11 INFO [worker-2] message"
+     */
+    private static void format(StringBuilder line, long time, Level level, String thread, String message)
+    {
+        line.setLength(0);
         if (Config.getDebug())
         {
-            message = "[DEBUG] " + message;
+            line.append("[DEBUG] ");
+        }
+        LogDateFormat.formatTo(Instant.ofEpochMilli(time), line);
+        line.append(' ').append(level.name().toUpperCase()).append(" [").append(thread).append("] ").append(message);
+    }
+
+    /**
+     * Where the log thread writes to: a rotated file if {@code scanserver.logFile} is set, the console otherwise
+     */
+    private static class LogOutput {
+
+        private final PrintStream console;
+
+        private final RotatingFile file;
+
+        private LogOutput(PrintStream console, RotatingFile file)
+        {
+            this.console = console;
+            this.file = file;
+        }
+
+        static LogOutput open()
+        {
+            var fileName = ServerConfigHelper.getLogFile();
+            if (fileName != null)
+            {
+                try {
+                    return new LogOutput(null, new RotatingFile(fileName, ServerConfigHelper.getLogFileSizeKb() * 1024L, ServerConfigHelper.getLogFiles()));
+                }
+                catch (IOException e)
+                {
+                    System.err.println("Can't open log file " + fileName + ", logging to console: " + e);
+                }
+            }
+            return new LogOutput(System.out, null);
+        }
+
+        void write(CharSequence line) throws IOException {
+            if (file != null)
+            {
+                file.writeLine(line);
+            }
+            else
+            {
+                console.append(line).append(System.lineSeparator());
+            }
+        }
+
+        void flush() throws IOException {
+            if (file != null)
+            {
+                file.flush();
+            }
+            else
+            {
+                console.flush();
+            }
         }
-        System.out.println(message);
     }
 }
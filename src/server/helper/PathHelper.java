@@ -1,18 +1,21 @@
 package server.helper;
 
+import server.index.ScanIndex;
+
 import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
-import java.util.Arrays;
-import java.util.Collections;
+import java.time.format.DateTimeFormatter;
 
 /**
  * Helper to retrieve paths
  */
 public class PathHelper {
 
-    public final static SimpleDateFormat FolderDateFormat = new SimpleDateFormat("yyyy-MM-dd");
+    /**
+     * Names of folders of a day, immutable so concurrent scans can share it
+     */
+    public final static DateTimeFormatter FolderDateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 
     /**
      * Return main working directory
@@ -56,10 +59,15 @@ public class PathHelper {
         }
         File targetDir = targetDirPath.toFile();
         if (!targetDir.exists()) {
-            if (!targetDir.mkdir())
+            // another request might have created it in the meantime
+            if (!targetDir.mkdir() && !targetDir.isDirectory())
             {
                 throw new Exception("Failed to create dir " + targetDir);
             }
+            if (folderName != null)
+            {
+                ScanIndex.invalidate(folderName);
+            }
         }
         return targetDirPath;
     }
@@ -73,35 +81,35 @@ public class PathHelper {
         return Paths.get(getBaseFilesPath().toString(), "Apps", "ScanApp");
     }
 
+    /**
+     * Return directory old scan folders are archived to, a zip per month
+     * @return Path to archive folder
+     */
+    public static Path getArchiveDirPath() {
+        return Paths.get(getBaseFilesPath().toString(), "Archive");
+    }
+
     /**
      * Returns latest folder in scan data
      * @return latest folder in scan data folder
      * @throws Exception @see {@link #getTargetDirPath()}
      */
     public static String getLatestFolder() throws Exception {
-        var folders = readFolders();
-        if (folders == null || folders.length == 0)
+        var latestFolder = ScanIndex.getLatestFolder();
+        if (latestFolder == null)
         {
             throw new Exception("could not retrieve any folders!");
         }
-        return folders[0];
+        return latestFolder;
     }
 
     /**
-     * Read folders of scan directory.
+     * Read folders of scan directory. Served from {@link ScanIndex}.
      * @return folders of dates when scans were done
      * @throws Exception @see {@link #getTargetDirPath()}
      */
     public static String[] readFolders() throws Exception {
-        var foldersPath = getTargetDirPath();
-        var folderEntries = foldersPath.toFile().listFiles();
-        if (folderEntries == null)
-        {
-            return null;
-        }
-        var array = Arrays.stream(folderEntries).filter(File::isDirectory).map(File::getName).toArray(String[]::new);
-        Arrays.sort(array, Collections.reverseOrder());
-        return array;
+        return ScanIndex.getFolders();
     }
 
 }
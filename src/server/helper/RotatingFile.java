@@ -0,0 +1,106 @@
+package server.helper;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Text file that is rotated when it reaches a size: "server.log" becomes "server.log.1", "server.log.1" becomes
+ * "server.log.2" and so on, the oldest one is deleted. Not thread safe, used by the log thread only.
+ */
+public class RotatingFile {
+
+    private final File file;
+
+    /**
+     * Size in bytes a file may reach before it is rotated
+     */
+    private final long maxSize;
+
+    /**
+     * Number of rotated files kept next to the current one
+     */
+    private final int keptFiles;
+
+    private Writer writer;
+
+    /**
+     * Bytes in current file, counted as chars since log lines are ascii mostly
+     */
+    private long size;
+
+    /**
+     * Open file, appending to it if it exists
+     * @param fileName path of file
+     * @param maxSize size in bytes a file may reach before it is rotated
+     * @param keptFiles number of rotated files kept
+     * @throws IOException if file can't be opened
+     */
+    public RotatingFile(String fileName, long maxSize, int keptFiles) throws IOException {
+        this.file = new File(fileName).getAbsoluteFile();
+        this.maxSize = Math.max(maxSize, 1024);
+        this.keptFiles = Math.max(keptFiles, 0);
+        var parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+        {
+            throw new IOException("can't create " + parent);
+        }
+        open();
+    }
+
+    /**
+     * Write line, buffered till {@link #flush()}
+     * @param line line without line separator
+     * @throws IOException if writing or rotating failed
+     */
+    public void writeLine(CharSequence line) throws IOException {
+        if (size + line.length() + 1 > maxSize && size > 0)
+        {
+            rotate();
+        }
+        writer.append(line).append('\n');
+        size += line.length() + 1;
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    private void open() throws IOException {
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), 16 * 1024);
+        size = file.length();
+    }
+
+    private void rotate() throws IOException {
+        writer.close();
+        if (keptFiles == 0)
+        {
+            Files.deleteIfExists(file.toPath());
+        }
+        else
+        {
+            Files.deleteIfExists(rotated(keptFiles).toPath());
+            for (var index = keptFiles - 1; index >= 1; index--)
+            {
+                var older = rotated(index);
+                if (older.exists())
+                {
+                    Files.move(older.toPath(), rotated(index + 1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(file.toPath(), rotated(1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        open();
+    }
+
+    private File rotated(int index)
+    {
+        return new File(file.getPath() + "." + index);
+    }
+}
@@ -0,0 +1,403 @@
+package server.helper;
+
+import data.Config;
+
+/**
+ * Helper to read server settings. Settings are passed as system properties (like -Dscanserver.backlog=100),
+ * every setting has a default so the server runs without any of them.
+ */
+public class ServerConfigHelper {
+
+    /**
+     * Prefix of all system properties read by this helper.
+     */
+    private final static String PropertyPrefix = "scanserver.";
+
+    /**
+     * Maximum number of pending connections the operating system queues before refusing new ones.
+     * @return backlog of server socket
+     */
+    public static int getBacklog()
+    {
+        return getInt("backlog", 50);
+    }
+
+    /**
+     * Port of http front end, runs next to the socket port.
+     * @return port, 0 or less to disable http
+     */
+    public static int getHttpPort()
+    {
+        return getInt("httpPort", Config.getPort() + 1);
+    }
+
+    /**
+     * Number of threads handling client connections at the same time.
+     * @return amount of worker threads
+     */
+    public static int getWorkerThreads()
+    {
+        return getInt("workers", Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    }
+
+    /**
+     * Number of accepted connections that may wait for a free worker before new ones get rejected.
+     * @return capacity of connection queue
+     */
+    public static int getConnectionQueueCapacity()
+    {
+        return getInt("queueCapacity", 32);
+    }
+
+    /**
+     * Seconds the server waits for the request of a connection (or the next part of it) before the connection is closed,
+     * so silent clients don't hold a worker. Sessions and binary connections use their idle timeout once they started.
+     * @return read timeout in seconds
+     */
+    public static int getReadTimeout()
+    {
+        return getInt("readTimeout", 30);
+    }
+
+    /**
+     * Seconds a session connection may stay idle (no request running) before it is closed.
+     * @return idle timeout in seconds
+     */
+    public static int getSessionIdleTimeout()
+    {
+        return getInt("sessionIdleTimeout", 60);
+    }
+
+    /**
+     * Number of session connections open at the same time. Sessions don't hold a worker, new ones are rejected at the limit.
+     * @return maximum open sessions
+     */
+    public static int getMaxSessions()
+    {
+        return getInt("sessions", 16);
+    }
+
+    /**
+     * Number of requests of one session executed at the same time, 1 to answer them in order.
+     * @return concurrent requests per session
+     */
+    public static int getSessionConcurrency()
+    {
+        return getInt("sessionConcurrency", 4);
+    }
+
+    /**
+     * Maximum number of requests of given action running at the same time.
+     * Merges (MergeFiles and MergeFilesReport) default to the core count, everything else is unlimited.
+     * Scans don't need a limit, the job manager serializes access to the scanner.
+     * @param actionName name of action to get limit for
+     * @return limit of concurrent executions, 0 or less if unlimited
+     */
+    public static int getActionLimit(String actionName)
+    {
+        int defaultLimit;
+        switch (actionName)
+        {
+            case "MergeFiles":
+            case "MergeFilesReport":
+                defaultLimit = Runtime.getRuntime().availableProcessors();
+                break;
+            default:
+                defaultLimit = 0;
+                break;
+        }
+        return getInt("limit." + actionName, defaultLimit);
+    }
+
+    /**
+     * Number of threads converting scans in the background. Defaults to all cores but the one scanning.
+     * @return amount of conversion threads
+     */
+    public static int getConverterThreads()
+    {
+        return getInt("converters", Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * Maximum number of pages of a batch scan running till the document feeder is empty.
+     * @return maximum pages
+     */
+    public static int getMaxBatchPages()
+    {
+        return getInt("maxBatchPages", 100);
+    }
+
+    /**
+     * Directory for temporary scan files, like a tmpfs mount to spare the sd card.
+     * @return directory for temp files or null to use the target folder of the scan
+     */
+    public static String getScanTempDir()
+    {
+        return getString("scanTempDir", null);
+    }
+
+    /**
+     * Engine merging pdfs, "java" merges in process and falls back to pdftk for files it can't read,
+     * "pdftk" always uses pdftk.
+     * @return name of merge engine
+     */
+    public static String getMergeEngine()
+    {
+        return getString("mergeEngine", "java");
+    }
+
+    /**
+     * Number of threads validating and merging files of a parallel merge (MergeFilesReport).
+     * @return amount of merge threads
+     */
+    public static int getMergeThreads()
+    {
+        return getInt("mergeThreads", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Scan profile used for requests without profile, like Scan of the shared protocol.
+     * @return "text", "greyscale", "photo" or null to map the quality option to a resolution like before
+     */
+    public static String getDefaultScanProfile()
+    {
+        return getString("scanProfile", null);
+    }
+
+    /**
+     * Scanner device: "warm" keeps scanimage running between scans, "process" starts scanimage for every page,
+     * "fake" simulates a scanner for testing without hardware.
+     * @return name of scanner device
+     */
+    public static String getScannerDevice()
+    {
+        return getString("scanner", "warm");
+    }
+
+    /**
+     * Seconds the scanner stays open after the last scan.
+     * @return idle timeout in seconds
+     */
+    public static int getScannerIdleTimeout()
+    {
+        return getInt("scannerIdleTimeout", 300);
+    }
+
+    /**
+     * Time the fake scanner and the stand-in of scanimage take to open the device.
+     * @return duration in ms
+     */
+    public static int getFakeScannerOpenMs()
+    {
+        return getInt("fakeScanner.openMs", 1500);
+    }
+
+    /**
+     * Time the fake scanner and the stand-in of scanimage take for a page.
+     * @return duration in ms
+     */
+    public static int getFakeScannerPageMs()
+    {
+        return getInt("fakeScanner.pageMs", 300);
+    }
+
+    /**
+     * Pages in the document feeder of the fake scanner and the stand-in of scanimage.
+     * @return number of pages, 0 for a flatbed without feeder
+     */
+    public static int getFakeScannerFeederPages()
+    {
+        return getInt("fakeScanner.feederPages", 0);
+    }
+
+    /**
+     * File the log is written to, rotated when it reaches {@link #getLogFileSizeKb()}.
+     * @return path of log file or null to log to the console
+     */
+    public static String getLogFile()
+    {
+        return getString("logFile", null);
+    }
+
+    /**
+     * Size a log file may reach before it is rotated.
+     * @return size in kb
+     */
+    public static int getLogFileSizeKb()
+    {
+        return getInt("logFileSizeKb", 1024);
+    }
+
+    /**
+     * Number of rotated log files kept next to the current one.
+     * @return number of old log files
+     */
+    public static int getLogFiles()
+    {
+        return getInt("logFiles", 3);
+    }
+
+    /**
+     * Command started for an external tool, like a path to another version of it.
+     * "fake" runs a stand-in in process, scanserver.fakeTools=true does that for all tools.
+     * @param name name of tool, like "tiff2pdf"
+     * @return command of tool, its name if not configured
+     */
+    public static String getToolCommand(String name)
+    {
+        return getString("tool." + name, getString("fakeTools", "false").equals("true") ? "fake" : name);
+    }
+
+    /**
+     * Number of CPU heavy tools (conversion, merge, preview) running at the same time. Defaults to the core count.
+     * @return number of tool slots
+     */
+    public static int getToolThreads()
+    {
+        return Math.max(1, getInt("toolThreads", Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Seconds a tool may run before it is killed, scanserver.toolTimeout for all tools.
+     * @param name name of tool
+     * @return timeout in seconds
+     */
+    public static int getToolTimeout(String name)
+    {
+        return getInt("toolTimeout." + name, getInt("toolTimeout", 300));
+    }
+
+    /**
+     * Time a fake tool takes, scanserver.fakeTool.ms for all tools.
+     * @param name name of tool
+     * @return duration in ms
+     */
+    public static int getFakeToolMs(String name)
+    {
+        return getInt("fakeTool." + name + ".ms", getInt("fakeTool.ms", 200));
+    }
+
+    /**
+     * Size of the output a fake tool writes, scanserver.fakeTool.outputKb for all tools.
+     * @param name name of tool
+     * @return size in kb
+     */
+    public static int getFakeToolOutputKb(String name)
+    {
+        return getInt("fakeTool." + name + ".outputKb", getInt("fakeTool.outputKb", 100));
+    }
+
+    /**
+     * Minutes between maintenance runs (temp file cleanup, recompression, archival), 0 disables maintenance.
+     * @return interval in minutes
+     */
+    public static int getMaintenanceInterval()
+    {
+        return getInt("maintenance.intervalMinutes", 360);
+    }
+
+    /**
+     * Minutes after start till maintenance runs the first time, so it doesn't slow down the start.
+     * @return delay in minutes
+     */
+    public static int getMaintenanceDelay()
+    {
+        return getInt("maintenance.delayMinutes", 10);
+    }
+
+    /**
+     * Minutes a temp file has to be unchanged before maintenance deletes it.
+     * @return age in minutes
+     */
+    public static int getTempFileAge()
+    {
+        return getInt("maintenance.tempFileAgeMinutes", 60);
+    }
+
+    /**
+     * Days after which pdfs of a folder are recompressed, 0 disables recompression. Off by default, as it is lossy.
+     * @return age of folder in days
+     */
+    public static int getRecompressDays()
+    {
+        return getInt("maintenance.recompressDays", 0);
+    }
+
+    /**
+     * Ghostscript settings used for recompression, like "/ebook" (150 dpi) or "/screen" (72 dpi).
+     * @return value of -dPDFSETTINGS
+     */
+    public static String getRecompressSettings()
+    {
+        return getString("maintenance.pdfSettings", "/ebook");
+    }
+
+    /**
+     * Days after which a folder is moved into the archive of its month, 0 disables archival. Off by default, as clients
+     * don't see archived folders anymore.
+     * @return age of folder in days
+     */
+    public static int getArchiveDays()
+    {
+        return getInt("maintenance.archiveDays", 0);
+    }
+
+    /**
+     * Days after which maintenance reads a file again to check its checksum.
+     * @return days between checks of a file
+     */
+    public static int getVerifyDays()
+    {
+        return getInt("maintenance.verifyDays", 30);
+    }
+
+    /**
+     * If files with the same content as another scan file are replaced by a hard link to it. Off by default, as linked
+     * files change together when one is edited in place and take the modification time of the older file.
+     * @return if duplicates are linked
+     */
+    public static boolean getDedup()
+    {
+        return getString("dedup", "false").equals("true");
+    }
+
+    /**
+     * Read string property
+     * @param name name of property without prefix
+     * @param defaultValue value used if property not set
+     * @return value of property or default
+     */
+    public static String getString(String name, String defaultValue)
+    {
+        var value = System.getProperty(PropertyPrefix + name);
+        if (value == null || value.isBlank())
+        {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    /**
+     * Read int property
+     * @param name name of property without prefix
+     * @param defaultValue value used if property not set or not a number
+     * @return value of property or default
+     */
+    public static int getInt(String name, int defaultValue)
+    {
+        var value = System.getProperty(PropertyPrefix + name);
+        if (value == null || value.isBlank())
+        {
+            return defaultValue;
+        }
+        try
+        {
+            return Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            LogHelper.log("Invalid value '" + value + "' for setting " + name + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package server.helper;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Helper for creating threads
+ */
+public class ThreadHelper {
+
+    /**
+     * Create factory for named daemon threads, so they show up readable in thread dumps and don't keep the jvm alive.
+     * @param namePrefix prefix of thread names, a counter is appended
+     * @return thread factory
+     */
+    public static ThreadFactory newThreadFactory(String namePrefix)
+    {
+        return newThreadFactory(namePrefix, Thread.NORM_PRIORITY);
+    }
+
+    /**
+     * Create factory for named daemon threads with given priority.
+     * @param namePrefix prefix of thread names, a counter is appended
+     * @param priority priority of threads
+     * @return thread factory
+     */
+    public static ThreadFactory newThreadFactory(String namePrefix, int priority)
+    {
+        var threadCounter = new AtomicInteger();
+        return runnable -> {
+            var thread = new Thread(runnable, namePrefix + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            return thread;
+        };
+    }
+}
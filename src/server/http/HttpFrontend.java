@@ -0,0 +1,426 @@
+package server.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import server.ActionLimiter;
+import server.actions.FileActions;
+import server.actions.JobActions;
+import server.actions.UpdateActions;
+import server.helper.LogHelper;
+import server.helper.PathHelper;
+import server.helper.ServerConfigHelper;
+import server.helper.ThreadHelper;
+import server.index.ContentIndex;
+import server.metrics.Metrics;
+import server.protocol.ExtendedAction;
+import server.protocol.ExtendedRequest;
+import server.scan.ScanProfile;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Http front end running next to the socket port, so clients without the ScanData classes can use the server
+ * and keep their connection open between requests (http/1.1 keep-alive).
+ * <p>
+ * Every path maps to an action of the socket protocol, parameters are named like the fields of its request
+ * and passed in the query string or as form encoded body. Results are sent as json. Files are streamed with their size,
+ * checksum as ETag and support for Range requests, so downloads can be resumed and cached.
+ * </p>
+ */
+public class HttpFrontend {
+
+    private final static String JsonType = "application/json; charset=utf-8";
+
+    /**
+     * Action executed for a path, returns result to send as json or a {@link File} to stream
+     */
+    private interface HttpAction {
+        Object execute(HttpParameters parameters) throws Exception;
+    }
+
+    /**
+     * Action of a path with its http method and the name used for {@link ActionLimiter}
+     */
+    private static class Route {
+
+        final String method;
+
+        final String actionName;
+
+        final HttpAction action;
+
+        Route(String method, String actionName, HttpAction action)
+        {
+            this.method = method;
+            this.actionName = actionName;
+            this.action = action;
+        }
+    }
+
+    /**
+     * Result sent as plain text instead of json
+     */
+    private static class TextResult {
+
+        final String contentType;
+
+        final String text;
+
+        TextResult(String contentType, String text)
+        {
+            this.contentType = contentType;
+            this.text = text;
+        }
+    }
+
+    private final Map<String, Route> routes = new HashMap<>();
+
+    private final HttpServer server;
+
+    private HttpFrontend(int port) throws IOException {
+        addRoutes();
+        // headers and body are written separately, with Nagle kept alive connections wait for the delayed ack (40 ms)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+        {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(port), ServerConfigHelper.getBacklog());
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(ServerConfigHelper.getWorkerThreads(), ThreadHelper.newThreadFactory("http-worker")));
+    }
+
+    /**
+     * Start http front end on port of {@link ServerConfigHelper#getHttpPort()}
+     * @return running front end or null if disabled
+     * @throws IOException if port can't be bound
+     */
+    public static HttpFrontend start() throws IOException {
+        var port = ServerConfigHelper.getHttpPort();
+        if (port <= 0)
+        {
+            LogHelper.log("Http front end disabled");
+            return null;
+        }
+        var frontend = new HttpFrontend(port);
+        frontend.server.start();
+        LogHelper.log("Http front end running on port " + port);
+        return frontend;
+    }
+
+    private void addRoutes()
+    {
+        addRoute("GET", "/folders", "ReadFolders", p -> PathHelper.readFolders());
+        addRoute("GET", "/files", "ReadFiles", p -> FileActions.readFiles(p.getFileName("folderName")));
+        addRoute("GET", "/files/info", "ReadFileInfos", p -> FileActions.readFileInfos(p.getFileName("folderName"), p.getString("sort"),
+                Boolean.parseBoolean(p.getString("descending")), p.getInt("offset", 0), p.getInt("limit", 0)));
+        addRoute("GET", "/file", "StreamFile", p -> FileActions.getFilePath(p.getFileName("folderName"), requireFileName(p, "fileName")).toFile());
+        addRoute("GET", "/preview", "GetPreview",
+                p -> FileActions.getPreviewFile(p.getFileName("folderName"), requireFileName(p, "fileName"), p.getInt("size", 0)));
+        addRoute("POST", "/merge", "MergeFiles",
+                p -> FileActions.mergeFiles(p.getFileName("folderName"), p.getFileNames("filesToMerge"), requireFileName(p, "mergedFileName")));
+        addRoute("POST", "/merge/report", "MergeFilesReport",
+                p -> FileActions.mergeFilesWithReport(p.getFileName("folderName"), p.getFileNames("filesToMerge"), requireFileName(p, "mergedFileName")));
+        addRoute("POST", "/delete", "DeleteFiles", p -> FileActions.deleteFiles(p.getFileName("folderName"), p.getFileNames("filesToDelete")));
+        addRoute("POST", "/scan", "Scan",
+                p -> FileActions.scanToFile(p.getFileName("folderName"), getScanProfile(p), requireFileName(p, "chosenName")));
+        addRoute("GET", "/update/check", "CheckUpdate", p -> UpdateActions.updateCheck(p.getRequiredString("version")));
+        addRoute("GET", "/update/info", "GetUpdateInfo", p -> UpdateActions.getUpdateInfo());
+        addRoute("GET", "/update/apk", "GetUpdate", p -> UpdateActions.getUpdateFile(p.getRequiredString("version")));
+        addRoute("POST", "/jobs/scan", "ScanAsync", p -> JobActions.scanAsync(toExtendedRequest(ExtendedAction.ScanAsync, p)));
+        addRoute("POST", "/jobs/batch", "BatchScan", p -> JobActions.batchScan(toExtendedRequest(ExtendedAction.BatchScan, p)));
+        addRoute("GET", "/jobs/status", "GetJobStatus",
+                p -> requireFound(JobActions.getJobStatus(toExtendedRequest(ExtendedAction.GetJobStatus, p)), "job " + p.getString("jobId")));
+        addRoute("GET", "/jobs/result", "GetJobResult",
+                p -> requireFound(JobActions.getJobResultFile(toExtendedRequest(ExtendedAction.GetJobResult, p)), "result of job " + p.getString("jobId")));
+        addRoute("POST", "/jobs/cancel", "CancelJob", p -> JobActions.cancelJob(toExtendedRequest(ExtendedAction.CancelJob, p)));
+        addRoute("GET", "/metrics", "GetMetrics", p -> new TextResult("text/plain; version=0.0.4; charset=utf-8", Metrics.toPrometheus()));
+    }
+
+    private void addRoute(String method, String path, String actionName, HttpAction action)
+    {
+        routes.put(path, new Route(method, actionName, action));
+    }
+
+    /**
+     * Handle request, runs on a http worker
+     */
+    private void handle(HttpExchange exchange)
+    {
+        var path = exchange.getRequestURI().getPath();
+        try {
+            var route = routes.get(path);
+            if (route == null)
+            {
+                HttpParameters.read(exchange);
+                sendError(exchange, 404, "unknown path " + path);
+                return;
+            }
+            if (!route.method.equals(exchange.getRequestMethod()))
+            {
+                HttpParameters.read(exchange);
+                exchange.getResponseHeaders().set("Allow", route.method);
+                sendError(exchange, 405, path + " needs " + route.method);
+                return;
+            }
+            var start = Metrics.start();
+            var parameters = HttpParameters.read(exchange);
+            LogHelper.log("Http " + route.method + " " + path + " " + parameters + " from " + exchange.getRemoteAddress().getAddress().getHostAddress());
+            ActionLimiter.acquire(route.actionName);
+            try {
+                var result = route.action.execute(parameters);
+                if (result instanceof File)
+                {
+                    sendFile(exchange, (File) result);
+                }
+                else if (result instanceof TextResult)
+                {
+                    var text = (TextResult) result;
+                    exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+                    sendBody(exchange, 200, text.contentType, text.text);
+                }
+                else
+                {
+                    sendJson(exchange, result);
+                }
+            }
+            finally {
+                ActionLimiter.release(route.actionName);
+                Metrics.observeAction(route.actionName, start);
+            }
+        }
+        catch (Exception e)
+        {
+            if (exchange.getResponseCode() != -1)
+            {
+                // response started already, client notices the missing bytes
+                LogHelper.log("Http " + path + " failed while sending: " + e);
+                return;
+            }
+            try {
+                if (e instanceof IllegalArgumentException)
+                {
+                    sendError(exchange, 400, e.getMessage());
+                }
+                else if (e instanceof FileNotFoundException)
+                {
+                    sendError(exchange, 404, e.getMessage());
+                }
+                else
+                {
+                    LogHelper.warn("Http " + path + " failed: " + LogHelper.getStackTrace(e));
+                    sendError(exchange, 500, e.toString());
+                }
+            }
+            catch (IOException e1)
+            {
+                LogHelper.log("Http " + path + " failed to send error: " + e1);
+            }
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Send result as json, 204 if there is none
+     */
+    private static void sendJson(HttpExchange exchange, Object result) throws IOException {
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        if (result == null)
+        {
+            exchange.sendResponseHeaders(204, -1);
+            return;
+        }
+        sendBody(exchange, 200, JsonType, JsonWriter.toJson(result));
+    }
+
+    private static void sendError(HttpExchange exchange, int code, String message) throws IOException {
+        var error = new HashMap<String, String>();
+        error.put("error", message);
+        sendBody(exchange, code, JsonType, JsonWriter.toJson(error));
+    }
+
+    private static void sendBody(HttpExchange exchange, int code, String contentType, String text) throws IOException {
+        var body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(code, body.length);
+        exchange.getResponseBody().write(body);
+        Metrics.addBytesOut("http", body.length);
+    }
+
+    /**
+     * Stream file or the part of it requested by a Range header. Answers 304 if the client sent the current ETag.
+     * Corrupt files are sent without ETag and must not be cached, their checksum is the one of the original content.
+     */
+    private static void sendFile(HttpExchange exchange, File file) throws IOException {
+        var requestHeaders = exchange.getRequestHeaders();
+        var headers = exchange.getResponseHeaders();
+        String etag = null;
+        if (ContentIndex.isCorrupt(file))
+        {
+            headers.set("Cache-Control", "no-store");
+        }
+        else
+        {
+            etag = "\"" + ContentIndex.getChecksum(file) + "\"";
+            headers.set("ETag", etag);
+            headers.set("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(file.lastModified()).atOffset(ZoneOffset.UTC)));
+        }
+        headers.set("Accept-Ranges", "bytes");
+        if (etag != null && etag.equals(requestHeaders.getFirst("If-None-Match")))
+        {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        try (var fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            var size = fileChannel.size();
+            var offset = 0L;
+            var count = size;
+            var code = 200;
+            var range = requestHeaders.getFirst("Range");
+            var ifRange = requestHeaders.getFirst("If-Range");
+            if (range != null && (ifRange == null || ifRange.equals(etag)))
+            {
+                var bounds = parseRange(range, size);
+                if (bounds == null)
+                {
+                    headers.set("Content-Range", "bytes */" + size);
+                    sendError(exchange, 416, "range " + range + " not satisfiable for size " + size);
+                    return;
+                }
+                if (bounds.length == 2)
+                {
+                    offset = bounds[0];
+                    count = bounds[1] - bounds[0] + 1;
+                    code = 206;
+                    headers.set("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + size);
+                }
+            }
+            headers.set("Content-Type", getContentType(file));
+            headers.set("Content-Disposition", "attachment; filename=\"" + file.getName().replace("\"", "") + "\"");
+            // a length of 0 would switch to chunked encoding
+            exchange.sendResponseHeaders(code, count == 0 ? -1 : count);
+            var output = Channels.newChannel(exchange.getResponseBody());
+            var position = offset;
+            var end = offset + count;
+            while (position < end)
+            {
+                var transferred = fileChannel.transferTo(position, end - position, output);
+                if (transferred <= 0)
+                {
+                    throw new IOException("file shrank while sending");
+                }
+                position += transferred;
+            }
+            Metrics.addBytesOut("http", count);
+            LogHelper.log("Http streamed " + count + " of " + size + " bytes of " + file.getName() + " from " + offset);
+        }
+    }
+
+    /**
+     * Parse single byte range like "bytes=0-99", "bytes=100-" or "bytes=-100"
+     * @param range value of Range header
+     * @param size size of file
+     * @return first and last byte, empty array to send the whole file (range not supported), null if not satisfiable
+     */
+    private static long[] parseRange(String range, long size)
+    {
+        if (!range.startsWith("bytes=") || range.contains(","))
+        {
+            return new long[0];
+        }
+        var bounds = range.substring("bytes=".length()).trim().split("-", -1);
+        try {
+            if (bounds.length != 2)
+            {
+                return new long[0];
+            }
+            long first;
+            long last;
+            if (bounds[0].isEmpty())
+            {
+                // suffix: last n bytes
+                var suffix = Long.parseLong(bounds[1]);
+                first = Math.max(0, size - suffix);
+                last = size - 1;
+                if (suffix <= 0)
+                {
+                    return null;
+                }
+            }
+            else
+            {
+                first = Long.parseLong(bounds[0]);
+                last = bounds[1].isEmpty() ? size - 1 : Math.min(Long.parseLong(bounds[1]), size - 1);
+            }
+            if (first >= size || first > last)
+            {
+                return null;
+            }
+            return new long[] { first, last };
+        }
+        catch (NumberFormatException e)
+        {
+            return new long[0];
+        }
+    }
+
+    private static String getContentType(File file)
+    {
+        var name = file.getName().toLowerCase();
+        if (name.endsWith(".pdf"))
+        {
+            return "application/pdf";
+        }
+        if (name.endsWith(".jpg"))
+        {
+            return "image/jpeg";
+        }
+        if (name.endsWith(".apk"))
+        {
+            return "application/vnd.android.package-archive";
+        }
+        return "application/octet-stream";
+    }
+
+    private static String requireFileName(HttpParameters parameters, String name)
+    {
+        parameters.getRequiredString(name);
+        return parameters.getFileName(name);
+    }
+
+    private static ScanProfile getScanProfile(HttpParameters parameters)
+    {
+        return FileActions.getScanProfile(parameters.getInt("chosenOption", 0), parameters.getString("profile"), parameters.getInt("targetSizeKb", 0));
+    }
+
+    private static ExtendedRequest toExtendedRequest(ExtendedAction action, HttpParameters parameters)
+    {
+        var values = parameters.toMap();
+        parameters.getFileName("folderName");
+        parameters.getFileName("chosenName");
+        return new ExtendedRequest(action, values);
+    }
+
+    private static <T> T requireFound(T value, String description) throws FileNotFoundException {
+        if (value == null)
+        {
+            throw new FileNotFoundException(description + " not found");
+        }
+        return value;
+    }
+}
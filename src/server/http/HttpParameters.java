@@ -0,0 +1,170 @@
+package server.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import server.metrics.Metrics;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parameters of a http request, read from the query string and (for POST) a form encoded body.
+ * A parameter may be given multiple times, like file=a.pdf&amp;file=b.pdf.
+ */
+public class HttpParameters {
+
+    private final Map<String, List<String>> values = new HashMap<>();
+
+    /**
+     * Read parameters of request. The body is read completely, so the connection can be reused.
+     * @param exchange request to read from
+     * @return parameters
+     * @throws IOException if reading body failed
+     */
+    public static HttpParameters read(HttpExchange exchange) throws IOException {
+        var parameters = new HttpParameters();
+        parameters.parse(exchange.getRequestURI().getRawQuery());
+        try (var body = exchange.getRequestBody())
+        {
+            var data = body.readAllBytes();
+            Metrics.addBytesIn("http", data.length);
+            var contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            if (data.length > 0 && contentType != null && contentType.startsWith("application/x-www-form-urlencoded"))
+            {
+                parameters.parse(new String(data, StandardCharsets.US_ASCII));
+            }
+        }
+        return parameters;
+    }
+
+    private void parse(String encoded)
+    {
+        if (encoded == null || encoded.isEmpty())
+        {
+            return;
+        }
+        for (var pair : encoded.split("&"))
+        {
+            if (pair.isEmpty())
+            {
+                continue;
+            }
+            var separator = pair.indexOf('=');
+            var name = decode(separator < 0 ? pair : pair.substring(0, separator));
+            var value = separator < 0 ? "" : decode(pair.substring(separator + 1));
+            values.computeIfAbsent(name, n -> new ArrayList<>()).add(value);
+        }
+    }
+
+    private static String decode(String value)
+    {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get parameter
+     * @param name name of parameter
+     * @return first value or null if not set
+     */
+    public String getString(String name)
+    {
+        var list = values.get(name);
+        return list == null || list.isEmpty() ? null : list.get(0);
+    }
+
+    /**
+     * Get all values of parameter
+     * @param name name of parameter
+     * @return values in order, empty if not set
+     */
+    public List<String> getStrings(String name)
+    {
+        return values.getOrDefault(name, List.of());
+    }
+
+    /**
+     * Get required parameter
+     * @param name name of parameter
+     * @return value
+     * @throws IllegalArgumentException if not set
+     */
+    public String getRequiredString(String name)
+    {
+        var value = getString(name);
+        if (value == null || value.isEmpty())
+        {
+            throw new IllegalArgumentException("parameter " + name + " missing");
+        }
+        return value;
+    }
+
+    /**
+     * Get int parameter
+     * @param name name of parameter
+     * @param defaultValue value if not set
+     * @return value or default
+     * @throws NumberFormatException if value is not a number
+     */
+    public int getInt(String name, int defaultValue)
+    {
+        var value = getString(name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Get file or folder name. Unlike socket clients, http clients are not trusted to stay in the scans directory.
+     * @param name name of parameter
+     * @return value or null if not set
+     * @throws IllegalArgumentException if value is a path or the name of a hidden file
+     */
+    public String getFileName(String name)
+    {
+        var value = getString(name);
+        checkFileName(value);
+        return value;
+    }
+
+    /**
+     * Get all values of file name parameter
+     * @param name name of parameter
+     * @return values in order, empty if not set
+     * @throws IllegalArgumentException if a value is a path or the name of a hidden file
+     */
+    public List<String> getFileNames(String name)
+    {
+        var fileNames = getStrings(name);
+        fileNames.forEach(HttpParameters::checkFileName);
+        return fileNames;
+    }
+
+    /**
+     * Values as single valued map, like needed for an {@link server.protocol.ExtendedRequest}
+     * @return first value of every parameter
+     */
+    public Map<String, String> toMap()
+    {
+        var map = new HashMap<String, String>();
+        values.forEach((name, list) -> map.put(name, list.get(0)));
+        return map;
+    }
+
+    /**
+     * Names starting with a dot are rejected too, hidden files like the checksums and previews belong to the server
+     */
+    private static void checkFileName(String value)
+    {
+        if (value != null && (value.contains("/") || value.contains("\\") || value.startsWith(".")))
+        {
+            throw new IllegalArgumentException("invalid name " + value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return values.toString();
+    }
+}
@@ -0,0 +1,124 @@
+package server.http;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Minimal json serialization of action results, so no library is needed.
+ * Supports null, booleans, numbers, strings, arrays, collections and maps (keys written as strings).
+ */
+public class JsonWriter {
+
+    /**
+     * Serialize value
+     * @param value result of action
+     * @return json text
+     * @throws IllegalArgumentException if type of value is not supported
+     */
+    public static String toJson(Object value)
+    {
+        var builder = new StringBuilder();
+        write(builder, value);
+        return builder.toString();
+    }
+
+    private static void write(StringBuilder builder, Object value)
+    {
+        if (value == null)
+        {
+            builder.append("null");
+        }
+        else if (value instanceof Boolean || value instanceof Number)
+        {
+            builder.append(value);
+        }
+        else if (value instanceof CharSequence || value instanceof Enum)
+        {
+            writeString(builder, value.toString());
+        }
+        else if (value instanceof Object[])
+        {
+            writeArray(builder, Arrays.asList((Object[]) value));
+        }
+        else if (value instanceof Collection)
+        {
+            writeArray(builder, (Collection<?>) value);
+        }
+        else if (value instanceof Map)
+        {
+            builder.append('{');
+            var first = true;
+            for (var entry : ((Map<?, ?>) value).entrySet())
+            {
+                if (!first)
+                {
+                    builder.append(',');
+                }
+                first = false;
+                writeString(builder, String.valueOf(entry.getKey()));
+                builder.append(':');
+                write(builder, entry.getValue());
+            }
+            builder.append('}');
+        }
+        else
+        {
+            throw new IllegalArgumentException("can't write " + value.getClass().getName() + " as json");
+        }
+    }
+
+    private static void writeArray(StringBuilder builder, Collection<?> values)
+    {
+        builder.append('[');
+        var first = true;
+        for (var value : values)
+        {
+            if (!first)
+            {
+                builder.append(',');
+            }
+            first = false;
+            write(builder, value);
+        }
+        builder.append(']');
+    }
+
+    private static void writeString(StringBuilder builder, String value)
+    {
+        builder.append('"');
+        for (var i = 0; i < value.length(); i++)
+        {
+            var c = value.charAt(i);
+            switch (c)
+            {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                    {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    }
+                    else
+                    {
+                        builder.append(c);
+                    }
+                    break;
+            }
+        }
+        builder.append('"');
+    }
+}
@@ -0,0 +1,72 @@
+package server.index;
+
+import server.helper.FileHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of file checksums, so files are only read again if their size or modification time changed.
+ */
+public class ChecksumCache {
+
+    /**
+     * Maximum number of cached checksums, least recently used ones are dropped first
+     */
+    private final static int MaxEntries = 1024;
+
+    /**
+     * Cached checksums by absolute path, in access order
+     */
+    private final static Map<String, CachedChecksum> Entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedChecksum> eldest) {
+            return size() > MaxEntries;
+        }
+    };
+
+    /**
+     * Get sha-256 checksum of file, calculated if not cached or file changed
+     * @param file file to get checksum of
+     * @return checksum as lower case hex string
+     * @throws IOException if file could not be read
+     */
+    public static String getChecksum(File file) throws IOException {
+        var path = file.getAbsolutePath();
+        var size = file.length();
+        var lastModified = file.lastModified();
+        synchronized (Entries)
+        {
+            var entry = Entries.get(path);
+            if (entry != null && entry.size == size && entry.lastModified == lastModified)
+            {
+                return entry.checksum;
+            }
+        }
+        // calculated outside lock, so other files can be looked up meanwhile
+        var checksum = FileHelper.getChecksum(file);
+        synchronized (Entries)
+        {
+            Entries.put(path, new CachedChecksum(size, lastModified, checksum));
+        }
+        return checksum;
+    }
+
+    private static class CachedChecksum {
+
+        final long size;
+
+        final long lastModified;
+
+        final String checksum;
+
+        CachedChecksum(long size, long lastModified, String checksum)
+        {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+    }
+}
@@ -0,0 +1,540 @@
+package server.index;
+
+import server.helper.FileHelper;
+import server.helper.LogHelper;
+import server.helper.PathHelper;
+import server.helper.ServerConfigHelper;
+import server.helper.ThreadHelper;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed index of the scan folders: sha-256 checksum of every file, saved in the hidden file
+ * {@link #FileName} of its folder, so checksums survive restarts. A checksum is valid as long as size and
+ * modification time of the file match.
+ * <p>
+ * New scans and merges are hashed in the background, existing files by the maintenance. A file with the content of an
+ * indexed one is replaced by a hard link to it if scanserver.dedup is enabled, it gets the modification time of that file then.
+ * Checksums serve as ETags without reading the file again, {@link #check(File, long)} reads files again to find the
+ * ones whose content changed while size and time didn't, like after sd card corruption. Those keep the checksum of their
+ * original content and are flagged as corrupt till they are changed or restored, they are never linked.
+ * </p>
+ */
+public class ContentIndex {
+
+    /**
+     * Hidden file in scan folder holding the checksums: name, size, modification time, time of last verification,
+     * checksum and "corrupt" for corrupted files per line, separated by tabs
+     */
+    public final static String FileName = ".checksums";
+
+    /**
+     * Suffix of hard links till they replace a duplicate
+     */
+    public final static String LinkSuffix = ".link";
+
+    /**
+     * Hashes new files one at a time with low priority and saves changed folders
+     */
+    private final static ExecutorService Hasher = Executors.newSingleThreadExecutor(ThreadHelper.newThreadFactory("content-index", Thread.MIN_PRIORITY));
+
+    /**
+     * Entries by absolute path of their file, guarded by itself together with {@link #PathsByChecksum} and
+     * {@link #LoadedFolders}
+     */
+    private final static Map<Path, Entry> Entries = new HashMap<>();
+
+    /**
+     * Files by checksum, to find duplicates
+     */
+    private final static Map<String, Set<Path>> PathsByChecksum = new HashMap<>();
+
+    /**
+     * Folders whose index file was read
+     */
+    private final static Set<Path> LoadedFolders = new HashSet<>();
+
+    /**
+     * Folders to save, so a folder is saved once after many changes
+     */
+    private final static Set<Path> ChangedFolders = ConcurrentHashMap.newKeySet();
+
+    private final static AtomicLong LinkedFiles = new AtomicLong();
+
+    private final static AtomicLong LinkedBytes = new AtomicLong();
+
+    /**
+     * Checksum of file, from the index if file didn't change. Files outside of the scan folders use {@link ChecksumCache}.
+     * @param file file to get checksum of
+     * @return sha-256 checksum as lower case hex string
+     * @throws IOException if file could not be read
+     */
+    public static String getChecksum(File file) throws IOException {
+        var path = file.toPath().toAbsolutePath().normalize();
+        if (!isInScanFolder(path))
+        {
+            return ChecksumCache.getChecksum(file);
+        }
+        return index(path, 0).checksum;
+    }
+
+    /**
+     * Hash new or changed file in the background and replace it by a hard link if an indexed file has the same content
+     * @param file written file
+     */
+    public static void addLater(File file)
+    {
+        var path = file.toPath().toAbsolutePath().normalize();
+        if (!isInScanFolder(path))
+        {
+            return;
+        }
+        Hasher.execute(() -> {
+            try {
+                var entry = index(path, 0);
+                if (ServerConfigHelper.getDedup())
+                {
+                    deduplicate(path, entry);
+                }
+            }
+            catch (IOException e)
+            {
+                LogHelper.log("Indexing " + path + " failed: " + e);
+            }
+        });
+    }
+
+    /**
+     * Index file if it's new or changed, read it again if it was verified before given time
+     * @param file file to check
+     * @param verifyBefore files verified before this time (ms since epoch) are read again
+     * @return false if the content changed while size and modification time didn't
+     * @throws IOException if file could not be read
+     */
+    public static boolean check(File file, long verifyBefore) throws IOException {
+        var path = file.toPath().toAbsolutePath().normalize();
+        var entry = index(path, verifyBefore);
+        if (entry.corrupt)
+        {
+            return false;
+        }
+        if (ServerConfigHelper.getDedup())
+        {
+            deduplicate(path, entry);
+        }
+        return true;
+    }
+
+    /**
+     * @param file file in a scan folder
+     * @param verifiedAfter time (ms since epoch) the checksum has to be calculated after
+     * @return if {@link #check(File, long)} would not read the file
+     */
+    public static boolean isIndexed(File file, long verifiedAfter)
+    {
+        var path = file.toPath().toAbsolutePath().normalize();
+        var entry = getEntry(path);
+        return entry != null && entry.size == file.length() && entry.lastModified == file.lastModified() && entry.verified >= verifiedAfter;
+    }
+
+    /**
+     * Checksums of corrupt files are those of their original content, they must not be sent as ETag or checksum of the
+     * current content.
+     * @param file file to check
+     * @return if the content of file changed without its size or time changing
+     */
+    public static boolean isCorrupt(File file)
+    {
+        return isCorrupt(file, file.length(), file.lastModified());
+    }
+
+    /**
+     * @param file file in a scan folder
+     * @param size size of file
+     * @param lastModified modification time of file in ms
+     * @return if the content of file changed without its size or time changing
+     */
+    public static boolean isCorrupt(File file, long size, long lastModified)
+    {
+        var path = file.toPath().toAbsolutePath().normalize();
+        if (!isInScanFolder(path))
+        {
+            return false;
+        }
+        try {
+            load(path.getParent());
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+        var entry = getEntry(path);
+        return entry != null && entry.corrupt && entry.size == size && entry.lastModified == lastModified;
+    }
+
+    /**
+     * Remove deleted file from index
+     * @param file deleted file
+     */
+    public static void remove(File file)
+    {
+        var path = file.toPath().toAbsolutePath().normalize();
+        synchronized (Entries)
+        {
+            if (put(path, null))
+            {
+                saveLater(path.getParent());
+            }
+        }
+    }
+
+    /**
+     * Remove deleted folder from index
+     * @param folder deleted folder
+     */
+    public static void removeFolder(Path folder)
+    {
+        var normalized = folder.toAbsolutePath().normalize();
+        synchronized (Entries)
+        {
+            for (var path : new ArrayList<>(Entries.keySet()))
+            {
+                if (path.getParent().equals(normalized))
+                {
+                    put(path, null);
+                }
+            }
+            LoadedFolders.remove(normalized);
+        }
+    }
+
+    /**
+     * @return indexed files flagged as corrupt, of the folders read so far
+     */
+    public static long getCorruptFiles()
+    {
+        synchronized (Entries)
+        {
+            return Entries.values().stream().filter(entry -> entry.corrupt).count();
+        }
+    }
+
+    /**
+     * @return duplicates replaced by hard links since start
+     */
+    public static long getLinkedFiles()
+    {
+        return LinkedFiles.get();
+    }
+
+    /**
+     * @return bytes saved by hard links since start
+     */
+    public static long getLinkedBytes()
+    {
+        return LinkedBytes.get();
+    }
+
+    /**
+     * Get entry of file, hash file if it's not indexed, changed or verified before given time
+     */
+    private static Entry index(Path path, long verifyBefore) throws IOException {
+        var folder = path.getParent();
+        load(folder);
+        var file = path.toFile();
+        // read before hashing, a file changed meanwhile is hashed again next time
+        var size = file.length();
+        var lastModified = file.lastModified();
+        if (lastModified == 0)
+        {
+            throw new IOException(path + " does not exist");
+        }
+        var entry = getEntry(path);
+        if (entry != null && entry.size == size && entry.lastModified == lastModified && entry.verified >= verifyBefore)
+        {
+            return entry;
+        }
+        var verified = System.currentTimeMillis();
+        var checksum = FileHelper.getChecksum(file);
+        if (entry != null && entry.size == size && entry.lastModified == lastModified && !entry.checksum.equals(checksum))
+        {
+            if (!entry.corrupt)
+            {
+                LogHelper.warn("Content of " + path + " changed without its size or time changing, the storage might be corrupted");
+            }
+            // keep checksum of the original content, so the corrupted one isn't taken for valid
+            entry = new Entry(size, lastModified, verified, entry.checksum, true);
+        }
+        else
+        {
+            entry = new Entry(size, lastModified, verified, checksum, false);
+        }
+        synchronized (Entries)
+        {
+            put(path, entry);
+        }
+        saveLater(folder);
+        return entry;
+    }
+
+    private static Entry getEntry(Path path)
+    {
+        synchronized (Entries)
+        {
+            return Entries.get(path);
+        }
+    }
+
+    /**
+     * Set or remove entry, caller holds lock of {@link #Entries}
+     * @return if there was an entry before
+     */
+    private static boolean put(Path path, Entry entry)
+    {
+        var old = entry == null ? Entries.remove(path) : Entries.put(path, entry);
+        if (old != null)
+        {
+            var paths = PathsByChecksum.get(old.checksum);
+            if (paths != null)
+            {
+                paths.remove(path);
+                if (paths.isEmpty())
+                {
+                    PathsByChecksum.remove(old.checksum);
+                }
+            }
+        }
+        if (entry != null)
+        {
+            PathsByChecksum.computeIfAbsent(entry.checksum, checksum -> new HashSet<>()).add(path);
+        }
+        return old != null;
+    }
+
+    /**
+     * Replace file by hard link to an indexed file with the same content
+     */
+    private static synchronized void deduplicate(Path path, Entry entry) throws IOException {
+        if (entry.corrupt)
+        {
+            return;
+        }
+        var candidates = new ArrayList<Path>();
+        synchronized (Entries)
+        {
+            for (var candidate : PathsByChecksum.getOrDefault(entry.checksum, Set.of()))
+            {
+                if (!Entries.get(candidate).corrupt)
+                {
+                    candidates.add(candidate);
+                }
+            }
+        }
+        for (var candidate : candidates)
+        {
+            if (candidate.equals(path) || !Files.isRegularFile(candidate) || Files.size(candidate) != entry.size)
+            {
+                continue;
+            }
+            if (Files.isSameFile(candidate, path))
+            {
+                // linked already
+                return;
+            }
+            // checksum matches, but the index might be outdated
+            if (!hasSameContent(candidate, path))
+            {
+                continue;
+            }
+            var link = path.resolveSibling("." + path.getFileName() + LinkSuffix);
+            try {
+                Files.deleteIfExists(link);
+                Files.createLink(link, candidate);
+                Files.move(link, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException | UnsupportedOperationException e)
+            {
+                Files.deleteIfExists(link);
+                LogHelper.debug(() -> "Can't link " + path + " to " + candidate + ": " + e);
+                return;
+            }
+            PreviewCache.delete(path.toFile());
+            var lastModified = Files.getLastModifiedTime(candidate).toMillis();
+            synchronized (Entries)
+            {
+                put(path, new Entry(entry.size, lastModified, entry.verified, entry.checksum, false));
+            }
+            saveLater(path.getParent());
+            LinkedFiles.incrementAndGet();
+            LinkedBytes.addAndGet(entry.size);
+            LogHelper.log("Replaced " + path + " by a link to its duplicate " + candidate);
+            return;
+        }
+    }
+
+    private static boolean hasSameContent(Path first, Path second) throws IOException {
+        try (var firstInput = new BufferedInputStream(Files.newInputStream(first), 64 * 1024);
+             var secondInput = new BufferedInputStream(Files.newInputStream(second), 64 * 1024))
+        {
+            var firstBuffer = new byte[64 * 1024];
+            var secondBuffer = new byte[64 * 1024];
+            while (true)
+            {
+                var read = firstInput.readNBytes(firstBuffer, 0, firstBuffer.length);
+                if (secondInput.readNBytes(secondBuffer, 0, secondBuffer.length) != read)
+                {
+                    return false;
+                }
+                if (read == 0)
+                {
+                    return true;
+                }
+                for (var i = 0; i < read; i++)
+                {
+                    if (firstBuffer[i] != secondBuffer[i])
+                    {
+                        return false;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Read index file of folder, if not read yet. Entries of files that don't exist anymore are dropped.
+     */
+    private static void load(Path folder) throws IOException {
+        synchronized (Entries)
+        {
+            if (LoadedFolders.contains(folder))
+            {
+                return;
+            }
+            LoadedFolders.add(folder);
+            var indexFile = folder.resolve(FileName);
+            if (!Files.isRegularFile(indexFile))
+            {
+                return;
+            }
+            for (var line : Files.readAllLines(indexFile, StandardCharsets.UTF_8))
+            {
+                var parts = line.split("\t");
+                if (parts.length != 5 && parts.length != 6)
+                {
+                    continue;
+                }
+                try {
+                    var path = folder.resolve(parts[0]);
+                    if (Files.isRegularFile(path))
+                    {
+                        put(path, new Entry(Long.parseLong(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3]), parts[4],
+                                parts.length == 6 && parts[5].equals("corrupt")));
+                    }
+                }
+                catch (RuntimeException e)
+                {
+                    LogHelper.log("Invalid line in " + indexFile + ": " + line);
+                }
+            }
+        }
+    }
+
+    private static void saveLater(Path folder)
+    {
+        if (ChangedFolders.add(folder))
+        {
+            Hasher.execute(() -> save(folder));
+        }
+    }
+
+    /**
+     * Write index file of folder, runs on hasher thread
+     */
+    private static void save(Path folder)
+    {
+        ChangedFolders.remove(folder);
+        var lines = new ArrayList<String>();
+        boolean loaded;
+        synchronized (Entries)
+        {
+            loaded = LoadedFolders.contains(folder);
+            for (var mapping : Entries.entrySet())
+            {
+                if (mapping.getKey().getParent().equals(folder))
+                {
+                    var entry = mapping.getValue();
+                    lines.add(mapping.getKey().getFileName() + "\t" + entry.size + "\t" + entry.lastModified + "\t" + entry.verified + "\t" + entry.checksum
+                            + (entry.corrupt ? "\tcorrupt" : ""));
+                }
+            }
+        }
+        var indexFile = folder.resolve(FileName);
+        var tempFile = folder.resolve(FileName + ".tmp");
+        try {
+            // folder got removed meanwhile, like by the archival
+            if (!Files.isDirectory(folder) || (lines.isEmpty() && !loaded))
+            {
+                return;
+            }
+            Files.write(tempFile, lines, StandardCharsets.UTF_8);
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            LogHelper.log("Saving " + indexFile + " failed: " + e);
+        }
+    }
+
+    /**
+     * @return if path is a file directly in a scan folder
+     */
+    private static boolean isInScanFolder(Path path)
+    {
+        var folder = path.getParent();
+        return folder != null && folder.getParent() != null
+                && folder.getParent().equals(PathHelper.getBaseFilesPath().resolve("Scans").toAbsolutePath().normalize());
+    }
+
+    private static class Entry {
+
+        final long size;
+
+        final long lastModified;
+
+        /**
+         * Time the checksum was calculated
+         */
+        final long verified;
+
+        final String checksum;
+
+        /**
+         * If the content changed without size or time changing, {@link #checksum} is the one of the original content then
+         */
+        final boolean corrupt;
+
+        Entry(long size, long lastModified, long verified, String checksum, boolean corrupt)
+        {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.verified = verified;
+            this.checksum = checksum;
+            this.corrupt = corrupt;
+        }
+    }
+}
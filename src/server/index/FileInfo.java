@@ -0,0 +1,112 @@
+package server.index;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Metadata of a file in a scan folder. Name, size and time come from listing the folder, page count and corruption
+ * are looked up by {@link #toArray()}, so sorting and paging a folder doesn't open every pdf.
+ */
+public class FileInfo {
+
+    /**
+     * Names of the values of {@link #toArray()}, in order
+     */
+    public final static String[] Columns = { "name", "size", "modified", "pageCount", "corrupt" };
+
+    private final Path path;
+
+    private final String name;
+
+    private final long size;
+
+    /**
+     * Modification time in ms
+     */
+    private final long modified;
+
+    private FileInfo(Path path, long size, long modified)
+    {
+        this.path = path;
+        this.name = path.getFileName().toString();
+        this.size = size;
+        this.modified = modified;
+    }
+
+    /**
+     * Read name, size and time of all files of folder in one pass, hidden files and directories are skipped
+     * @param folder folder to read
+     * @return metadata of files, in directory order
+     * @throws IOException if folder can't be read
+     */
+    public static List<FileInfo> readFolder(Path folder) throws IOException {
+        var infos = new ArrayList<FileInfo>();
+        try (var entries = Files.newDirectoryStream(folder, entry -> !entry.getFileName().toString().startsWith(".")))
+        {
+            for (var entry : entries)
+            {
+                BasicFileAttributes attributes;
+                try {
+                    // size, time and type with one stat
+                    attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                }
+                catch (NoSuchFileException e)
+                {
+                    // deleted while listing
+                    continue;
+                }
+                if (!attributes.isRegularFile())
+                {
+                    continue;
+                }
+                infos.add(new FileInfo(entry, attributes.size(), attributes.lastModifiedTime().toMillis()));
+            }
+        }
+        return infos;
+    }
+
+    /**
+     * Get comparator for sorting
+     * @param sort "name", "size" or "modified"
+     * @return comparator, ascending
+     * @throws IllegalArgumentException if sort is unknown
+     */
+    public static Comparator<FileInfo> getComparator(String sort)
+    {
+        var byName = Comparator.comparing((FileInfo info) -> info.name);
+        switch (sort)
+        {
+            case "name":
+                return byName;
+            case "size":
+                return Comparator.comparingLong((FileInfo info) -> info.size).thenComparing(byName);
+            case "modified":
+                return Comparator.comparingLong((FileInfo info) -> info.modified).thenComparing(byName);
+            default:
+                throw new IllegalArgumentException("unknown sort " + sort);
+        }
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Values in order of {@link #Columns}, as strings like the other listings. Reads the page count, unless it's cached.
+     * @return name, size, modified time in ms, page count (-1 if file is no readable pdf) and if file is corrupt
+     */
+    public String[] toArray()
+    {
+        var file = path.toFile();
+        var pageCount = PageCountCache.getPageCount(file, size, modified);
+        var corrupt = ContentIndex.isCorrupt(file, size, modified);
+        return new String[] { name, String.valueOf(size), String.valueOf(modified), String.valueOf(pageCount), String.valueOf(corrupt) };
+    }
+}
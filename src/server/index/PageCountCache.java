@@ -0,0 +1,85 @@
+package server.index;
+
+import server.helper.LogHelper;
+import server.pdf.PdfInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of page counts of pdfs, so files are only parsed again if their size or modification time changed.
+ */
+public class PageCountCache {
+
+    /**
+     * Maximum number of cached page counts, least recently used ones are dropped first
+     */
+    private final static int MaxEntries = 4096;
+
+    /**
+     * Cached page counts by absolute path, in access order
+     */
+    private final static Map<String, CachedPageCount> Entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedPageCount> eldest) {
+            return size() > MaxEntries;
+        }
+    };
+
+    /**
+     * Get page count of pdf, counted if not cached or file changed
+     * @param file pdf to get page count of
+     * @param size size of file, as read by caller
+     * @param lastModified modification time of file in ms, as read by caller
+     * @return number of pages, -1 if file is no pdf or can't be read
+     */
+    public static int getPageCount(File file, long size, long lastModified)
+    {
+        if (!file.getName().toLowerCase().endsWith(".pdf"))
+        {
+            return -1;
+        }
+        var path = file.getAbsolutePath();
+        synchronized (Entries)
+        {
+            var entry = Entries.get(path);
+            if (entry != null && entry.size == size && entry.lastModified == lastModified)
+            {
+                return entry.pageCount;
+            }
+        }
+        // counted outside lock, so other files can be looked up meanwhile
+        int pageCount;
+        try {
+            pageCount = PdfInfo.getPageCount(file);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            LogHelper.log("Can't count pages of " + file.getName() + ": " + e.getMessage());
+            pageCount = -1;
+        }
+        synchronized (Entries)
+        {
+            Entries.put(path, new CachedPageCount(size, lastModified, pageCount));
+        }
+        return pageCount;
+    }
+
+    private static class CachedPageCount {
+
+        final long size;
+
+        final long lastModified;
+
+        final int pageCount;
+
+        CachedPageCount(long size, long lastModified, int pageCount)
+        {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.pageCount = pageCount;
+        }
+    }
+}
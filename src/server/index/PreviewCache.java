@@ -0,0 +1,209 @@
+package server.index;
+
+import server.helper.EnvironmentHelper;
+import server.helper.LogHelper;
+import server.helper.ThreadHelper;
+import server.metrics.Metrics;
+import server.tools.ProcessRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jpeg previews of the first page of pdfs, rendered with pdftoppm.
+ * <p>
+ * Previews are saved in the hidden directory {@link #DirectoryName} of the scan folder. Their names contain size and
+ * modification time of the pdf and the preview size, so a changed pdf gets a new preview, older ones are deleted.
+ * New scans and merges get their preview in the background, so listings can show thumbnails right away.
+ * </p>
+ */
+public class PreviewCache {
+
+    /**
+     * Hidden directory in scan folder holding the previews
+     */
+    public final static String DirectoryName = ".previews";
+
+    /**
+     * Longer side of previews rendered in the background, in pixels
+     */
+    public final static int DefaultSize = 320;
+
+    /**
+     * Largest preview clients may request, in pixels
+     */
+    private final static int MaxSize = 1200;
+
+    /**
+     * Renders previews one at a time with low priority, so scans and requests are not slowed down
+     */
+    private final static ExecutorService Renderer = Executors.newSingleThreadExecutor(ThreadHelper.newThreadFactory("preview", Thread.MIN_PRIORITY));
+
+    /**
+     * Previews being rendered by their file, so a preview is rendered only once if requested while rendering
+     */
+    private final static ConcurrentHashMap<File, CompletableFuture<File>> Rendering = new ConcurrentHashMap<>();
+
+    /**
+     * Get preview of pdf, rendered if not cached yet
+     * @param pdf pdf to get preview of
+     * @param size longer side of preview in pixels, limited to {@link #MaxSize}
+     * @return jpeg file
+     * @throws IOException if pdftoppm failed
+     * @throws InterruptedException if interrupted while waiting for pdftoppm
+     */
+    public static File getPreview(File pdf, int size) throws IOException, InterruptedException {
+        var preview = getPreviewFile(pdf, Math.max(16, Math.min(size, MaxSize)));
+        if (preview.isFile())
+        {
+            return preview;
+        }
+        try {
+            return submit(pdf, preview).get();
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("rendering preview of " + pdf.getName() + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * Render preview of new or changed pdf in the background
+     * @param pdf pdf to render preview of
+     */
+    public static void renderLater(File pdf)
+    {
+        if (EnvironmentHelper.isDebug() || !pdf.getName().toLowerCase().endsWith(".pdf"))
+        {
+            return;
+        }
+        submit(pdf, getPreviewFile(pdf, DefaultSize)).whenComplete((file, error) -> {
+            if (error != null)
+            {
+                LogHelper.log("Preview of " + pdf.getName() + " failed: " + error);
+            }
+        });
+    }
+
+    /**
+     * Queue rendering, unless preview is rendered already
+     * @return future completing with preview file
+     */
+    private static CompletableFuture<File> submit(File pdf, File preview)
+    {
+        var future = new CompletableFuture<File>();
+        var running = Rendering.putIfAbsent(preview, future);
+        if (running != null)
+        {
+            return running;
+        }
+        Renderer.execute(() -> {
+            try {
+                future.complete(render(pdf, preview));
+            }
+            catch (Exception e)
+            {
+                future.completeExceptionally(e);
+            }
+            finally {
+                Rendering.remove(preview, future);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Cached preview file, name depends on size and modification time of pdf
+     */
+    private static File getPreviewFile(File pdf, int size)
+    {
+        var directory = new File(pdf.getParentFile(), DirectoryName);
+        return new File(directory, pdf.getName() + "-" + pdf.length() + "-" + pdf.lastModified() + "-" + size + ".jpg");
+    }
+
+    /**
+     * Render first page, runs on renderer thread
+     */
+    private static File render(File pdf, File preview) throws IOException, InterruptedException {
+        if (preview.isFile())
+        {
+            return preview;
+        }
+        var directory = preview.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("can't create " + directory);
+        }
+        deletePreviews(pdf, true);
+        var size = preview.getName().substring(preview.getName().lastIndexOf('-') + 1, preview.getName().length() - ".jpg".length());
+        // rendered under another name and renamed, so nobody gets a half written preview
+        var outputBase = preview.getAbsolutePath().substring(0, preview.getAbsolutePath().length() - ".jpg".length()) + ".part";
+        var output = new File(outputBase + ".jpg");
+        var start = System.currentTimeMillis();
+        // -singlefile writes outputBase.jpg instead of numbering pages
+        var command = List.of("pdftoppm", "-f", "1", "-l", "1", "-singlefile", "-jpeg", "-jpegopt", "quality=75",
+                "-scale-to", size, pdf.getAbsolutePath(), outputBase);
+        try {
+            ProcessRunner.run(new ProcessBuilder(command));
+        }
+        catch (IOException e)
+        {
+            output.delete();
+            throw new IOException("preview of " + pdf.getName() + " failed: " + e.getMessage(), e);
+        }
+        if (!output.isFile())
+        {
+            throw new IOException("pdftoppm wrote no preview of " + pdf.getName());
+        }
+        Files.move(output.toPath(), preview.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Metrics.observeStage("pdftoppm", TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - start));
+        LogHelper.log("Rendered preview of " + pdf.getName() + " in " + (System.currentTimeMillis() - start) + " ms");
+        return preview;
+    }
+
+    /**
+     * Delete previews of deleted pdf
+     * @param pdf deleted pdf
+     */
+    public static void delete(File pdf)
+    {
+        deletePreviews(pdf, false);
+    }
+
+    /**
+     * Delete previews of pdf
+     * @param keepCurrent if previews of current version of pdf are kept
+     */
+    private static void deletePreviews(File pdf, boolean keepCurrent)
+    {
+        var directory = new File(pdf.getParentFile(), DirectoryName);
+        var current = pdf.getName() + "-" + pdf.length() + "-" + pdf.lastModified() + "-";
+        var files = directory.listFiles((dir, name) -> name.startsWith(pdf.getName() + "-") && !(keepCurrent && name.startsWith(current)));
+        if (files == null)
+        {
+            return;
+        }
+        for (var file : files)
+        {
+            // names of other pdfs may start with this name too, like "scan.pdf-1.pdf"
+            var rest = file.getName().substring(pdf.getName().length() + 1);
+            if (rest.matches("\\d+-\\d+-\\d+\\.jpg") && !file.delete())
+            {
+                LogHelper.log("Failed to delete preview " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package server.index;
+
+import server.helper.LogHelper;
+import server.helper.PathHelper;
+import server.helper.ThreadHelper;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory index of the scan folders and their files, so listings don't have to hit the sd card on every request.
+ * <p>
+ * The index is kept current by a {@link WatchService}: any change in the scans directory or in a listed folder drops the
+ * cached listing, which is read again on the next request. If the watch service loses events (overflow), everything is
+ * read again. If watching is not possible at all, every request reads the directories like before.
+ * </p>
+ */
+public class ScanIndex {
+
+    /**
+     * Key of scans directory in watched directories
+     */
+    private final static String RootKey = "";
+
+    private static ScanIndex instance;
+
+    /**
+     * Scans directory
+     */
+    private final Path root;
+
+    /**
+     * Null if directories can't be watched
+     */
+    private final WatchService watchService;
+
+    /**
+     * Watched directories by their key, scans directory is {@link #RootKey}
+     */
+    private final ConcurrentHashMap<WatchKey, String> watchedFolders = new ConcurrentHashMap<>();
+
+    /**
+     * Cached listings by folder name
+     */
+    private final ConcurrentHashMap<String, String[]> filesByFolder = new ConcurrentHashMap<>();
+
+    /**
+     * Cached folders, newest first. Null if they need to be read again.
+     */
+    private volatile String[] folders;
+
+    /**
+     * Increased on every change, so listings read while a change happened are not cached
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private ScanIndex(Path root)
+    {
+        this.root = root;
+        WatchService service = null;
+        try {
+            service = root.getFileSystem().newWatchService();
+            watchedFolders.put(register(service, root), RootKey);
+            LogHelper.log("Watching " + root + " for changes");
+        }
+        catch (IOException | UnsupportedOperationException e)
+        {
+            LogHelper.log("Can't watch " + root + ", listings will not be cached: " + e);
+            if (service != null)
+            {
+                try {
+                    service.close();
+                } catch (IOException e1) {
+                    LogHelper.warn("Closing watch service failed: " + e1);
+                }
+            }
+            service = null;
+        }
+        watchService = service;
+        if (watchService != null)
+        {
+            ThreadHelper.newThreadFactory("scan-index").newThread(this::watch).start();
+        }
+    }
+
+    /**
+     * Folders of scan directory
+     * @return folder names, newest first
+     * @throws Exception if scans directory can't be created or read
+     */
+    public static String[] getFolders() throws Exception {
+        return getInstance().readFolders().clone();
+    }
+
+    /**
+     * Newest folder of scan directory
+     * @return folder name, null if there are no folders
+     * @throws Exception if scans directory can't be created or read
+     */
+    public static String getLatestFolder() throws Exception {
+        var folders = getInstance().readFolders();
+        return folders.length == 0 ? null : folders[0];
+    }
+
+    /**
+     * Files (and directories) of scan folder, without hidden ones
+     * @param folderName name of folder
+     * @return names of entries of folder, empty if folder does not exist
+     * @throws Exception if scans directory can't be created or folder can't be read
+     */
+    public static String[] getFiles(String folderName) throws Exception {
+        return getInstance().readFiles(folderName).clone();
+    }
+
+    /**
+     * Drop cached listing of folder, call after changing its files, so the next listing contains the change
+     * without waiting for the watch service.
+     * @param folderName name of changed folder
+     */
+    public static void invalidate(String folderName)
+    {
+        var index = instance;
+        if (index != null)
+        {
+            index.generation.incrementAndGet();
+            index.filesByFolder.remove(folderName);
+            var folders = index.folders;
+            // folder added or removed
+            if (folders != null && Arrays.asList(folders).contains(folderName) != Files.isDirectory(index.root.resolve(folderName)))
+            {
+                index.folders = null;
+            }
+        }
+    }
+
+    private static synchronized ScanIndex getInstance() throws Exception {
+        if (instance == null)
+        {
+            instance = new ScanIndex(PathHelper.getTargetDirPath());
+        }
+        return instance;
+    }
+
+    private String[] readFolders() throws IOException {
+        var cached = folders;
+        if (cached != null)
+        {
+            return cached;
+        }
+        var startGeneration = generation.get();
+        var folderNames = new ArrayList<String>();
+        try (var entries = Files.newDirectoryStream(root, entry -> Files.isDirectory(entry) && !entry.getFileName().toString().startsWith(".")))
+        {
+            for (var entry : entries)
+            {
+                folderNames.add(entry.getFileName().toString());
+            }
+        }
+        folderNames.sort(Collections.reverseOrder());
+        var result = folderNames.toArray(new String[0]);
+        if (watchService != null && generation.get() == startGeneration)
+        {
+            folders = result;
+        }
+        return result;
+    }
+
+    private String[] readFiles(String folderName) throws IOException {
+        var cached = filesByFolder.get(folderName);
+        if (cached != null)
+        {
+            return cached;
+        }
+        var folder = root.resolve(folderName);
+        if (!Files.isDirectory(folder))
+        {
+            return new String[0];
+        }
+        var startGeneration = generation.get();
+        if (watchService != null && !watchedFolders.containsValue(folderName))
+        {
+            watchedFolders.put(register(watchService, folder), folderName);
+        }
+        var fileNames = new ArrayList<String>();
+        // hidden entries like the previews are not listed
+        try (var entries = Files.newDirectoryStream(folder, entry -> !entry.getFileName().toString().startsWith(".")))
+        {
+            for (var entry : entries)
+            {
+                fileNames.add(entry.getFileName().toString());
+            }
+        }
+        var result = fileNames.toArray(new String[0]);
+        if (watchService != null && generation.get() == startGeneration)
+        {
+            filesByFolder.put(folderName, result);
+        }
+        return result;
+    }
+
+    private static WatchKey register(WatchService service, Path directory) throws IOException {
+        return directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+    }
+
+    /**
+     * Process events of watch service, runs on its own thread
+     */
+    private void watch()
+    {
+        //noinspection InfiniteLoopStatement
+        while (true)
+        {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            }
+            catch (InterruptedException | ClosedWatchServiceException e)
+            {
+                return;
+            }
+            generation.incrementAndGet();
+            var folderName = watchedFolders.get(key);
+            for (var event : key.pollEvents())
+            {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                {
+                    LogHelper.log("Lost changes of scan folders, reading them again");
+                    folders = null;
+                    filesByFolder.clear();
+                }
+                else if (RootKey.equals(folderName))
+                {
+                    // folder added or removed
+                    folders = null;
+                    filesByFolder.remove(event.context().toString());
+                }
+                else if (folderName != null)
+                {
+                    filesByFolder.remove(folderName);
+                }
+            }
+            if (!key.reset())
+            {
+                // directory is gone
+                watchedFolders.remove(key);
+                if (folderName != null)
+                {
+                    filesByFolder.remove(folderName);
+                }
+            }
+        }
+    }
+}
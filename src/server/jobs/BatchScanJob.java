@@ -0,0 +1,230 @@
+package server.jobs;
+
+import server.actions.FileActions;
+import server.helper.FileHelper;
+import server.helper.LogHelper;
+import server.helper.ServerConfigHelper;
+import server.scan.ScanPipeline;
+import server.scan.ScanProfile;
+import server.scan.ScannerDevice;
+import server.scan.ToolException;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Job scanning multiple pages into one pdf.
+ * <p>
+ * Pages are scanned one after another on the scanner thread. Each scanned page is handed to the conversion pool right away,
+ * so page n+1 is scanned while page n is converted. When all pages are converted, they are merged in order.
+ * </p>
+ */
+public class BatchScanJob extends Job {
+
+    /**
+     * Directory the merged file is saved to
+     */
+    private final File targetDir;
+
+    /**
+     * Directory single pages are saved to till they get merged
+     */
+    private final File pageDir;
+
+    private final String fileName;
+
+    private final ScanProfile profile;
+
+    /**
+     * Pages to scan, 0 to scan till the feeder is empty
+     */
+    private final int pageCount;
+
+    private final List<String> scanArguments;
+
+    /**
+     * Pipelines of scanned pages, in order
+     */
+    private final List<ScanPipeline> pages = new ArrayList<>();
+
+    private final AtomicInteger pagesConverted = new AtomicInteger();
+
+    /**
+     * Pipeline of page currently scanned
+     */
+    private volatile ScanPipeline currentPipeline;
+
+    BatchScanJob(String id, String folderName, File targetDir, File pageDir, String fileName, ScanProfile profile, int pageCount, List<String> scanArguments)
+    {
+        super(id, folderName);
+        this.targetDir = targetDir;
+        this.pageDir = pageDir;
+        this.fileName = fileName;
+        this.profile = profile;
+        this.pageCount = pageCount;
+        this.scanArguments = scanArguments;
+    }
+
+    /**
+     * Scan all pages, needs exclusive access to the scanner.
+     * Conversion of each page is started on given executor as soon as it is scanned.
+     * @param conversionExecutor executor to convert pages on
+     * @return future completing when all started conversions are finished
+     */
+    CompletableFuture<Void> acquirePages(Executor conversionExecutor)
+    {
+        var conversions = new ArrayList<CompletableFuture<Void>>();
+        // flatbed scanners never report an empty feeder, so open ended batches need a limit
+        var maxPages = pageCount == 0 ? ServerConfigHelper.getMaxBatchPages() : pageCount;
+        for (var page = 1; page <= maxPages; page++)
+        {
+            if (isFinished())
+            {
+                break;
+            }
+            var pipeline = new ScanPipeline(getId() + "-" + page, pageDir, fileName + "_page" + page, profile, scanArguments);
+            currentPipeline = pipeline;
+            setState(State.Scanning, getProgress());
+            try {
+                pipeline.acquire();
+            }
+            catch (ToolException e)
+            {
+                if (e.getExitCode() == ScannerDevice.FeederEmptyExitCode && !pages.isEmpty())
+                {
+                    LogHelper.log("Job " + getId() + ": feeder empty after " + pages.size() + " pages");
+                    break;
+                }
+                fail(e);
+                break;
+            }
+            catch (Exception e)
+            {
+                fail(e);
+                break;
+            }
+            synchronized (pages)
+            {
+                pages.add(pipeline);
+            }
+            conversions.add(CompletableFuture.runAsync(() -> convertPage(pipeline), conversionExecutor));
+        }
+        currentPipeline = null;
+        setState(State.Converting, getProgress());
+        return CompletableFuture.allOf(conversions.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Merge converted pages into target file. Pages are deleted afterwards, also if job failed or got cancelled.
+     */
+    void mergePages()
+    {
+        var pageFiles = getPageFiles();
+        File reservedFile = null;
+        try {
+            if (isFinished())
+            {
+                return;
+            }
+            setState(State.Merging, 90);
+            reservedFile = FileHelper.reserveFreeFile(targetDir, fileName, ".pdf");
+            var pagePaths = pageFiles.stream().map(File::getAbsolutePath).collect(Collectors.toList());
+            if (!FileActions.mergePdfs(targetDir, pagePaths, reservedFile))
+            {
+                throw new IllegalStateException("merging " + pageFiles.size() + " pages failed");
+            }
+            complete(FileHelper.publish(reservedFile));
+        }
+        catch (Exception e)
+        {
+            fail(e);
+            if (reservedFile != null && reservedFile.exists() && !reservedFile.delete())
+            {
+                LogHelper.log("Failed to delete " + reservedFile);
+            }
+        }
+        finally {
+            for (var pageFile : pageFiles)
+            {
+                if (pageFile.exists() && !pageFile.delete())
+                {
+                    LogHelper.log("Failed to delete page " + pageFile);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void onCancel() {
+        var pipeline = currentPipeline;
+        if (pipeline != null)
+        {
+            pipeline.cancel();
+        }
+        synchronized (pages)
+        {
+            pages.forEach(ScanPipeline::cancel);
+        }
+    }
+
+    /**
+     * Status including pageCount, pagesScanned and pagesConverted
+     */
+    @Override
+    public HashMap<String, String> getStatus() {
+        var status = super.getStatus();
+        status.put("pageCount", String.valueOf(pageCount));
+        status.put("pagesScanned", String.valueOf(getPagesScanned()));
+        status.put("pagesConverted", String.valueOf(pagesConverted.get()));
+        return status;
+    }
+
+    private void convertPage(ScanPipeline pipeline)
+    {
+        try {
+            pipeline.convert();
+            pagesConverted.incrementAndGet();
+            setState(getState(), getProgress());
+        }
+        catch (Exception e)
+        {
+            fail(e);
+        }
+    }
+
+    private int getPagesScanned()
+    {
+        synchronized (pages)
+        {
+            return pages.size();
+        }
+    }
+
+    private List<File> getPageFiles()
+    {
+        synchronized (pages)
+        {
+            // pages whose conversion failed have no file
+            return pages.stream().map(ScanPipeline::getTargetFile).filter(Objects::nonNull).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Progress till merge, scanning and converting count half each. Unknown page counts stay at 0 till merging.
+     */
+    private int getProgress()
+    {
+        if (pageCount == 0)
+        {
+            return 0;
+        }
+        return (getPagesScanned() + pagesConverted.get()) * 90 / (2 * pageCount);
+    }
+}
@@ -0,0 +1,234 @@
+package server.jobs;
+
+import server.index.ContentIndex;
+import server.index.PreviewCache;
+import server.index.ScanIndex;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background job with an id clients can poll.
+ * Subclasses report their progress with {@link #setState(State, int)} and end with {@link #complete(File)} or {@link #fail(Throwable)}.
+ */
+public abstract class Job {
+
+    /**
+     * States of a job, in order of execution
+     */
+    public enum State {
+        Queued,
+        Scanning,
+        Converting,
+        Merging,
+        Done,
+        Failed,
+        Cancelled
+    }
+
+    /**
+     * Id of job
+     */
+    private final String id;
+
+    /**
+     * Folder the result is saved to
+     */
+    private final String folderName;
+
+    /**
+     * Time job was created in ms
+     */
+    private final long createdAt = System.currentTimeMillis();
+
+    /**
+     * Released when job is finished (done, failed or cancelled)
+     */
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private volatile State state = State.Queued;
+
+    /**
+     * Progress in percent
+     */
+    private volatile int progress;
+
+    private volatile File resultFile;
+
+    private volatile String error;
+
+    /**
+     * Time job finished in ms, 0 if still running
+     */
+    private volatile long finishedAt;
+
+    protected Job(String id, String folderName)
+    {
+        this.id = id;
+        this.folderName = folderName;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public String getFolderName()
+    {
+        return folderName;
+    }
+
+    public State getState()
+    {
+        return state;
+    }
+
+    /**
+     * @return resulting file, null if job is not done
+     */
+    public File getResultFile()
+    {
+        return state == State.Done ? resultFile : null;
+    }
+
+    /**
+     * @return if job is done, failed or cancelled
+     */
+    public boolean isFinished()
+    {
+        return finished.getCount() == 0;
+    }
+
+    /**
+     * @return time job finished in ms, 0 if still running
+     */
+    public long getFinishedAt()
+    {
+        return finishedAt;
+    }
+
+    /**
+     * Wait till job is finished
+     * @param timeout maximum time to wait
+     * @param unit unit of timeout
+     * @return true if finished, false if timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    /**
+     * Cancel job
+     * @return false if job was finished already
+     */
+    public boolean cancel()
+    {
+        synchronized (this)
+        {
+            if (isFinished())
+            {
+                return false;
+            }
+            state = State.Cancelled;
+            finish();
+        }
+        onCancel();
+        return true;
+    }
+
+    /**
+     * @return if job got cancelled
+     */
+    public boolean isCancelled()
+    {
+        return state == State.Cancelled;
+    }
+
+    /**
+     * Status of job to send to clients
+     * @return map containing id, state, progress, createdAt, finishedAt and fileName, folderName, error if available
+     */
+    public HashMap<String, String> getStatus()
+    {
+        var status = new HashMap<String, String>();
+        status.put("id", id);
+        status.put("state", state.name());
+        status.put("progress", String.valueOf(progress));
+        status.put("createdAt", String.valueOf(createdAt));
+        status.put("folderName", folderName);
+        if (finishedAt > 0)
+        {
+            status.put("finishedAt", String.valueOf(finishedAt));
+        }
+        var file = getResultFile();
+        if (file != null)
+        {
+            status.put("fileName", file.getName());
+        }
+        if (error != null)
+        {
+            status.put("error", error);
+        }
+        return status;
+    }
+
+    /**
+     * Called after job got cancelled, to stop its work
+     */
+    protected abstract void onCancel();
+
+    /**
+     * Update state, ignored if job is finished already
+     * @param state new state
+     * @param progress progress in percent
+     */
+    protected synchronized void setState(State state, int progress)
+    {
+        if (!isFinished())
+        {
+            this.state = state;
+            this.progress = progress;
+        }
+    }
+
+    /**
+     * Mark job as done
+     * @param resultFile resulting file
+     */
+    protected synchronized void complete(File resultFile)
+    {
+        if (!isFinished())
+        {
+            this.resultFile = resultFile;
+            ScanIndex.invalidate(folderName);
+            PreviewCache.renderLater(resultFile);
+            ContentIndex.addLater(resultFile);
+            state = State.Done;
+            progress = 100;
+            finish();
+        }
+    }
+
+    /**
+     * Mark job as failed, ignored if it got cancelled
+     * @param cause reason of failure
+     */
+    protected synchronized void fail(Throwable cause)
+    {
+        if (!isFinished())
+        {
+            error = cause.toString();
+            state = State.Failed;
+            finish();
+        }
+    }
+
+    private void finish()
+    {
+        finishedAt = System.currentTimeMillis();
+        finished.countDown();
+    }
+}
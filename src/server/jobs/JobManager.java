@@ -0,0 +1,145 @@
+package server.jobs;
+
+import server.helper.LogHelper;
+import server.helper.ServerConfigHelper;
+import server.helper.ThreadHelper;
+import server.scan.ScanPipeline;
+import server.scan.ScanProfile;
+import server.scan.ScannerDevices;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs jobs in the background.
+ * <p>
+ * Scanning happens on a single thread, since there's only one scanner. Converting happens on a pool of
+ * {@link ServerConfigHelper#getConverterThreads()} threads, so the next page can be scanned while
+ * the previous one is still converted.
+ * Finished jobs are kept for an hour, so clients can still poll their result.
+ * </p>
+ */
+public class JobManager {
+
+    /**
+     * Time finished jobs are kept
+     */
+    private final static long FinishedJobRetentionMs = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Only thread using the scanner
+     */
+    private final static ExecutorService ScannerExecutor = Executors.newSingleThreadExecutor(ThreadHelper.newThreadFactory("scanner"));
+
+    /**
+     * Threads converting scans. Slightly lower priority than request handling, so listings stay responsive.
+     */
+    private final static ExecutorService ConversionExecutor = Executors.newFixedThreadPool(ServerConfigHelper.getConverterThreads(),
+            ThreadHelper.newThreadFactory("converter", Thread.NORM_PRIORITY - 1));
+
+    /**
+     * Known jobs by id
+     */
+    private final static ConcurrentHashMap<String, Job> Jobs = new ConcurrentHashMap<>();
+
+    /**
+     * Prefix of job ids, so ids of a previous server run are not mistaken for current ones
+     */
+    private final static String IdPrefix = Long.toString(System.currentTimeMillis(), 36);
+
+    private final static AtomicLong IdCounter = new AtomicLong();
+
+    /**
+     * Queue scan of a single page.
+     * @param targetDir directory to save scan to
+     * @param folderName name of folder to save scan to
+     * @param fileName name of file without extension
+     * @param profile how to scan and compress
+     * @return queued job
+     */
+    public static ScanJob submitScan(File targetDir, String folderName, String fileName, ScanProfile profile)
+    {
+        removeFinishedJobs();
+        var id = nextId();
+        var job = new ScanJob(id, folderName, new ScanPipeline(id, targetDir, fileName, profile));
+        // scanner opens while the job waits in the queue
+        ScannerDevices.prepare(profile, List.of());
+        Jobs.put(job.getId(), job);
+        LogHelper.log("Queued scan job " + job.getId() + " for " + fileName);
+        ScannerExecutor.execute(() -> {
+            if (job.isFinished())
+            {
+                return;
+            }
+            if (job.acquire())
+            {
+                ConversionExecutor.execute(job::convert);
+            }
+        });
+        return job;
+    }
+
+    /**
+     * Queue scan of multiple pages into one file.
+     * @param targetDir directory to save merged file to
+     * @param folderName name of folder to save scan to
+     * @param fileName name of merged file without extension
+     * @param profile how to scan and compress every page
+     * @param pageCount pages to scan, 0 to scan till the document feeder is empty
+     * @param scanArguments additional arguments for scanimage, like the source
+     * @return queued job
+     */
+    public static BatchScanJob submitBatchScan(File targetDir, String folderName, String fileName, ScanProfile profile, int pageCount, List<String> scanArguments)
+    {
+        removeFinishedJobs();
+        var tempDir = ServerConfigHelper.getScanTempDir();
+        var pageDir = tempDir == null ? targetDir : new File(tempDir);
+        var job = new BatchScanJob(nextId(), folderName, targetDir, pageDir, fileName, profile, pageCount, scanArguments);
+        ScannerDevices.prepare(profile, scanArguments);
+        Jobs.put(job.getId(), job);
+        LogHelper.log("Queued batch scan job " + job.getId() + " for " + fileName + " with " + pageCount + " pages");
+        ScannerExecutor.execute(() -> {
+            if (job.isFinished())
+            {
+                return;
+            }
+            job.acquirePages(ConversionExecutor).thenRunAsync(job::mergePages, ConversionExecutor);
+        });
+        return job;
+    }
+
+    /**
+     * Get job by id
+     * @param id id of job
+     * @return job or null if unknown or expired
+     */
+    public static Job getJob(String id)
+    {
+        return Jobs.get(id);
+    }
+
+    /**
+     * Number of jobs not finished yet
+     * @return active jobs
+     */
+    public static long getActiveJobs()
+    {
+        return Jobs.values().stream().filter(job -> !job.isFinished()).count();
+    }
+
+    private static String nextId()
+    {
+        return IdPrefix + "-" + IdCounter.incrementAndGet();
+    }
+
+    private static void removeFinishedJobs()
+    {
+        var expiry = System.currentTimeMillis() - FinishedJobRetentionMs;
+        Jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt() < expiry);
+    }
+}
@@ -0,0 +1,76 @@
+package server.jobs;
+
+import server.scan.ScanPipeline;
+
+import java.util.HashMap;
+
+/**
+ * Job scanning a single page. Acquisition and conversion run on different threads,
+ * so the scanner is free for the next job while this one is still converting.
+ */
+public class ScanJob extends Job {
+
+    /**
+     * Pipeline doing the work
+     */
+    private final ScanPipeline pipeline;
+
+    ScanJob(String id, String folderName, ScanPipeline pipeline)
+    {
+        super(id, folderName);
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Scan page, needs exclusive access to the scanner.
+     * @return true if conversion should follow, false if job failed or got cancelled
+     */
+    boolean acquire()
+    {
+        setState(State.Scanning, 10);
+        try {
+            pipeline.acquire();
+            setState(State.Converting, 50);
+            return !isFinished();
+        }
+        catch (Exception e)
+        {
+            fail(e);
+            return false;
+        }
+    }
+
+    /**
+     * Convert scanned page
+     */
+    void convert()
+    {
+        try {
+            pipeline.convert();
+            complete(pipeline.getTargetFile());
+        }
+        catch (Exception e)
+        {
+            fail(e);
+        }
+    }
+
+    @Override
+    protected void onCancel() {
+        pipeline.cancel();
+    }
+
+    /**
+     * Status including profile and duration of finished stages as "stage.&lt;name&gt;" in ms
+     */
+    @Override
+    public HashMap<String, String> getStatus() {
+        var status = super.getStatus();
+        status.put("profile", pipeline.getProfile().toString());
+        for (var stage : pipeline.getStageDurations().entrySet())
+        {
+            status.put("stage." + stage.getKey(), String.valueOf(stage.getValue()));
+        }
+        return status;
+    }
+}
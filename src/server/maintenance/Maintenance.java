@@ -0,0 +1,452 @@
+package server.maintenance;
+
+import server.helper.FileHelper;
+import server.helper.LogHelper;
+import server.helper.PathHelper;
+import server.helper.ServerConfigHelper;
+import server.helper.ThreadHelper;
+import server.index.ContentIndex;
+import server.index.PreviewCache;
+import server.index.ScanIndex;
+import server.jobs.JobManager;
+import server.metrics.Metrics;
+import server.scan.ToolException;
+import server.tools.ProcessRunner;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Background maintenance of the scans directory, runs every {@link ServerConfigHelper#getMaintenanceInterval()} minutes
+ * on a low priority thread:
+ * <ol>
+ *     <li>temp files of crashed scans, previews, recompressions and links are deleted, as are names reserved by crashed
+ *     scans and merges</li>
+ *     <li>files are added to the {@link ContentIndex}, files verified more than {@link ServerConfigHelper#getVerifyDays()}
+ *     ago are read again to find corrupted ones</li>
+ *     <li>pdfs of folders older than {@link ServerConfigHelper#getRecompressDays()} are recompressed with ps2pdf,
+ *     results are only kept if they are smaller</li>
+ *     <li>folders older than {@link ServerConfigHelper#getArchiveDays()} are moved into a zip per month in
+ *     {@link PathHelper#getArchiveDirPath()}</li>
+ * </ol>
+ * Before every file it waits till no scan job and no tool is running, so it doesn't compete with scans.
+ */
+public class Maintenance {
+
+    /**
+     * Temp files of {@link server.scan.ScanPipeline}: name_temp.tiff, name_temp_g4.tiff, name_temp.pdf and
+     * name_temp.ps of older versions
+     */
+    private final static Pattern TempFilePattern = Pattern.compile("(.+_temp)(_g4)?\\.(tiff|pdf|ps)");
+
+    /**
+     * Suffix of files recompressions are written to, hidden till they replace the pdf
+     */
+    private final static String RecompressSuffix = ".recompress";
+
+    /**
+     * Written into a folder when its pdfs got recompressed, pdfs changed later are recompressed on the next run
+     */
+    private final static String RecompressedMarker = ".recompressed";
+
+    /**
+     * Recompressed pdfs have to be at least this much smaller to replace the original
+     */
+    private final static double MaxSizeRatio = 0.9;
+
+    private final static long IdleCheckMs = 5000;
+
+    /**
+     * Pause between files, even when idle
+     */
+    private final static long PauseMs = 100;
+
+    private static ScheduledExecutorService scheduler;
+
+    private final Path scans;
+
+    private int deletedFiles;
+
+    private int checkedFiles;
+
+    private int corruptFiles;
+
+    private int recompressedFiles;
+
+    private long savedBytes;
+
+    private int archivedFolders;
+
+    private Maintenance(Path scans)
+    {
+        this.scans = scans;
+    }
+
+    /**
+     * Schedule maintenance, does nothing if it is disabled or already scheduled
+     */
+    public static synchronized void start()
+    {
+        var interval = ServerConfigHelper.getMaintenanceInterval();
+        if (interval <= 0 || scheduler != null)
+        {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(ThreadHelper.newThreadFactory("maintenance", Thread.MIN_PRIORITY));
+        scheduler.scheduleWithFixedDelay(Maintenance::run, ServerConfigHelper.getMaintenanceDelay(), interval, TimeUnit.MINUTES);
+        LogHelper.log("Maintenance runs every " + interval + " minutes");
+    }
+
+    private static void run()
+    {
+        var start = System.nanoTime();
+        Maintenance maintenance = null;
+        try {
+            maintenance = new Maintenance(PathHelper.getTargetDirPath());
+            maintenance.runPasses();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (Exception e)
+        {
+            LogHelper.warn("Maintenance failed: " + e);
+            LogHelper.debug(() -> LogHelper.getStackTrace(e));
+        }
+        finally {
+            Metrics.observeStage("maintenance", System.nanoTime() - start);
+            if (maintenance != null)
+            {
+                LogHelper.log("Maintenance took " + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) + " s: deleted " + maintenance.deletedFiles
+                        + " temp files, checked " + maintenance.checkedFiles + " files (" + maintenance.corruptFiles + " corrupted), recompressed " + maintenance.recompressedFiles + " pdfs (" + maintenance.savedBytes / 1024 + " kb saved), archived "
+                        + maintenance.archivedFolders + " folders");
+            }
+        }
+    }
+
+    private void runPasses() throws Exception {
+        var today = LocalDate.now();
+        var recompressDays = ServerConfigHelper.getRecompressDays();
+        var archiveDays = ServerConfigHelper.getArchiveDays();
+        var verifyBefore = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(ServerConfigHelper.getVerifyDays());
+        var tempDir = ServerConfigHelper.getScanTempDir();
+        if (tempDir != null)
+        {
+            sweepTempFiles(Path.of(tempDir));
+        }
+        for (var folderName : ScanIndex.getFolders())
+        {
+            var folder = scans.resolve(folderName);
+            sweepTempFiles(folder);
+            check(folder, verifyBefore);
+            LocalDate date;
+            try {
+                date = LocalDate.parse(folderName);
+            }
+            catch (DateTimeParseException e)
+            {
+                // not a folder of scans
+                continue;
+            }
+            if (recompressDays > 0 && date.isBefore(today.minusDays(recompressDays)))
+            {
+                recompress(folder);
+            }
+            if (archiveDays > 0 && date.isBefore(today.minusDays(archiveDays)))
+            {
+                archive(folderName, date);
+            }
+        }
+    }
+
+    /**
+     * Delete temp files older than {@link ServerConfigHelper#getTempFileAge()}. A pdf named like a temp file is only
+     * deleted next to the tiff or postscript of its scan, as a scan might have been named like that.
+     */
+    private void sweepTempFiles(Path directory) throws IOException {
+        if (!Files.isDirectory(directory))
+        {
+            return;
+        }
+        var maxModified = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(ServerConfigHelper.getTempFileAge());
+        var names = new HashSet<String>();
+        try (var entries = Files.newDirectoryStream(directory))
+        {
+            entries.forEach(entry -> names.add(entry.getFileName().toString()));
+        }
+        for (var name : names)
+        {
+            var matcher = TempFilePattern.matcher(name);
+            var isTemp = name.startsWith(".") && (name.endsWith(RecompressSuffix) || name.endsWith(ContentIndex.LinkSuffix)
+                    || name.endsWith(FileHelper.ReservedSuffix));
+            if (matcher.matches())
+            {
+                var base = matcher.group(1);
+                isTemp = !matcher.group(3).equals("pdf") || names.contains(base + ".tiff") || names.contains(base + ".ps");
+            }
+            if (isTemp)
+            {
+                deleteIfOld(directory.resolve(name), maxModified);
+            }
+        }
+        // previews are rendered into .part.jpg files and renamed when done
+        var previews = directory.resolve(".previews");
+        if (Files.isDirectory(previews))
+        {
+            try (var entries = Files.newDirectoryStream(previews, "*.part.jpg"))
+            {
+                for (var entry : entries)
+                {
+                    deleteIfOld(entry, maxModified);
+                }
+            }
+        }
+    }
+
+    private void deleteIfOld(Path file, long maxModified) throws IOException {
+        if (Files.isRegularFile(file) && Files.getLastModifiedTime(file).toMillis() < maxModified && Files.deleteIfExists(file))
+        {
+            LogHelper.log("Deleted leftover " + file);
+            deletedFiles++;
+        }
+    }
+
+    /**
+     * Index new files of folder and read files verified before given time again
+     */
+    private void check(Path folder, long verifyBefore) throws IOException, InterruptedException {
+        if (!Files.isDirectory(folder))
+        {
+            return;
+        }
+        var files = new ArrayList<Path>();
+        try (var entries = Files.newDirectoryStream(folder, entry -> !entry.getFileName().toString().startsWith(".")))
+        {
+            for (var entry : entries)
+            {
+                if (Files.isRegularFile(entry))
+                {
+                    files.add(entry);
+                }
+            }
+        }
+        for (var file : files)
+        {
+            // only reading a file is worth waiting for
+            if (!ContentIndex.isIndexed(file.toFile(), verifyBefore))
+            {
+                waitForIdle();
+            }
+            try {
+                checkedFiles++;
+                if (!ContentIndex.check(file.toFile(), verifyBefore))
+                {
+                    corruptFiles++;
+                }
+            }
+            catch (IOException e)
+            {
+                // deleted meanwhile
+                LogHelper.debug(() -> "Checking " + file + " failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * Recompress pdfs changed since the last recompression of folder
+     */
+    private void recompress(Path folder) throws IOException, InterruptedException {
+        var marker = folder.resolve(RecompressedMarker);
+        var recompressedBefore = Files.exists(marker) ? Files.getLastModifiedTime(marker).toMillis() : 0;
+        var pdfs = new ArrayList<Path>();
+        try (var entries = Files.newDirectoryStream(folder, "*.pdf"))
+        {
+            for (var entry : entries)
+            {
+                if (!entry.getFileName().toString().startsWith(".") && Files.isRegularFile(entry)
+                        && Files.getLastModifiedTime(entry).toMillis() > recompressedBefore)
+                {
+                    pdfs.add(entry);
+                }
+            }
+        }
+        if (pdfs.isEmpty())
+        {
+            return;
+        }
+        for (var pdf : pdfs)
+        {
+            waitForIdle();
+            recompressFile(pdf);
+        }
+        // recompressed pdfs keep their time, so they are older than the marker
+        Files.write(marker, new byte[0]);
+    }
+
+    private void recompressFile(Path pdf) throws IOException, InterruptedException {
+        var name = pdf.getFileName().toString();
+        var recompressed = pdf.resolveSibling("." + name + RecompressSuffix);
+        try {
+            ProcessRunner.run(new ProcessBuilder("ps2pdf", "-dPDFSETTINGS=" + ServerConfigHelper.getRecompressSettings(), pdf.toString(),
+                    recompressed.toString()).directory(pdf.getParent().toFile()));
+            var size = Files.size(pdf);
+            var newSize = Files.size(recompressed);
+            if (newSize == 0 || newSize > size * MaxSizeRatio)
+            {
+                return;
+            }
+            // keep time, so the order of files stays the same
+            Files.setLastModifiedTime(recompressed, Files.getLastModifiedTime(pdf));
+            Files.move(recompressed, pdf, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            PreviewCache.delete(pdf.toFile());
+            ContentIndex.addLater(pdf.toFile());
+            LogHelper.log("Recompressed " + pdf + " from " + size / 1024 + " to " + newSize / 1024 + " kb");
+            recompressedFiles++;
+            savedBytes += size - newSize;
+        }
+        catch (ToolException e)
+        {
+            LogHelper.warn("Recompressing " + pdf + " failed: " + e.getMessage());
+        }
+        finally {
+            Files.deleteIfExists(recompressed);
+        }
+    }
+
+    /**
+     * Move files of folder into the zip of its month and delete the folder. Folders containing folders are kept.
+     * Only files copied unchanged into the zip are deleted, files written into the folder meanwhile stay with it.
+     */
+    private void archive(String folderName, LocalDate date) throws IOException, InterruptedException {
+        var folder = scans.resolve(folderName);
+        var files = new ArrayList<Path>();
+        try (var entries = Files.newDirectoryStream(folder, entry -> !entry.getFileName().toString().startsWith(".")))
+        {
+            for (var entry : entries)
+            {
+                if (!Files.isRegularFile(entry))
+                {
+                    LogHelper.warn("Not archiving " + folder + ", it contains " + entry.getFileName());
+                    return;
+                }
+                files.add(entry);
+            }
+        }
+        var archiveDir = Files.createDirectories(PathHelper.getArchiveDirPath());
+        var zip = archiveDir.resolve(YearMonth.from(date) + ".zip");
+        var copied = new LinkedHashMap<Path, BasicFileAttributes>();
+        // changes of the zip file system are written when it is closed
+        try (var zipFileSystem = FileSystems.newFileSystem(URI.create("jar:" + zip.toUri()), Map.of("create", "true")))
+        {
+            var target = Files.createDirectories(zipFileSystem.getPath("/" + folderName));
+            for (var file : files)
+            {
+                waitForIdle();
+                var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                Files.copy(file, target.resolve(file.getFileName().toString()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                copied.put(file, attributes);
+            }
+        }
+        var deleted = new ArrayList<Path>();
+        for (var copy : copied.entrySet())
+        {
+            var file = copy.getKey();
+            var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (attributes.size() != copy.getValue().size() || !attributes.lastModifiedTime().equals(copy.getValue().lastModifiedTime()))
+            {
+                LogHelper.warn("Not deleting " + file + ", it changed while it was archived");
+                continue;
+            }
+            Files.delete(file);
+            deleted.add(file);
+        }
+        if (!deleteIfArchived(folder))
+        {
+            for (var file : deleted)
+            {
+                PreviewCache.delete(file.toFile());
+                ContentIndex.remove(file.toFile());
+            }
+        }
+        ScanIndex.invalidate(folderName);
+        LogHelper.log("Archived " + copied.size() + " files of " + folderName + " into " + zip);
+        archivedFolders++;
+    }
+
+    /**
+     * Delete archived folder with its index and previews, unless files were written into it while it was archived
+     * @return false if the folder was kept for new files, the archived files have to be removed from its index then
+     */
+    private static boolean deleteIfArchived(Path folder) throws IOException {
+        try (var entries = Files.newDirectoryStream(folder, entry -> !entry.getFileName().toString().startsWith(".")))
+        {
+            if (entries.iterator().hasNext())
+            {
+                LogHelper.warn("Keeping " + folder + ", files were added while it was archived");
+                return false;
+            }
+        }
+        // first, so the index isn't saved again
+        ContentIndex.removeFolder(folder);
+        Files.deleteIfExists(folder.resolve(ContentIndex.FileName));
+        var previews = folder.resolve(PreviewCache.DirectoryName);
+        if (Files.isDirectory(previews))
+        {
+            delete(previews);
+        }
+        try {
+            Files.delete(folder);
+            return true;
+        }
+        catch (DirectoryNotEmptyException e)
+        {
+            LogHelper.warn("Keeping " + folder + ", it isn't empty after archiving");
+            return true;
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(directory))
+        {
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (var path : paths)
+        {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Wait till no scan job and no tool is running
+     */
+    private static void waitForIdle() throws InterruptedException {
+        while (JobManager.getActiveJobs() > 0 || ProcessRunner.getUsedSlots() > 0)
+        {
+            Thread.sleep(IdleCheckMs);
+        }
+        Thread.sleep(PauseMs);
+    }
+}
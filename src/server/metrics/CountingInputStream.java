@@ -0,0 +1,50 @@
+package server.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts bytes read from a connection into {@link Metrics}
+ */
+public class CountingInputStream extends FilterInputStream {
+
+    private final String frontend;
+
+    /**
+     * @param input stream to count
+     * @param frontend front end the bytes are counted for, like "socket"
+     */
+    public CountingInputStream(InputStream input, String frontend)
+    {
+        super(input);
+        this.frontend = frontend;
+    }
+
+    @Override
+    public int read() throws IOException {
+        var value = super.read();
+        if (value >= 0)
+        {
+            Metrics.addBytesIn(frontend, 1);
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        var read = super.read(buffer, offset, length);
+        if (read > 0)
+        {
+            Metrics.addBytesIn(frontend, read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        var skipped = super.skip(count);
+        Metrics.addBytesIn(frontend, skipped);
+        return skipped;
+    }
+}
@@ -0,0 +1,76 @@
+package server.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Durations counted in fixed buckets, like a Prometheus histogram.
+ * Adding a value only increments counters, so it can be used on every request.
+ */
+public class Histogram {
+
+    /**
+     * Upper bounds of buckets in seconds, from serializing a listing to a batch scan
+     */
+    final static double[] BoundSeconds = { 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5,
+            1, 2.5, 5, 10, 30, 60, 120 };
+
+    private final static long[] BoundNanos = new long[BoundSeconds.length];
+
+    static {
+        for (var i = 0; i < BoundSeconds.length; i++)
+        {
+            BoundNanos[i] = (long) (BoundSeconds[i] * 1e9);
+        }
+    }
+
+    /**
+     * Values per bucket, the last one holds values above all bounds
+     */
+    private final LongAdder[] buckets = new LongAdder[BoundSeconds.length + 1];
+
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram()
+    {
+        for (var i = 0; i < buckets.length; i++)
+        {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Add duration
+     * @param nanos duration in nanoseconds
+     */
+    public void observe(long nanos)
+    {
+        var bucket = 0;
+        while (bucket < BoundNanos.length && nanos > BoundNanos[bucket])
+        {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * @return values per bucket, not cumulative, last entry for values above all bounds
+     */
+    long[] getBucketCounts()
+    {
+        var counts = new long[buckets.length];
+        for (var i = 0; i < buckets.length; i++)
+        {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * @return sum of all values in seconds
+     */
+    double getSumSeconds()
+    {
+        return sumNanos.sum() / 1e9;
+    }
+}
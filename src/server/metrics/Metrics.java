@@ -0,0 +1,267 @@
+package server.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of server metrics: durations of actions and external tool stages, serialization, bytes in and out
+ * and gauges like active connections. Recording only increments counters, the text for Prometheus is built
+ * when it is requested.
+ */
+public class Metrics {
+
+    /**
+     * Prefix of all metric names
+     */
+    private final static String Prefix = "scanserver_";
+
+    /**
+     * Duration of actions by action name, from waiting for the action limit till the response is sent
+     */
+    private final static ConcurrentHashMap<String, Histogram> ActionDurations = new ConcurrentHashMap<>();
+
+    /**
+     * Duration of stages like external tools by stage name
+     */
+    private final static ConcurrentHashMap<String, Histogram> StageDurations = new ConcurrentHashMap<>();
+
+    /**
+     * Wall time of external tools by tool name
+     */
+    private final static ConcurrentHashMap<String, Histogram> ToolDurations = new ConcurrentHashMap<>();
+
+    /**
+     * CPU time of external tools in nanoseconds by tool name
+     */
+    private final static ConcurrentHashMap<String, LongAdder> ToolCpuNanos = new ConcurrentHashMap<>();
+
+    /**
+     * Tools killed after their timeout by tool name
+     */
+    private final static ConcurrentHashMap<String, LongAdder> ToolTimeouts = new ConcurrentHashMap<>();
+
+    /**
+     * Duration of serializing results by action name
+     */
+    private final static ConcurrentHashMap<String, Histogram> SerializationDurations = new ConcurrentHashMap<>();
+
+    /**
+     * Bytes of serialized results by action name
+     */
+    private final static ConcurrentHashMap<String, LongAdder> SerializedBytes = new ConcurrentHashMap<>();
+
+    /**
+     * Bytes received by front end
+     */
+    private final static ConcurrentHashMap<String, LongAdder> BytesIn = new ConcurrentHashMap<>();
+
+    /**
+     * Bytes sent by front end
+     */
+    private final static ConcurrentHashMap<String, LongAdder> BytesOut = new ConcurrentHashMap<>();
+
+    /**
+     * Gauges by metric name, sorted for stable output
+     */
+    private final static ConcurrentSkipListMap<String, Gauge> Gauges = new ConcurrentSkipListMap<>();
+
+    /**
+     * Start time for {@link #observeAction(String, long)}
+     * @return current time in nanoseconds
+     */
+    public static long start()
+    {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record duration of action
+     * @param actionName name of action
+     * @param startNanos time the action started, from {@link #start()}
+     */
+    public static void observeAction(String actionName, long startNanos)
+    {
+        ActionDurations.computeIfAbsent(actionName, name -> new Histogram()).observe(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Record duration of stage, like an external tool
+     * @param stageName name of stage, like "scanimage" or "tiff2pdf"
+     * @param nanos duration in nanoseconds
+     */
+    public static void observeStage(String stageName, long nanos)
+    {
+        StageDurations.computeIfAbsent(stageName, name -> new Histogram()).observe(nanos);
+    }
+
+    /**
+     * Record run of external tool
+     * @param toolName name of tool, like "tiff2pdf"
+     * @param wallNanos time from start till it ended in nanoseconds
+     * @param cpuNanos CPU time it used in nanoseconds
+     */
+    public static void observeTool(String toolName, long wallNanos, long cpuNanos)
+    {
+        ToolDurations.computeIfAbsent(toolName, name -> new Histogram()).observe(wallNanos);
+        ToolCpuNanos.computeIfAbsent(toolName, name -> new LongAdder()).add(cpuNanos);
+    }
+
+    /**
+     * Count tool killed after its timeout
+     * @param toolName name of tool
+     */
+    public static void countToolTimeout(String toolName)
+    {
+        ToolTimeouts.computeIfAbsent(toolName, name -> new LongAdder()).increment();
+    }
+
+    /**
+     * Record serialization of result
+     * @param actionName action the result belongs to
+     * @param bytes size of serialized result
+     * @param nanos duration of serialization in nanoseconds
+     */
+    public static void observeSerialization(String actionName, long bytes, long nanos)
+    {
+        SerializationDurations.computeIfAbsent(actionName, name -> new Histogram()).observe(nanos);
+        SerializedBytes.computeIfAbsent(actionName, name -> new LongAdder()).add(bytes);
+    }
+
+    /**
+     * Count received bytes
+     * @param frontend "socket" or "http"
+     * @param bytes number of bytes
+     */
+    public static void addBytesIn(String frontend, long bytes)
+    {
+        BytesIn.computeIfAbsent(frontend, name -> new LongAdder()).add(bytes);
+    }
+
+    /**
+     * Count sent bytes
+     * @param frontend "socket" or "http"
+     * @param bytes number of bytes
+     */
+    public static void addBytesOut(String frontend, long bytes)
+    {
+        BytesOut.computeIfAbsent(frontend, name -> new LongAdder()).add(bytes);
+    }
+
+    /**
+     * Register value read when metrics are requested, replaces a gauge of the same name
+     * @param name name of metric without prefix
+     * @param help description of metric
+     * @param value supplier of current value
+     */
+    public static void registerGauge(String name, String help, LongSupplier value)
+    {
+        Gauges.put(name, new Gauge(help, value));
+    }
+
+    /**
+     * All metrics in Prometheus text format (version 0.0.4)
+     * @return metrics text
+     */
+    public static String toPrometheus()
+    {
+        var text = new StringBuilder(8 * 1024);
+        writeHistograms(text, "action_duration_seconds", "Duration of actions including waiting for their limit", "action", ActionDurations);
+        writeHistograms(text, "stage_duration_seconds", "Duration of scan, conversion, merge and preview stages", "stage", StageDurations);
+        writeHistograms(text, "tool_duration_seconds", "Wall time of external tools", "tool", ToolDurations);
+        writeCounters(text, "tool_cpu_seconds_total", "CPU time of external tools, sampled while they run", "tool", ToolCpuNanos, 1e-9);
+        writeCounters(text, "tool_timeouts_total", "External tools killed after their timeout", "tool", ToolTimeouts);
+        writeHistograms(text, "serialization_duration_seconds", "Duration of serializing results", "action", SerializationDurations);
+        writeCounters(text, "serialized_bytes_total", "Bytes of serialized results", "action", SerializedBytes);
+        writeCounters(text, "received_bytes_total", "Bytes received from clients", "frontend", BytesIn);
+        writeCounters(text, "sent_bytes_total", "Bytes sent to clients", "frontend", BytesOut);
+        for (var entry : Gauges.entrySet())
+        {
+            var name = Prefix + entry.getKey();
+            writeHeader(text, name, entry.getValue().help, "gauge");
+            text.append(name).append(' ').append(entry.getValue().value.getAsLong()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static void writeHistograms(StringBuilder text, String metric, String help, String label, Map<String, Histogram> histograms)
+    {
+        var name = Prefix + metric;
+        writeHeader(text, name, help, "histogram");
+        for (var entry : new TreeMap<>(histograms).entrySet())
+        {
+            var labelValue = label + "=\"" + escape(entry.getKey()) + "\"";
+            var counts = entry.getValue().getBucketCounts();
+            var cumulative = 0L;
+            for (var i = 0; i < counts.length; i++)
+            {
+                cumulative += counts[i];
+                var bound = i < Histogram.BoundSeconds.length ? formatDouble(Histogram.BoundSeconds[i]) : "+Inf";
+                text.append(name).append("_bucket{").append(labelValue).append(",le=\"").append(bound).append("\"} ").append(cumulative).append('\n');
+            }
+            text.append(name).append("_sum{").append(labelValue).append("} ").append(formatDouble(entry.getValue().getSumSeconds())).append('\n');
+            text.append(name).append("_count{").append(labelValue).append("} ").append(cumulative).append('\n');
+        }
+    }
+
+    private static void writeCounters(StringBuilder text, String metric, String help, String label, Map<String, LongAdder> counters)
+    {
+        var name = Prefix + metric;
+        writeHeader(text, name, help, "counter");
+        for (var entry : new TreeMap<>(counters).entrySet())
+        {
+            text.append(name).append('{').append(label).append("=\"").append(escape(entry.getKey())).append("\"} ").append(entry.getValue().sum()).append('\n');
+        }
+    }
+
+    /**
+     * Write counters counted in another unit
+     * @param unit factor from counted unit to the unit of the metric, like 1e-9 for nanoseconds to seconds
+     */
+    private static void writeCounters(StringBuilder text, String metric, String help, String label, Map<String, LongAdder> counters, double unit)
+    {
+        var name = Prefix + metric;
+        writeHeader(text, name, help, "counter");
+        for (var entry : new TreeMap<>(counters).entrySet())
+        {
+            text.append(name).append('{').append(label).append("=\"").append(escape(entry.getKey())).append("\"} ").append(formatDouble(entry.getValue().sum() * unit))
+                    .append('\n');
+        }
+    }
+
+    private static void writeHeader(StringBuilder text, String name, String help, String type)
+    {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String formatDouble(double value)
+    {
+        return String.format(Locale.ROOT, "%s", value);
+    }
+
+    /**
+     * Escape label value
+     */
+    private static String escape(String value)
+    {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static class Gauge {
+
+        private final String help;
+
+        private final LongSupplier value;
+
+        Gauge(String help, LongSupplier value)
+        {
+            this.help = help;
+            this.value = value;
+        }
+    }
+}
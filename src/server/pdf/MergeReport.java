@@ -0,0 +1,156 @@
+package server.pdf;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Outcome of a {@link ParallelMerger} run: success and timing of every file and of the merge itself.
+ */
+public class MergeReport {
+
+    /**
+     * Result of validating one file
+     */
+    public static class FileResult {
+
+        final String name;
+
+        boolean valid;
+
+        /**
+         * Pages of file, -1 if unknown
+         */
+        int pageCount = -1;
+
+        /**
+         * Pages taken from file
+         */
+        int selectedPages;
+
+        /**
+         * Why file is invalid or why it will be merged by pdftk
+         */
+        String message;
+
+        long durationMs;
+
+        FileResult(String name)
+        {
+            this.name = name;
+        }
+
+        HashMap<String, Object> toMap()
+        {
+            var map = new HashMap<String, Object>();
+            map.put("fileName", name);
+            map.put("valid", valid);
+            map.put("pageCount", pageCount);
+            map.put("selectedPages", selectedPages);
+            map.put("durationMs", durationMs);
+            if (message != null)
+            {
+                map.put("message", message);
+            }
+            return map;
+        }
+
+        @Override
+        public String toString() {
+            return name + (valid ? " ok " : " failed ") + selectedPages + "/" + pageCount + " pages " + durationMs + "ms"
+                    + (message == null ? "" : " (" + message + ")");
+        }
+    }
+
+    private File target;
+
+    final List<FileResult> files = new ArrayList<>();
+
+    boolean merged;
+
+    /**
+     * Error of merge itself, null if it worked or didn't run
+     */
+    String error;
+
+    long validateMs;
+
+    long mergeMs;
+
+    /**
+     * Duration of every level of the merge tree
+     */
+    final List<Long> levelMs = new ArrayList<>();
+
+    MergeReport(File target)
+    {
+        this.target = target;
+    }
+
+    /**
+     * @param target file the merge was saved as, if it got renamed after merging
+     */
+    public void setTarget(File target)
+    {
+        this.target = target;
+    }
+
+    /**
+     * @return if all files were valid and merged
+     */
+    public boolean isSuccess()
+    {
+        return merged;
+    }
+
+    /**
+     * @return if all files were valid
+     */
+    public boolean isValid()
+    {
+        return files.stream().allMatch(f -> f.valid);
+    }
+
+    /**
+     * Report as map of jdk types, so it can be sent to clients
+     * @return map with success, fileName, pageCount, validateMs, mergeMs, levelMs, error (if any) and
+     * files (list of maps with fileName, valid, pageCount, selectedPages, durationMs and message)
+     */
+    public HashMap<String, Object> toMap()
+    {
+        var map = new HashMap<String, Object>();
+        map.put("success", merged);
+        map.put("fileName", target.getName());
+        map.put("pageCount", files.stream().mapToInt(f -> f.selectedPages).sum());
+        map.put("validateMs", validateMs);
+        map.put("mergeMs", mergeMs);
+        map.put("levelMs", new ArrayList<>(levelMs));
+        if (error != null)
+        {
+            map.put("error", error);
+        }
+        var fileMaps = new ArrayList<HashMap<String, Object>>();
+        for (var file : files)
+        {
+            fileMaps.add(file.toMap());
+        }
+        map.put("files", fileMaps);
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        var text = new StringBuilder(target.getName()).append(merged ? " merged" : " not merged")
+                .append(", validated in ").append(validateMs).append("ms, merged in ").append(mergeMs).append("ms ").append(levelMs);
+        if (error != null)
+        {
+            text.append(": ").append(error);
+        }
+        for (var file : files)
+        {
+            text.append("\n  ").append(file);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,14 @@
+package server.pdf;
+
+/**
+ * Thrown if a page range of a {@link PageSelection} is invalid or outside of its file, so pdftk would fail as well.
+ */
+public class PageRangeException extends IllegalArgumentException {
+
+    private final static long serialVersionUID = 1L;
+
+    public PageRangeException(String message)
+    {
+        super(message);
+    }
+}
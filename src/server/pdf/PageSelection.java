@@ -0,0 +1,142 @@
+package server.pdf;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Pages of one file to merge. Ranges are comma separated: "3" (single page), "2-5", "5-2" (reversed), "4-end" or "end".
+ * Pages are numbered from 1.
+ */
+public class PageSelection {
+
+    /**
+     * File name followed by '#' and ranges, like "scan.pdf#1-3,5"
+     */
+    private final static Pattern NameWithRanges = Pattern.compile("(?i)(.+\\.pdf)#([0-9end,\\- ]+)");
+
+    private final File file;
+
+    /**
+     * Ranges of pages, null for all pages
+     */
+    private final String ranges;
+
+    public PageSelection(File file, String ranges)
+    {
+        this.file = file;
+        this.ranges = ranges == null || ranges.isBlank() ? null : ranges.replace(" ", "");
+    }
+
+    /**
+     * Parse entry of a merge list. Entries are file names, optionally followed by '#' and ranges.
+     * A file actually named like that is taken as it is.
+     * @param directory directory of file
+     * @param entry entry like "scan.pdf" or "scan.pdf#2-3"
+     * @return selection
+     */
+    public static PageSelection parse(File directory, String entry)
+    {
+        var file = new File(directory, entry);
+        var matcher = NameWithRanges.matcher(entry);
+        if (!file.exists() && matcher.matches())
+        {
+            return new PageSelection(new File(directory, matcher.group(1)), matcher.group(2));
+        }
+        return new PageSelection(file, null);
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @return if all pages are selected
+     */
+    public boolean isAllPages()
+    {
+        return ranges == null;
+    }
+
+    /**
+     * Resolve ranges to page indexes
+     * @param pageCount number of pages of file
+     * @return indexes (from 0) in selected order
+     * @throws PageRangeException if a range is invalid or outside of the file
+     */
+    public List<Integer> getPageIndexes(int pageCount)
+    {
+        var indexes = new ArrayList<Integer>();
+        if (ranges == null)
+        {
+            for (var i = 0; i < pageCount; i++)
+            {
+                indexes.add(i);
+            }
+            return indexes;
+        }
+        for (var range : ranges.split(","))
+        {
+            var bounds = range.split("-", -1);
+            if (bounds.length > 2)
+            {
+                throw new PageRangeException("invalid range " + range + " for " + file.getName());
+            }
+            var first = parsePage(bounds[0], pageCount);
+            var last = bounds.length == 1 ? first : parsePage(bounds[1], pageCount);
+            var step = first <= last ? 1 : -1;
+            for (var page = first; page != last + step; page += step)
+            {
+                indexes.add(page - 1);
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Ranges in pdftk syntax
+     * @param handle pdftk handle of file, like "A"
+     * @return ranges like "A1-3 A5", just the handle for all pages
+     */
+    public String toPdftkRanges(String handle)
+    {
+        if (ranges == null)
+        {
+            return handle;
+        }
+        var pdftkRanges = new StringBuilder();
+        for (var range : ranges.split(","))
+        {
+            if (pdftkRanges.length() > 0)
+            {
+                pdftkRanges.append(' ');
+            }
+            pdftkRanges.append(handle).append(range);
+        }
+        return pdftkRanges.toString();
+    }
+
+    private int parsePage(String page, int pageCount)
+    {
+        int number;
+        try {
+            number = page.equals("end") ? pageCount : Integer.parseInt(page);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new PageRangeException("invalid page " + page + " for " + file.getName());
+        }
+        if (number < 1 || number > pageCount)
+        {
+            throw new PageRangeException("page " + page + " outside of " + file.getName() + " (" + pageCount + " pages)");
+        }
+        return number;
+    }
+
+    @Override
+    public String toString() {
+        return ranges == null ? file.getName() : file.getName() + "#" + ranges;
+    }
+}
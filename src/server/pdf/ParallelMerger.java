@@ -0,0 +1,274 @@
+package server.pdf;
+
+import server.helper.ServerConfigHelper;
+import server.helper.ThreadHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges large sets of pdfs using all cores.
+ * <p>
+ * All files are opened and checked in parallel first, so a broken file is reported before anything is merged.
+ * Then selections are split into one group per thread, the groups are merged into temporary files at the same time,
+ * and those are merged pairwise (pairs, then pairs of pairs) till the last merge writes the target.
+ * </p>
+ */
+public class ParallelMerger {
+
+    /**
+     * Merges selections into a file, like the in-process merge with pdftk fallback
+     */
+    public interface MergeFunction {
+
+        /**
+         * @return if merging succeeded
+         */
+        boolean merge(List<PageSelection> selections, File target) throws Exception;
+    }
+
+    /**
+     * Fewer selections are merged in one step, splitting them costs more than it saves
+     */
+    private final static int MinTreeSelections = 8;
+
+    /**
+     * Threads validating and merging. Slightly lower priority than request handling, like the converters.
+     */
+    private final static ExecutorService MergeExecutor = Executors.newFixedThreadPool(ServerConfigHelper.getMergeThreads(),
+            ThreadHelper.newThreadFactory("merger", Thread.NORM_PRIORITY - 1));
+
+    /**
+     * Validate files and merge them if all are valid
+     * @param selections files and their pages in the order they should appear
+     * @param target file to write
+     * @param mergeFunction merges one node of the tree
+     * @return report with result of every file, not merged if any file is invalid
+     * @throws InterruptedException if interrupted while waiting for validation or merge
+     */
+    public static MergeReport merge(List<PageSelection> selections, File target, MergeFunction mergeFunction) throws InterruptedException {
+        var report = new MergeReport(target);
+        var start = System.nanoTime();
+        validate(selections, report);
+        report.validateMs = toMs(System.nanoTime() - start);
+        if (!report.isValid())
+        {
+            report.error = "invalid files";
+            return report;
+        }
+        start = System.nanoTime();
+        try {
+            report.merged = mergeTree(selections, target, mergeFunction, report);
+            if (!report.merged)
+            {
+                report.error = "merge failed";
+            }
+        }
+        catch (InterruptedException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            report.error = e.toString();
+        }
+        report.mergeMs = toMs(System.nanoTime() - start);
+        return report;
+    }
+
+    /**
+     * Open every file once, in parallel, and check its page tree and selected ranges
+     */
+    private static void validate(List<PageSelection> selections, MergeReport report) throws InterruptedException {
+        var selectionsByFile = new LinkedHashMap<File, List<PageSelection>>();
+        for (var selection : selections)
+        {
+            selectionsByFile.computeIfAbsent(selection.getFile().getAbsoluteFile(), f -> new ArrayList<>()).add(selection);
+        }
+        var results = new ArrayList<Future<MergeReport.FileResult>>();
+        for (var entry : selectionsByFile.entrySet())
+        {
+            results.add(MergeExecutor.submit(() -> validate(entry.getKey(), entry.getValue())));
+        }
+        for (var result : results)
+        {
+            try {
+                report.files.add(result.get());
+            }
+            catch (ExecutionException e)
+            {
+                // validate catches everything, so this is a bug
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    private static MergeReport.FileResult validate(File file, List<PageSelection> selections)
+    {
+        var result = new MergeReport.FileResult(file.getName());
+        var start = System.nanoTime();
+        try {
+            if (!file.isFile())
+            {
+                result.message = "not found";
+            }
+            else if (ServerConfigHelper.getMergeEngine().equals("java"))
+            {
+                try (var document = PdfDocument.open(file))
+                {
+                    result.pageCount = document.getPages().size();
+                }
+                for (var selection : selections)
+                {
+                    result.selectedPages += selection.getPageIndexes(result.pageCount).size();
+                }
+                result.valid = true;
+            }
+            else
+            {
+                result.valid = hasPdfHeader(file);
+                result.message = result.valid ? "not checked, merged by pdftk" : "no pdf";
+            }
+        }
+        catch (UnsupportedPdfException e)
+        {
+            // can't check it, but pdftk may merge it
+            result.valid = true;
+            result.message = e.getMessage() + ", merged by pdftk";
+        }
+        catch (IOException | RuntimeException e)
+        {
+            result.message = e.getMessage() == null ? e.toString() : e.getMessage();
+        }
+        result.durationMs = toMs(System.nanoTime() - start);
+        return result;
+    }
+
+    private static boolean hasPdfHeader(File file) throws IOException {
+        try (var input = Files.newInputStream(file.toPath()))
+        {
+            return new String(input.readNBytes(5)).equals("%PDF-");
+        }
+    }
+
+    private static boolean mergeTree(List<PageSelection> selections, File target, MergeFunction mergeFunction, MergeReport report) throws Exception {
+        var threads = ServerConfigHelper.getMergeThreads();
+        if (threads < 2 || selections.size() < MinTreeSelections)
+        {
+            var start = System.nanoTime();
+            var merged = mergeFunction.merge(selections, target);
+            report.levelMs.add(toMs(System.nanoTime() - start));
+            return merged;
+        }
+        var tempDir = createTempDir();
+        try {
+            var groupSize = Math.max(2, (selections.size() + threads - 1) / threads);
+            var groups = new ArrayList<List<PageSelection>>();
+            for (var index = 0; index < selections.size(); index += groupSize)
+            {
+                groups.add(selections.subList(index, Math.min(selections.size(), index + groupSize)));
+            }
+            var level = 0;
+            while (groups.size() > 1)
+            {
+                var start = System.nanoTime();
+                var files = mergeLevel(groups, tempDir, level++, mergeFunction);
+                report.levelMs.add(toMs(System.nanoTime() - start));
+                if (files == null)
+                {
+                    return false;
+                }
+                groups = new ArrayList<>();
+                for (var index = 0; index < files.size(); index += 2)
+                {
+                    var group = new ArrayList<PageSelection>();
+                    for (var file : files.subList(index, Math.min(files.size(), index + 2)))
+                    {
+                        group.add(new PageSelection(file, null));
+                    }
+                    groups.add(group);
+                }
+            }
+            var start = System.nanoTime();
+            var merged = mergeFunction.merge(groups.get(0), target);
+            report.levelMs.add(toMs(System.nanoTime() - start));
+            return merged;
+        }
+        finally {
+            deleteTempDir(tempDir);
+        }
+    }
+
+    /**
+     * Merge every group into a temporary file, in parallel
+     * @return merged files in order of groups, null if any merge failed
+     */
+    private static List<File> mergeLevel(List<List<PageSelection>> groups, Path tempDir, int level, MergeFunction mergeFunction) throws Exception {
+        var merges = new ArrayList<Future<File>>();
+        for (var index = 0; index < groups.size(); index++)
+        {
+            var group = groups.get(index);
+            if (group.size() == 1 && group.get(0).isAllPages())
+            {
+                // left over of odd count, taken to next level as it is
+                var file = group.get(0).getFile();
+                merges.add(CompletableFuture.completedFuture(file));
+                continue;
+            }
+            var file = tempDir.resolve(level + "-" + index + ".pdf").toFile();
+            merges.add(MergeExecutor.submit(() -> mergeFunction.merge(group, file) ? file : null));
+        }
+        // wait for all merges, even if one failed, since they write into the temp dir
+        var files = new ArrayList<File>();
+        Exception error = null;
+        for (var merge : merges)
+        {
+            try {
+                files.add(merge.get());
+            }
+            catch (ExecutionException e)
+            {
+                files.add(null);
+                if (error == null && e.getCause() instanceof Exception)
+                {
+                    error = (Exception) e.getCause();
+                }
+            }
+        }
+        if (error != null)
+        {
+            throw error;
+        }
+        return files.contains(null) ? null : files;
+    }
+
+    private static Path createTempDir() throws IOException {
+        var tempDir = ServerConfigHelper.getScanTempDir();
+        return tempDir == null ? Files.createTempDirectory("merge") : Files.createTempDirectory(Paths.get(tempDir), "merge");
+    }
+
+    private static void deleteTempDir(Path tempDir) throws IOException {
+        try (var paths = Files.walk(tempDir))
+        {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private static long toMs(long nanos)
+    {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
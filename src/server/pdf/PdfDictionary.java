@@ -0,0 +1,21 @@
+package server.pdf;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Pdf dictionary, keys are names without slash in the order they were read
+ */
+public class PdfDictionary extends LinkedHashMap<String, Object> {
+
+    private final static long serialVersionUID = 1L;
+
+    /**
+     * @param key key to check
+     * @param name expected name, like "Pages"
+     * @return if value of key is given name
+     */
+    public boolean isName(String key, String name)
+    {
+        return new PdfName(name).equals(get(key));
+    }
+}
@@ -0,0 +1,625 @@
+package server.pdf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Pdf file opened for copying its pages. Only the cross reference table is read up front,
+ * objects are read when requested and stream data is never loaded (except object and xref streams, which are small).
+ * <p>
+ * Supports classic xref tables, xref streams, object streams and incremental updates.
+ * Encrypted files and filters other than FlateDecode for xref and object streams throw {@link UnsupportedPdfException}.
+ * </p>
+ */
+class PdfDocument implements Closeable {
+
+    /**
+     * Attributes pages inherit from their page tree nodes
+     */
+    final static String[] InheritedAttributes = { "Resources", "MediaBox", "CropBox", "Rotate" };
+
+    /**
+     * Maximum size of decoded object and xref streams
+     */
+    private final static int MaxDecodedSize = 64 * 1024 * 1024;
+
+    /**
+     * Location of an object: in file at offset (type 1) or in object stream (type 2)
+     */
+    private static class XrefEntry {
+
+        final int type;
+
+        /**
+         * Offset in file or number of object stream
+         */
+        final long offset;
+
+        /**
+         * Index in object stream
+         */
+        final int index;
+
+        XrefEntry(int type, long offset, int index)
+        {
+            this.type = type;
+            this.offset = offset;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Page with the attributes it inherits
+     */
+    static class Page {
+
+        final PdfRef ref;
+
+        /**
+         * Inherited attributes not set on the page itself
+         */
+        final Map<String, Object> inherited;
+
+        Page(PdfRef ref, Map<String, Object> inherited)
+        {
+            this.ref = ref;
+            this.inherited = inherited;
+        }
+    }
+
+    private final File file;
+
+    private final FileChannel channel;
+
+    private final PdfParser parser;
+
+    private final Map<Integer, XrefEntry> xref = new HashMap<>();
+
+    private final PdfDictionary trailer;
+
+    private final String version;
+
+    /**
+     * Last object stream used, objects of one stream are usually needed together
+     */
+    private int objectStreamNumber = -1;
+
+    private PdfParser objectStreamParser;
+
+    /**
+     * Offsets of objects in last object stream, relative to its data
+     */
+    private long[] objectStreamOffsets;
+
+    private PdfDocument(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            this.parser = new PdfParser(new PdfInput(channel));
+            this.version = readVersion();
+            this.trailer = readXref();
+            if (trailer.containsKey("Encrypt"))
+            {
+                throw new UnsupportedPdfException(file.getName() + " is encrypted");
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open pdf and read its cross references
+     * @param file pdf file
+     * @return opened document, has to be closed
+     * @throws IOException if file is no readable pdf
+     */
+    static PdfDocument open(File file) throws IOException {
+        return new PdfDocument(file);
+    }
+
+    File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @return version of header, like "1.4"
+     */
+    String getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Check if object exists, references to missing objects are the same as null
+     */
+    boolean exists(PdfRef ref)
+    {
+        var entry = xref.get(ref.getNumber());
+        return entry != null && entry.type != 0;
+    }
+
+    /**
+     * Read object
+     * @param ref reference to object
+     * @return object, {@link PdfStream} for streams, {@link PdfRaw#Null} if it doesn't exist
+     * @throws IOException if object can't be read
+     */
+    Object getObject(PdfRef ref) throws IOException {
+        var entry = xref.get(ref.getNumber());
+        if (entry == null || entry.type == 0)
+        {
+            return PdfRaw.Null;
+        }
+        if (entry.type == 1)
+        {
+            return parser.readIndirectObject(entry.offset, ref.getNumber());
+        }
+        return readFromObjectStream((int) entry.offset, entry.index);
+    }
+
+    /**
+     * Resolve value if it is a reference
+     */
+    Object resolve(Object value) throws IOException {
+        var visited = 0;
+        while (value instanceof PdfRef)
+        {
+            if (++visited > 32)
+            {
+                throw new IOException("reference chain too long in " + file.getName());
+            }
+            value = getObject((PdfRef) value);
+        }
+        return value;
+    }
+
+    /**
+     * Resolve value, which has to be a dictionary (or a stream, whose dictionary is returned)
+     */
+    PdfDictionary resolveDictionary(Object value) throws IOException {
+        var resolved = resolve(value);
+        if (resolved instanceof PdfStream)
+        {
+            return ((PdfStream) resolved).getDictionary();
+        }
+        if (!(resolved instanceof PdfDictionary))
+        {
+            throw new IOException("expected dictionary but found " + resolved + " in " + file.getName());
+        }
+        return (PdfDictionary) resolved;
+    }
+
+    long resolveLong(Object value) throws IOException {
+        var resolved = resolve(value);
+        if (!(resolved instanceof PdfRaw))
+        {
+            throw new IOException("expected number but found " + resolved + " in " + file.getName());
+        }
+        try {
+            return ((PdfRaw) resolved).asLong();
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IOException("expected integer but found " + resolved + " in " + file.getName());
+        }
+    }
+
+    /**
+     * Pages in order, with the attributes they inherit from the page tree
+     * @return pages
+     * @throws IOException if page tree is broken
+     */
+    List<Page> getPages() throws IOException {
+        var catalog = resolveDictionary(trailer.get("Root"));
+        var pages = new ArrayList<Page>();
+        collectPages(catalog.get("Pages"), new HashMap<>(), pages, new HashSet<>());
+        return pages;
+    }
+
+    private void collectPages(Object node, Map<String, Object> inherited, List<Page> pages, Set<PdfRef> visited) throws IOException {
+        if (!(node instanceof PdfRef))
+        {
+            throw new IOException("page tree node is no reference in " + file.getName());
+        }
+        var ref = (PdfRef) node;
+        if (!visited.add(ref))
+        {
+            throw new IOException("page tree contains a cycle in " + file.getName());
+        }
+        var dictionary = resolveDictionary(ref);
+        var kids = resolve(dictionary.get("Kids"));
+        if (dictionary.isName("Type", "Pages") || (kids instanceof List && !dictionary.isName("Type", "Page")))
+        {
+            var nodeInherited = new HashMap<>(inherited);
+            for (var attribute : InheritedAttributes)
+            {
+                if (dictionary.containsKey(attribute))
+                {
+                    nodeInherited.put(attribute, dictionary.get(attribute));
+                }
+            }
+            if (kids instanceof List)
+            {
+                for (var kid : (List<?>) kids)
+                {
+                    collectPages(kid, nodeInherited, pages, visited);
+                }
+            }
+            return;
+        }
+        var pageInherited = new HashMap<String, Object>();
+        inherited.forEach((attribute, value) -> {
+            if (!dictionary.containsKey(attribute))
+            {
+                pageInherited.put(attribute, value);
+            }
+        });
+        pages.add(new Page(ref, pageInherited));
+    }
+
+    /**
+     * Length of stream data
+     */
+    long getStreamLength(PdfStream stream) throws IOException {
+        return resolveLong(stream.getDictionary().get("Length"));
+    }
+
+    /**
+     * Copy raw (still encoded) data of stream
+     */
+    void copyStreamData(PdfStream stream, OutputStream output) throws IOException {
+        parser.getInput().copyTo(stream.getDataOffset(), getStreamLength(stream), output);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private String readVersion() throws IOException {
+        var input = parser.getInput();
+        input.seek(0);
+        var header = new String(input.readBytes((int) Math.min(16, input.length())), StandardCharsets.ISO_8859_1);
+        if (!header.startsWith("%PDF-") || header.length() < 8)
+        {
+            throw new IOException(file.getName() + " is no pdf");
+        }
+        return header.substring(5, 8);
+    }
+
+    /**
+     * Read all cross reference sections, newest first
+     * @return trailer of newest section
+     */
+    private PdfDictionary readXref() throws IOException {
+        var offset = findStartXref();
+        PdfDictionary newestTrailer = null;
+        var visited = new HashSet<Long>();
+        while (offset >= 0 && visited.add(offset))
+        {
+            var sectionTrailer = readXrefSection(offset);
+            if (newestTrailer == null)
+            {
+                newestTrailer = sectionTrailer;
+            }
+            var previous = sectionTrailer.get("Prev");
+            offset = previous == null ? -1 : resolveLong(previous);
+        }
+        if (newestTrailer == null || !newestTrailer.containsKey("Root"))
+        {
+            throw new IOException("no trailer with root in " + file.getName());
+        }
+        return newestTrailer;
+    }
+
+    private long findStartXref() throws IOException {
+        var input = parser.getInput();
+        var tailLength = (int) Math.min(1024, input.length());
+        input.seek(input.length() - tailLength);
+        var tail = new String(input.readBytes(tailLength), StandardCharsets.ISO_8859_1);
+        var index = tail.lastIndexOf("startxref");
+        if (index < 0)
+        {
+            throw new IOException("no startxref in " + file.getName());
+        }
+        input.seek(input.length() - tailLength + index + "startxref".length());
+        return parser.readInteger();
+    }
+
+    /**
+     * Read one cross reference section (table or stream). Entries of newer sections are kept.
+     * @return trailer of section
+     */
+    private PdfDictionary readXrefSection(long offset) throws IOException {
+        parser.getInput().seek(offset);
+        if (!parser.peekKeyword("xref"))
+        {
+            var section = new HashMap<Integer, XrefEntry>();
+            var dictionary = readXrefStream(offset, section);
+            section.forEach(xref::putIfAbsent);
+            return dictionary;
+        }
+        parser.readKeyword();
+        var section = new HashMap<Integer, XrefEntry>();
+        while (!parser.peekKeyword("trailer"))
+        {
+            var start = parser.readInteger();
+            var count = parser.readInteger();
+            for (var i = 0; i < count; i++)
+            {
+                var entryOffset = parser.readInteger();
+                parser.readInteger();
+                var type = parser.readKeyword();
+                section.put((int) (start + i), new XrefEntry(type.equals("n") ? 1 : 0, entryOffset, 0));
+            }
+        }
+        parser.readKeyword();
+        var sectionTrailer = parser.readObject();
+        if (!(sectionTrailer instanceof PdfDictionary))
+        {
+            throw new IOException("trailer is no dictionary in " + file.getName());
+        }
+        var dictionary = (PdfDictionary) sectionTrailer;
+        if (dictionary.containsKey("XRefStm"))
+        {
+            // hybrid file: objects in object streams are only listed in the xref stream
+            var streamEntries = new HashMap<Integer, XrefEntry>();
+            readXrefStream(resolveLong(dictionary.get("XRefStm")), streamEntries);
+            streamEntries.forEach((number, entry) -> {
+                var tableEntry = section.get(number);
+                if (tableEntry == null || tableEntry.type == 0)
+                {
+                    section.put(number, entry);
+                }
+            });
+        }
+        section.forEach(xref::putIfAbsent);
+        return dictionary;
+    }
+
+    /**
+     * Read xref stream at offset into entries
+     * @return dictionary of stream, which is the trailer of its section
+     */
+    private PdfDictionary readXrefStream(long offset, Map<Integer, XrefEntry> entries) throws IOException {
+        var object = parser.readIndirectObject(offset, -1);
+        if (!(object instanceof PdfStream) || !((PdfStream) object).getDictionary().isName("Type", "XRef"))
+        {
+            throw new IOException("no xref at " + offset + " in " + file.getName());
+        }
+        var stream = (PdfStream) object;
+        var dictionary = stream.getDictionary();
+        var widths = toLongs(resolve(dictionary.get("W")));
+        if (widths.length != 3)
+        {
+            throw new IOException("invalid xref stream widths in " + file.getName());
+        }
+        var index = dictionary.containsKey("Index")
+                ? toLongs(resolve(dictionary.get("Index")))
+                : new long[] { 0, resolveLong(dictionary.get("Size")) };
+        var data = decodeStream(stream);
+        var position = 0;
+        for (var section = 0; section + 1 < index.length; section += 2)
+        {
+            for (var i = 0; i < index[section + 1]; i++)
+            {
+                if (position + widths[0] + widths[1] + widths[2] > data.length)
+                {
+                    throw new IOException("xref stream too short in " + file.getName());
+                }
+                var type = widths[0] == 0 ? 1 : readField(data, position, (int) widths[0]);
+                position += widths[0];
+                var field2 = readField(data, position, (int) widths[1]);
+                position += widths[1];
+                var field3 = readField(data, position, (int) widths[2]);
+                position += widths[2];
+                var number = (int) (index[section] + i);
+                if (type == 1 || type == 2)
+                {
+                    entries.putIfAbsent(number, new XrefEntry((int) type, field2, (int) field3));
+                }
+                else
+                {
+                    entries.putIfAbsent(number, new XrefEntry(0, 0, 0));
+                }
+            }
+        }
+        return dictionary;
+    }
+
+    private Object readFromObjectStream(int streamNumber, int index) throws IOException {
+        if (streamNumber != objectStreamNumber)
+        {
+            var object = getObject(new PdfRef(streamNumber, 0));
+            if (!(object instanceof PdfStream))
+            {
+                throw new IOException("object stream " + streamNumber + " missing in " + file.getName());
+            }
+            var stream = (PdfStream) object;
+            var count = (int) resolveLong(stream.getDictionary().get("N"));
+            var first = resolveLong(stream.getDictionary().get("First"));
+            var streamParser = new PdfParser(new PdfInput(decodeStream(stream)));
+            var offsets = new long[count];
+            for (var i = 0; i < count; i++)
+            {
+                streamParser.readInteger();
+                offsets[i] = first + streamParser.readInteger();
+            }
+            objectStreamNumber = streamNumber;
+            objectStreamParser = streamParser;
+            objectStreamOffsets = offsets;
+        }
+        if (index < 0 || index >= objectStreamOffsets.length)
+        {
+            throw new IOException("invalid index " + index + " in object stream " + streamNumber + " of " + file.getName());
+        }
+        objectStreamParser.getInput().seek(objectStreamOffsets[index]);
+        return objectStreamParser.readObject();
+    }
+
+    /**
+     * Decode data of xref or object stream
+     */
+    private byte[] decodeStream(PdfStream stream) throws IOException {
+        var dictionary = stream.getDictionary();
+        var length = getStreamLength(stream);
+        if (length > MaxDecodedSize)
+        {
+            throw new UnsupportedPdfException("stream of " + length + " bytes in " + file.getName());
+        }
+        var input = parser.getInput();
+        input.seek(stream.getDataOffset());
+        var data = input.readBytes((int) length);
+        var filter = resolve(dictionary.get("Filter"));
+        if (filter instanceof List && ((List<?>) filter).size() == 1)
+        {
+            filter = resolve(((List<?>) filter).get(0));
+        }
+        if (filter == null || filter == PdfRaw.Null)
+        {
+            return data;
+        }
+        if (!new PdfName("FlateDecode").equals(filter))
+        {
+            throw new UnsupportedPdfException("filter " + filter + " in " + file.getName());
+        }
+        var decoded = new ByteArrayOutputStream();
+        try (var inflater = new InflaterInputStream(new ByteArrayInputStream(data)))
+        {
+            var buffer = new byte[8192];
+            int read;
+            while ((read = inflater.read(buffer)) > 0)
+            {
+                decoded.write(buffer, 0, read);
+                if (decoded.size() > MaxDecodedSize)
+                {
+                    throw new UnsupportedPdfException("decoded stream too big in " + file.getName());
+                }
+            }
+        }
+        var parameters = resolve(dictionary.get("DecodeParms"));
+        if (parameters instanceof List && ((List<?>) parameters).size() == 1)
+        {
+            parameters = resolve(((List<?>) parameters).get(0));
+        }
+        if (parameters instanceof PdfDictionary)
+        {
+            return removePredictor(decoded.toByteArray(), (PdfDictionary) parameters);
+        }
+        return decoded.toByteArray();
+    }
+
+    /**
+     * Undo png predictors, which xref streams usually use
+     */
+    private byte[] removePredictor(byte[] data, PdfDictionary parameters) throws IOException {
+        var predictor = parameters.containsKey("Predictor") ? resolveLong(parameters.get("Predictor")) : 1;
+        if (predictor == 1)
+        {
+            return data;
+        }
+        if (predictor < 10)
+        {
+            throw new UnsupportedPdfException("tiff predictor in " + file.getName());
+        }
+        var colors = parameters.containsKey("Colors") ? (int) resolveLong(parameters.get("Colors")) : 1;
+        var bitsPerComponent = parameters.containsKey("BitsPerComponent") ? (int) resolveLong(parameters.get("BitsPerComponent")) : 8;
+        var columns = parameters.containsKey("Columns") ? (int) resolveLong(parameters.get("Columns")) : 1;
+        var bytesPerPixel = Math.max(1, colors * bitsPerComponent / 8);
+        var rowLength = (columns * colors * bitsPerComponent + 7) / 8;
+        var output = new ByteArrayOutputStream(data.length);
+        var previous = new byte[rowLength];
+        for (var position = 0; position + rowLength < data.length; position += rowLength + 1)
+        {
+            var filter = data[position];
+            var row = new byte[rowLength];
+            System.arraycopy(data, position + 1, row, 0, rowLength);
+            for (var i = 0; i < rowLength; i++)
+            {
+                var left = i >= bytesPerPixel ? row[i - bytesPerPixel] & 0xFF : 0;
+                var up = previous[i] & 0xFF;
+                var upLeft = i >= bytesPerPixel ? previous[i - bytesPerPixel] & 0xFF : 0;
+                int prediction;
+                switch (filter)
+                {
+                    case 0:
+                        prediction = 0;
+                        break;
+                    case 1:
+                        prediction = left;
+                        break;
+                    case 2:
+                        prediction = up;
+                        break;
+                    case 3:
+                        prediction = (left + up) / 2;
+                        break;
+                    case 4:
+                        prediction = paeth(left, up, upLeft);
+                        break;
+                    default:
+                        throw new IOException("invalid png filter " + filter + " in " + file.getName());
+                }
+                row[i] = (byte) (row[i] + prediction);
+            }
+            output.write(row);
+            previous = row;
+        }
+        return output.toByteArray();
+    }
+
+    private static int paeth(int left, int up, int upLeft)
+    {
+        var estimate = left + up - upLeft;
+        var distanceLeft = Math.abs(estimate - left);
+        var distanceUp = Math.abs(estimate - up);
+        var distanceUpLeft = Math.abs(estimate - upLeft);
+        if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft)
+        {
+            return left;
+        }
+        return distanceUp <= distanceUpLeft ? up : upLeft;
+    }
+
+    private static long readField(byte[] data, int position, int width)
+    {
+        long value = 0;
+        for (var i = 0; i < width; i++)
+        {
+            value = (value << 8) | (data[position + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private long[] toLongs(Object array) throws IOException {
+        if (!(array instanceof List))
+        {
+            throw new IOException("expected array but found " + array + " in " + file.getName());
+        }
+        var list = (List<?>) array;
+        var values = new long[list.size()];
+        for (var i = 0; i < values.length; i++)
+        {
+            values[i] = resolveLong(list.get(i));
+        }
+        return values;
+    }
+}
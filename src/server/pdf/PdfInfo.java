@@ -0,0 +1,24 @@
+package server.pdf;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Information about pdfs, read without an external tool.
+ */
+public class PdfInfo {
+
+    /**
+     * Count pages of pdf
+     * @param file pdf file
+     * @return number of pages
+     * @throws UnsupportedPdfException if the pdf can't be read in process (like encrypted ones)
+     * @throws IOException if file is no readable pdf
+     */
+    public static int getPageCount(File file) throws IOException {
+        try (var document = PdfDocument.open(file))
+        {
+            return document.getPages().size();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package server.pdf;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Random access to the bytes of a pdf, read through a small buffer so only the parts needed are loaded.
+ * Also used for decoded object streams, which are in memory already.
+ */
+class PdfInput {
+
+    private final static int BufferSize = 16 * 1024;
+
+    /**
+     * File to read from, null if data is in memory
+     */
+    private final FileChannel channel;
+
+    private final long length;
+
+    private final byte[] buffer;
+
+    /**
+     * Position of first byte of buffer
+     */
+    private long bufferStart;
+
+    private int bufferLength;
+
+    private long position;
+
+    PdfInput(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.length = channel.size();
+        this.buffer = new byte[BufferSize];
+    }
+
+    PdfInput(byte[] data)
+    {
+        this.channel = null;
+        this.length = data.length;
+        this.buffer = data;
+        this.bufferLength = data.length;
+    }
+
+    long length()
+    {
+        return length;
+    }
+
+    long position()
+    {
+        return position;
+    }
+
+    void seek(long position)
+    {
+        this.position = position;
+    }
+
+    /**
+     * @return next byte without consuming it, -1 at end
+     */
+    int peek() throws IOException {
+        if (position >= length)
+        {
+            return -1;
+        }
+        if (position < bufferStart || position >= bufferStart + bufferLength)
+        {
+            fill();
+        }
+        return buffer[(int) (position - bufferStart)] & 0xFF;
+    }
+
+    /**
+     * @return next byte, -1 at end
+     */
+    int read() throws IOException {
+        var value = peek();
+        if (value >= 0)
+        {
+            position++;
+        }
+        return value;
+    }
+
+    /**
+     * Read bytes at current position
+     * @param count number of bytes
+     * @return bytes
+     * @throws EOFException if there are less bytes left
+     */
+    byte[] readBytes(int count) throws IOException {
+        if (count < 0 || position + count > length)
+        {
+            throw new EOFException("can't read " + count + " bytes at " + position);
+        }
+        var bytes = new byte[count];
+        for (var i = 0; i < count; i++)
+        {
+            bytes[i] = (byte) read();
+        }
+        return bytes;
+    }
+
+    /**
+     * Copy bytes to output without loading them all
+     * @param offset position of first byte
+     * @param count number of bytes
+     * @param output stream to copy to
+     */
+    void copyTo(long offset, long count, OutputStream output) throws IOException {
+        if (offset < 0 || offset + count > length)
+        {
+            throw new EOFException("can't copy " + count + " bytes at " + offset);
+        }
+        if (channel == null)
+        {
+            output.write(buffer, (int) offset, (int) count);
+            return;
+        }
+        var chunk = ByteBuffer.allocate(64 * 1024);
+        var position = offset;
+        var end = offset + count;
+        while (position < end)
+        {
+            chunk.clear();
+            chunk.limit((int) Math.min(chunk.capacity(), end - position));
+            var read = channel.read(chunk, position);
+            if (read < 0)
+            {
+                throw new EOFException("file shrank while copying");
+            }
+            output.write(chunk.array(), 0, read);
+            position += read;
+        }
+    }
+
+    private void fill() throws IOException {
+        if (channel == null)
+        {
+            throw new EOFException("position " + position + " outside of data");
+        }
+        bufferStart = position;
+        var target = ByteBuffer.wrap(buffer);
+        while (target.hasRemaining() && bufferStart + target.position() < length)
+        {
+            if (channel.read(target, bufferStart + target.position()) < 0)
+            {
+                break;
+            }
+        }
+        bufferLength = target.position();
+        if (bufferLength == 0)
+        {
+            throw new EOFException("can't read at " + position);
+        }
+    }
+}
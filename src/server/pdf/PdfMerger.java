@@ -0,0 +1,274 @@
+package server.pdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges pdfs in process, so no external tool has to be started.
+ * <p>
+ * Selected pages are copied one after another into a new page tree. Everything a page references (resources, fonts,
+ * images, annotations) is copied once per source file, reading one object at a time and copying stream data in chunks,
+ * so memory depends on the number of objects, not on the size of the files. References to pages that aren't copied
+ * (like links) become null. Document level data (outlines, forms, names) is not copied, like with "pdftk cat".
+ * </p>
+ */
+public class PdfMerger {
+
+    /**
+     * Page attributes dropped when copying, since they point to document level structures that are not copied
+     */
+    private final static String[] DroppedPageAttributes = { "Parent", "B" };
+
+    private final PdfWriter writer;
+
+    private final int catalogNumber;
+
+    private final int pagesNumber;
+
+    /**
+     * Objects waiting to be copied
+     */
+    private final ArrayDeque<PendingCopy> pending = new ArrayDeque<>();
+
+    private static class PendingCopy {
+
+        final SourceFile source;
+
+        final PdfRef ref;
+
+        final int number;
+
+        PendingCopy(SourceFile source, PdfRef ref, int number)
+        {
+            this.source = source;
+            this.ref = ref;
+            this.number = number;
+        }
+    }
+
+    /**
+     * Opened file with numbers of its objects in the merged file
+     */
+    private static class SourceFile {
+
+        final PdfDocument document;
+
+        final List<PdfDocument.Page> pages;
+
+        /**
+         * New numbers by object key of this file
+         */
+        final Map<Long, Integer> numbers = new HashMap<>();
+
+        /**
+         * New number of first copy of page by page key, pages not copied are missing
+         */
+        final Map<Long, Integer> pageNumbers = new HashMap<>();
+
+        /**
+         * Keys of all pages of file
+         */
+        final Map<Long, PdfDocument.Page> pagesByKey = new HashMap<>();
+
+        SourceFile(PdfDocument document) throws IOException {
+            this.document = document;
+            this.pages = document.getPages();
+            for (var page : pages)
+            {
+                pagesByKey.put(page.ref.getKey(), page);
+            }
+        }
+    }
+
+    private PdfMerger(PdfWriter writer)
+    {
+        this.writer = writer;
+        this.catalogNumber = writer.allocate();
+        this.pagesNumber = writer.allocate();
+    }
+
+    /**
+     * Merge pages of files into target file
+     * @param selections files and their pages in the order they should appear
+     * @param target file to write, overwritten if it exists, deleted if merging fails
+     * @return number of pages of merged file
+     * @throws UnsupportedPdfException if a file uses features not supported, pdftk should be used instead
+     * @throws IOException if a file can't be read or target can't be written
+     * @throws PageRangeException if a selected page doesn't exist
+     */
+    public static int merge(List<PageSelection> selections, File target) throws IOException {
+        var sources = new LinkedHashMap<File, SourceFile>();
+        try {
+            var version = "1.4";
+            for (var selection : selections)
+            {
+                var file = selection.getFile().getAbsoluteFile();
+                if (!sources.containsKey(file))
+                {
+                    var source = new SourceFile(PdfDocument.open(file));
+                    sources.put(file, source);
+                    if (source.document.getVersion().compareTo(version) > 0)
+                    {
+                        version = source.document.getVersion();
+                    }
+                }
+            }
+            for (var selection : selections)
+            {
+                // check ranges before anything is written
+                selection.getPageIndexes(sources.get(selection.getFile().getAbsoluteFile()).pages.size());
+            }
+            try (var writer = new PdfWriter(target, version))
+            {
+                var merger = new PdfMerger(writer);
+                return merger.copyPages(selections, sources);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                if (target.exists() && !target.delete())
+                {
+                    target.deleteOnExit();
+                }
+                throw e;
+            }
+        }
+        finally {
+            for (var source : sources.values())
+            {
+                source.document.close();
+            }
+        }
+    }
+
+    private int copyPages(List<PageSelection> selections, Map<File, SourceFile> sources) throws IOException {
+        // numbers of all pages first, so links to later pages can be kept
+        var pageCopies = new ArrayList<PendingCopy>();
+        for (var selection : selections)
+        {
+            var source = sources.get(selection.getFile().getAbsoluteFile());
+            for (var index : selection.getPageIndexes(source.pages.size()))
+            {
+                var page = source.pages.get(index);
+                var number = writer.allocate();
+                source.pageNumbers.putIfAbsent(page.ref.getKey(), number);
+                pageCopies.add(new PendingCopy(source, page.ref, number));
+            }
+        }
+        var kids = new ArrayList<Object>();
+        for (var pageCopy : pageCopies)
+        {
+            copyPage(pageCopy);
+            kids.add(new PdfRef(pageCopy.number, 0));
+            // copy what the page needs before the next page, so the queue stays short
+            copyPending();
+        }
+        var pages = new PdfDictionary();
+        pages.put("Type", new PdfName("Pages"));
+        pages.put("Kids", kids);
+        pages.put("Count", new PdfRaw(String.valueOf(kids.size())));
+        writer.writeObject(pagesNumber, pages);
+        var catalog = new PdfDictionary();
+        catalog.put("Type", new PdfName("Catalog"));
+        catalog.put("Pages", new PdfRef(pagesNumber, 0));
+        writer.writeObject(catalogNumber, catalog);
+        writer.finish(catalogNumber);
+        return kids.size();
+    }
+
+    private void copyPage(PendingCopy pageCopy) throws IOException {
+        var source = pageCopy.source;
+        var page = source.pagesByKey.get(pageCopy.ref.getKey());
+        var original = source.document.resolveDictionary(page.ref);
+        var copy = new PdfDictionary();
+        copy.putAll(original);
+        for (var attribute : DroppedPageAttributes)
+        {
+            copy.remove(attribute);
+        }
+        copy.putAll(page.inherited);
+        var remapped = (PdfDictionary) remap(source, copy);
+        remapped.put("Parent", new PdfRef(pagesNumber, 0));
+        writer.writeObject(pageCopy.number, remapped);
+    }
+
+    private void copyPending() throws IOException {
+        while (!pending.isEmpty())
+        {
+            var copy = pending.poll();
+            var object = copy.source.document.getObject(copy.ref);
+            if (object instanceof PdfStream)
+            {
+                var stream = (PdfStream) object;
+                // length may be an indirect object, write it directly instead of copying that object
+                var length = copy.source.document.getStreamLength(stream);
+                var original = new PdfDictionary();
+                original.putAll(stream.getDictionary());
+                original.put("Length", new PdfRaw(String.valueOf(length)));
+                var dictionary = (PdfDictionary) remap(copy.source, original);
+                writer.beginObject(copy.number);
+                writer.writeValue(dictionary);
+                writer.write("\nstream\n");
+                copy.source.document.copyStreamData(stream, writer);
+                writer.write("\nendstream\nendobj\n");
+            }
+            else
+            {
+                writer.writeObject(copy.number, remap(copy.source, object));
+            }
+        }
+    }
+
+    /**
+     * Replace references by references to copies in merged file, queueing objects not copied yet
+     */
+    private Object remap(SourceFile source, Object value)
+    {
+        if (value instanceof PdfRef)
+        {
+            var ref = (PdfRef) value;
+            var key = ref.getKey();
+            if (source.pagesByKey.containsKey(key))
+            {
+                var pageNumber = source.pageNumbers.get(key);
+                return pageNumber == null ? PdfRaw.Null : new PdfRef(pageNumber, 0);
+            }
+            if (!source.document.exists(ref))
+            {
+                return PdfRaw.Null;
+            }
+            var number = source.numbers.get(key);
+            if (number == null)
+            {
+                number = writer.allocate();
+                source.numbers.put(key, number);
+                pending.add(new PendingCopy(source, ref, number));
+            }
+            return new PdfRef(number, 0);
+        }
+        if (value instanceof PdfDictionary)
+        {
+            var copy = new PdfDictionary();
+            for (var entry : ((PdfDictionary) value).entrySet())
+            {
+                copy.put(entry.getKey(), remap(source, entry.getValue()));
+            }
+            return copy;
+        }
+        if (value instanceof List)
+        {
+            var copy = new ArrayList<>();
+            for (var element : (List<?>) value)
+            {
+                copy.add(remap(source, element));
+            }
+            return copy;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,34 @@
+package server.pdf;
+
+/**
+ * Pdf name like /Type, kept as written (without slash), so it can be written back unchanged.
+ */
+public class PdfName {
+
+    private final String name;
+
+    public PdfName(String name)
+    {
+        this.name = name;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof PdfName && ((PdfName) other).name.equals(name);
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "/" + name;
+    }
+}
@@ -0,0 +1,334 @@
+package server.pdf;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Reads pdf objects from a {@link PdfInput}.
+ * Arrays are read as ArrayList, dictionaries as {@link PdfDictionary}, everything not needed for merging as {@link PdfRaw}.
+ */
+class PdfParser {
+
+    private final PdfInput input;
+
+    PdfParser(PdfInput input)
+    {
+        this.input = input;
+    }
+
+    PdfInput getInput()
+    {
+        return input;
+    }
+
+    /**
+     * Read indirect object at offset, like "12 0 obj ... endobj"
+     * @param offset position of object
+     * @param number expected object number, negative to accept any
+     * @return object, {@link PdfStream} if it is a stream
+     * @throws IOException if there is no such object at offset
+     */
+    Object readIndirectObject(long offset, int number) throws IOException {
+        input.seek(offset);
+        var foundNumber = readInteger();
+        readInteger();
+        expectKeyword("obj");
+        if (number >= 0 && foundNumber != number)
+        {
+            throw new IOException("expected object " + number + " at " + offset + " but found " + foundNumber);
+        }
+        var object = readObject();
+        if (object instanceof PdfDictionary && peekKeyword("stream"))
+        {
+            readKeyword();
+            // keyword is followed by CRLF or LF, some writers only use CR
+            var c = input.read();
+            if (c == '\r' && input.peek() == '\n')
+            {
+                input.read();
+            }
+            return new PdfStream((PdfDictionary) object, input.position());
+        }
+        return object;
+    }
+
+    /**
+     * Read next object
+     * @return value, {@link PdfRef} for references
+     * @throws IOException if input is no valid object
+     */
+    Object readObject() throws IOException {
+        skipWhitespace();
+        var c = input.peek();
+        switch (c)
+        {
+            case -1:
+                throw new EOFException("object expected at end of input");
+            case '/':
+                input.read();
+                return new PdfName(readRegular());
+            case '<':
+                input.read();
+                if (input.peek() == '<')
+                {
+                    input.read();
+                    return readDictionary();
+                }
+                return readHexString();
+            case '(':
+                return readLiteralString();
+            case '[':
+                input.read();
+                return readArray();
+            default:
+                if (isNumberStart(c))
+                {
+                    return readNumberOrReference();
+                }
+                var keyword = readRegular();
+                if (keyword.equals("true") || keyword.equals("false") || keyword.equals("null"))
+                {
+                    return new PdfRaw(keyword);
+                }
+                throw new IOException("unexpected '" + (keyword.isEmpty() ? String.valueOf((char) c) : keyword) + "' at " + input.position());
+        }
+    }
+
+    /**
+     * Read keyword like "xref" or "trailer"
+     */
+    String readKeyword() throws IOException {
+        skipWhitespace();
+        return readRegular();
+    }
+
+    /**
+     * Check if next keyword is given one without consuming it
+     */
+    boolean peekKeyword(String keyword) throws IOException {
+        var start = input.position();
+        var found = readKeyword();
+        input.seek(start);
+        return found.equals(keyword);
+    }
+
+    void expectKeyword(String keyword) throws IOException {
+        var found = readKeyword();
+        if (!found.equals(keyword))
+        {
+            throw new IOException("expected " + keyword + " but found '" + found + "' at " + input.position());
+        }
+    }
+
+    /**
+     * Read integer
+     * @throws IOException if next token is no integer
+     */
+    long readInteger() throws IOException {
+        var token = readKeyword();
+        try {
+            return Long.parseLong(token);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IOException("expected integer but found '" + token + "' at " + input.position());
+        }
+    }
+
+    void skipWhitespace() throws IOException {
+        while (true)
+        {
+            var c = input.peek();
+            if (c == '%')
+            {
+                // comment till end of line
+                while (c != -1 && c != '\r' && c != '\n')
+                {
+                    input.read();
+                    c = input.peek();
+                }
+            }
+            else if (isWhitespace(c))
+            {
+                input.read();
+            }
+            else
+            {
+                return;
+            }
+        }
+    }
+
+    private PdfDictionary readDictionary() throws IOException {
+        var dictionary = new PdfDictionary();
+        while (true)
+        {
+            skipWhitespace();
+            if (input.peek() == '>')
+            {
+                input.read();
+                if (input.read() != '>')
+                {
+                    throw new IOException("expected >> at " + input.position());
+                }
+                return dictionary;
+            }
+            var key = readObject();
+            if (!(key instanceof PdfName))
+            {
+                throw new IOException("expected name as key but found " + key + " at " + input.position());
+            }
+            dictionary.put(((PdfName) key).getName(), readObject());
+        }
+    }
+
+    private ArrayList<Object> readArray() throws IOException {
+        var array = new ArrayList<>();
+        while (true)
+        {
+            skipWhitespace();
+            if (input.peek() == ']')
+            {
+                input.read();
+                return array;
+            }
+            array.add(readObject());
+        }
+    }
+
+    private PdfRaw readHexString() throws IOException {
+        var text = new StringBuilder("<");
+        int c;
+        do {
+            c = input.read();
+            if (c == -1)
+            {
+                throw new EOFException("unterminated hex string");
+            }
+            text.append((char) c);
+        } while (c != '>');
+        return new PdfRaw(text.toString());
+    }
+
+    private PdfRaw readLiteralString() throws IOException {
+        var text = new StringBuilder();
+        var depth = 0;
+        while (true)
+        {
+            var c = input.read();
+            if (c == -1)
+            {
+                throw new EOFException("unterminated string");
+            }
+            text.append((char) c);
+            if (c == '\\')
+            {
+                // escaped char, may be a parenthesis
+                var escaped = input.read();
+                if (escaped == -1)
+                {
+                    throw new EOFException("unterminated string");
+                }
+                text.append((char) escaped);
+            }
+            else if (c == '(')
+            {
+                depth++;
+            }
+            else if (c == ')' && --depth == 0)
+            {
+                return new PdfRaw(text.toString());
+            }
+        }
+    }
+
+    /**
+     * Read number, which is the start of a reference if followed by generation and R
+     */
+    private Object readNumberOrReference() throws IOException {
+        var number = readRegular();
+        if (!isUnsignedInteger(number))
+        {
+            return new PdfRaw(number);
+        }
+        var afterNumber = input.position();
+        skipWhitespace();
+        if (isNumberStart(input.peek()))
+        {
+            var generation = readRegular();
+            skipWhitespace();
+            if (isUnsignedInteger(generation) && input.peek() == 'R')
+            {
+                input.read();
+                var next = input.peek();
+                if (next == -1 || isWhitespace(next) || isDelimiter(next))
+                {
+                    return new PdfRef(toInt(number), toInt(generation));
+                }
+            }
+        }
+        input.seek(afterNumber);
+        return new PdfRaw(number);
+    }
+
+    /**
+     * Read chars till whitespace or delimiter
+     */
+    private String readRegular() throws IOException {
+        var text = new StringBuilder();
+        while (true)
+        {
+            var c = input.peek();
+            if (c == -1 || isWhitespace(c) || isDelimiter(c))
+            {
+                return text.toString();
+            }
+            text.append((char) input.read());
+        }
+    }
+
+    /**
+     * @param token unsigned integer of up to 10 digits
+     * @throws IOException if token doesn't fit in an int
+     */
+    private int toInt(String token) throws IOException {
+        var value = Long.parseLong(token);
+        if (value > Integer.MAX_VALUE)
+        {
+            throw new IOException("number " + token + " too large at " + input.position());
+        }
+        return (int) value;
+    }
+
+    private static boolean isUnsignedInteger(String token)
+    {
+        if (token.isEmpty() || token.length() > 10)
+        {
+            return false;
+        }
+        for (var i = 0; i < token.length(); i++)
+        {
+            if (!Character.isDigit(token.charAt(i)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNumberStart(int c)
+    {
+        return (c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.';
+    }
+
+    private static boolean isWhitespace(int c)
+    {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == 0;
+    }
+
+    private static boolean isDelimiter(int c)
+    {
+        return c == '(' || c == ')' || c == '<' || c == '>' || c == '[' || c == ']' || c == '{' || c == '}' || c == '/' || c == '%';
+    }
+}
@@ -0,0 +1,36 @@
+package server.pdf;
+
+/**
+ * Value that is copied as written: numbers, strings, booleans and null.
+ * Text is kept as iso-8859-1, so every byte survives.
+ */
+public class PdfRaw {
+
+    public final static PdfRaw Null = new PdfRaw("null");
+
+    private final String text;
+
+    public PdfRaw(String text)
+    {
+        this.text = text;
+    }
+
+    public String getText()
+    {
+        return text;
+    }
+
+    /**
+     * @return value as number
+     * @throws NumberFormatException if value is no integer
+     */
+    public long asLong()
+    {
+        return Long.parseLong(text);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
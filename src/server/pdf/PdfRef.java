@@ -0,0 +1,50 @@
+package server.pdf;
+
+/**
+ * Reference to an indirect object, like "12 0 R"
+ */
+public class PdfRef {
+
+    private final int number;
+
+    private final int generation;
+
+    public PdfRef(int number, int generation)
+    {
+        this.number = number;
+        this.generation = generation;
+    }
+
+    public int getNumber()
+    {
+        return number;
+    }
+
+    public int getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Number and generation in one value, for maps
+     */
+    long getKey()
+    {
+        return ((long) number << 16) | generation;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof PdfRef && ((PdfRef) other).number == number && ((PdfRef) other).generation == generation;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(getKey());
+    }
+
+    @Override
+    public String toString() {
+        return number + " " + generation + " R";
+    }
+}
@@ -0,0 +1,30 @@
+package server.pdf;
+
+/**
+ * Stream object. Only its dictionary is read, the data stays in the file and is copied from there.
+ */
+public class PdfStream {
+
+    private final PdfDictionary dictionary;
+
+    /**
+     * Position of first data byte in file
+     */
+    private final long dataOffset;
+
+    public PdfStream(PdfDictionary dictionary, long dataOffset)
+    {
+        this.dictionary = dictionary;
+        this.dataOffset = dataOffset;
+    }
+
+    public PdfDictionary getDictionary()
+    {
+        return dictionary;
+    }
+
+    public long getDataOffset()
+    {
+        return dataOffset;
+    }
+}
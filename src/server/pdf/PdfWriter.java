@@ -0,0 +1,142 @@
+package server.pdf;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a pdf object by object and remembers their offsets for the cross reference table.
+ */
+class PdfWriter extends OutputStream {
+
+    private final OutputStream output;
+
+    private long position;
+
+    /**
+     * Offsets by object number, index 0 is unused
+     */
+    private final List<Long> offsets = new ArrayList<>();
+
+    PdfWriter(File file, String version) throws IOException {
+        output = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+        offsets.add(0L);
+        write("%PDF-" + version + "\n");
+        // binary comment, so transfer programs treat the file as binary
+        write(new byte[] { '%', (byte) 0xE2, (byte) 0xE3, (byte) 0xCF, (byte) 0xD3, '\n' });
+    }
+
+    /**
+     * Reserve object number
+     * @return number of new object
+     */
+    int allocate()
+    {
+        offsets.add(-1L);
+        return offsets.size() - 1;
+    }
+
+    /**
+     * Write object with given number
+     * @param number number from {@link #allocate()}
+     * @param value value of object, not a stream
+     */
+    void writeObject(int number, Object value) throws IOException {
+        beginObject(number);
+        writeValue(value);
+        write("\nendobj\n");
+    }
+
+    /**
+     * Start object, has to be followed by its value and "endobj"
+     */
+    void beginObject(int number) throws IOException {
+        offsets.set(number, position);
+        write(number + " 0 obj\n");
+    }
+
+    void writeValue(Object value) throws IOException {
+        if (value instanceof PdfDictionary)
+        {
+            write("<<");
+            for (Map.Entry<String, Object> entry : ((PdfDictionary) value).entrySet())
+            {
+                write("/" + entry.getKey() + " ");
+                writeValue(entry.getValue());
+                write("\n");
+            }
+            write(">>");
+        }
+        else if (value instanceof List)
+        {
+            write("[");
+            var first = true;
+            for (var element : (List<?>) value)
+            {
+                if (!first)
+                {
+                    write(" ");
+                }
+                first = false;
+                writeValue(element);
+            }
+            write("]");
+        }
+        else if (value instanceof PdfName || value instanceof PdfRef || value instanceof PdfRaw)
+        {
+            write(value.toString());
+        }
+        else
+        {
+            throw new IOException("can't write " + value);
+        }
+    }
+
+    /**
+     * Write cross reference table and trailer, then close file
+     * @param rootNumber number of catalog
+     */
+    void finish(int rootNumber) throws IOException {
+        var xrefOffset = position;
+        write("xref\n0 " + offsets.size() + "\n");
+        write("0000000000 65535 f \n");
+        for (var i = 1; i < offsets.size(); i++)
+        {
+            var offset = offsets.get(i);
+            if (offset < 0)
+            {
+                throw new IOException("object " + i + " was never written");
+            }
+            write(String.format("%010d 00000 n \n", offset));
+        }
+        write("trailer\n<</Size " + offsets.size() + " /Root " + rootNumber + " 0 R>>\nstartxref\n" + xrefOffset + "\n%%EOF\n");
+        close();
+    }
+
+    void write(String text) throws IOException {
+        write(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        output.write(b);
+        position++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        output.write(b, off, len);
+        position += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+}
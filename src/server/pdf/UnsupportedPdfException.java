@@ -0,0 +1,16 @@
+package server.pdf;
+
+import java.io.IOException;
+
+/**
+ * Thrown if a pdf uses features the in-process merge doesn't handle (like encryption), so pdftk has to do it.
+ */
+public class UnsupportedPdfException extends IOException {
+
+    private final static long serialVersionUID = 1L;
+
+    public UnsupportedPdfException(String message)
+    {
+        super(message);
+    }
+}
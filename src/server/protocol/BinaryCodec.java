@@ -0,0 +1,229 @@
+package server.protocol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encoding of values for {@link ConnectionOptions#Binary} connections, used instead of java serialization.
+ * <p>
+ * Every value starts with a one byte tag followed by its data, all numbers are big endian:
+ * null, boolean (byte 0/1), int, long, string (int byte count, utf-8), string array (int count, strings),
+ * bytes (int count, raw bytes), map (int count, string key and value each) and list (int count, values).
+ * Only these types can be decoded, so a client can't make the server create arbitrary objects.
+ * Maps and lists may be nested up to {@link #MaxDepth} levels.
+ * </p>
+ */
+public class BinaryCodec {
+
+    public final static byte TagNull = 0;
+
+    public final static byte TagBoolean = 1;
+
+    public final static byte TagInt = 2;
+
+    public final static byte TagLong = 3;
+
+    public final static byte TagString = 4;
+
+    public final static byte TagStringArray = 5;
+
+    public final static byte TagBytes = 6;
+
+    public final static byte TagMap = 7;
+
+    public final static byte TagList = 8;
+
+    /**
+     * Maximum nesting of maps and lists, deeper values are rejected instead of overflowing the stack
+     */
+    public final static int MaxDepth = 32;
+
+    /**
+     * Write value with its tag
+     * @param output stream to write to
+     * @param value null, Boolean, Integer, Long, String, String[], byte[], Map, Collection or Object[]
+     * @throws IOException if writing failed
+     * @throws IllegalArgumentException if type of value is not supported
+     */
+    public static void writeValue(DataOutputStream output, Object value) throws IOException {
+        if (value == null)
+        {
+            output.writeByte(TagNull);
+        }
+        else if (value instanceof Boolean)
+        {
+            output.writeByte(TagBoolean);
+            output.writeBoolean((Boolean) value);
+        }
+        else if (value instanceof Integer)
+        {
+            output.writeByte(TagInt);
+            output.writeInt((Integer) value);
+        }
+        else if (value instanceof Long)
+        {
+            output.writeByte(TagLong);
+            output.writeLong((Long) value);
+        }
+        else if (value instanceof String)
+        {
+            output.writeByte(TagString);
+            writeString(output, (String) value);
+        }
+        else if (value instanceof String[])
+        {
+            var strings = (String[]) value;
+            output.writeByte(TagStringArray);
+            output.writeInt(strings.length);
+            for (var string : strings)
+            {
+                writeString(output, string);
+            }
+        }
+        else if (value instanceof byte[])
+        {
+            var bytes = (byte[]) value;
+            output.writeByte(TagBytes);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+        else if (value instanceof Map)
+        {
+            var map = (Map<?, ?>) value;
+            output.writeByte(TagMap);
+            output.writeInt(map.size());
+            for (var entry : map.entrySet())
+            {
+                writeString(output, String.valueOf(entry.getKey()));
+                writeValue(output, entry.getValue());
+            }
+        }
+        else if (value instanceof Collection || value instanceof Object[])
+        {
+            Collection<?> values = value instanceof Collection ? (Collection<?>) value : Arrays.asList((Object[]) value);
+            output.writeByte(TagList);
+            output.writeInt(values.size());
+            for (var element : values)
+            {
+                writeValue(output, element);
+            }
+        }
+        else
+        {
+            throw new IllegalArgumentException("can't encode " + value.getClass().getName());
+        }
+    }
+
+    /**
+     * Read value with its tag
+     * @param input stream of a frame in memory, so counts can be checked against the bytes left
+     * @return decoded value, maps are HashMaps, lists are ArrayLists
+     * @throws IOException if reading failed, tag is unknown or values are nested too deep
+     */
+    public static Object readValue(DataInputStream input) throws IOException {
+        return readValue(input, 0);
+    }
+
+    /**
+     * @param depth number of maps and lists the value is in
+     */
+    private static Object readValue(DataInputStream input, int depth) throws IOException {
+        var tag = input.readByte();
+        switch (tag)
+        {
+            case TagNull:
+                return null;
+            case TagBoolean:
+                return input.readBoolean();
+            case TagInt:
+                return input.readInt();
+            case TagLong:
+                return input.readLong();
+            case TagString:
+                return readString(input);
+            case TagStringArray:
+            {
+                var strings = new String[readCount(input)];
+                for (var i = 0; i < strings.length; i++)
+                {
+                    strings[i] = readString(input);
+                }
+                return strings;
+            }
+            case TagBytes:
+            {
+                var bytes = new byte[readCount(input)];
+                input.readFully(bytes);
+                return bytes;
+            }
+            case TagMap:
+            {
+                checkDepth(depth);
+                var count = readCount(input);
+                var map = new HashMap<String, Object>();
+                for (var i = 0; i < count; i++)
+                {
+                    map.put(readString(input), readValue(input, depth + 1));
+                }
+                return map;
+            }
+            case TagList:
+            {
+                checkDepth(depth);
+                var count = readCount(input);
+                var list = new ArrayList<>();
+                for (var i = 0; i < count; i++)
+                {
+                    list.add(readValue(input, depth + 1));
+                }
+                return list;
+            }
+            default:
+                throw new IOException("unknown tag " + tag);
+        }
+    }
+
+    private static void checkDepth(int depth) throws IOException {
+        if (depth >= MaxDepth)
+        {
+            throw new IOException("values nested deeper than " + MaxDepth + " levels");
+        }
+    }
+
+    /**
+     * Write string as int byte count followed by utf-8 bytes
+     */
+    public static void writeString(DataOutputStream output, String value) throws IOException {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Read string written by {@link #writeString(DataOutputStream, String)}
+     */
+    public static String readString(DataInputStream input) throws IOException {
+        var bytes = new byte[readCount(input)];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read count of following elements, which can't be more than the bytes left in the frame
+     */
+    private static int readCount(DataInputStream input) throws IOException {
+        var count = input.readInt();
+        if (count < 0 || count > input.available())
+        {
+            throw new IOException("invalid count " + count);
+        }
+        return count;
+    }
+}
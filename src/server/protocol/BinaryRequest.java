@@ -0,0 +1,149 @@
+package server.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Request read from a {@link ConnectionOptions#Binary} connection.
+ * Parameters are named like the fields of the IPackageData of the action (or like the parameters of an {@link ExtendedAction}).
+ */
+public class BinaryRequest {
+
+    private final int requestId;
+
+    private final String actionName;
+
+    private final Map<String, Object> parameters;
+
+    public BinaryRequest(int requestId, String actionName, Map<String, Object> parameters)
+    {
+        this.requestId = requestId;
+        this.actionName = actionName;
+        this.parameters = parameters;
+    }
+
+    /**
+     * Decode request frame: int request id, string action name and map of parameters
+     * @param frame bytes of frame without its length
+     * @return request
+     * @throws IOException if frame is malformed
+     */
+    public static BinaryRequest decode(byte[] frame) throws IOException {
+        var input = new DataInputStream(new ByteArrayInputStream(frame));
+        var requestId = input.readInt();
+        var actionName = BinaryCodec.readString(input);
+        var parameters = BinaryCodec.readValue(input);
+        if (!(parameters instanceof Map))
+        {
+            throw new IOException("parameters of " + actionName + " are no map");
+        }
+        @SuppressWarnings("unchecked")
+        var map = (Map<String, Object>) parameters;
+        return new BinaryRequest(requestId, actionName, map);
+    }
+
+    public int getRequestId()
+    {
+        return requestId;
+    }
+
+    public String getActionName()
+    {
+        return actionName;
+    }
+
+    /**
+     * Get parameter as string
+     * @param name name of parameter
+     * @return value or null if not set
+     */
+    public String getString(String name)
+    {
+        var value = parameters.get(name);
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Get required parameter
+     * @param name name of parameter
+     * @return value
+     * @throws IllegalArgumentException if not set
+     */
+    public String getRequiredString(String name)
+    {
+        var value = getString(name);
+        if (value == null || value.isEmpty())
+        {
+            throw new IllegalArgumentException("parameter " + name + " missing for " + actionName);
+        }
+        return value;
+    }
+
+    /**
+     * Get int parameter, sent as int or string
+     * @param name name of parameter
+     * @param defaultValue value if not set
+     * @return value or default
+     * @throws NumberFormatException if value is not a number
+     */
+    public int getInt(String name, int defaultValue)
+    {
+        var value = parameters.get(name);
+        if (value instanceof Integer)
+        {
+            return (Integer) value;
+        }
+        return value == null ? defaultValue : Integer.parseInt(value.toString().trim());
+    }
+
+    /**
+     * Get list parameter, sent as string array or list
+     * @param name name of parameter
+     * @return values, empty if not set
+     */
+    public List<String> getStrings(String name)
+    {
+        var value = parameters.get(name);
+        var strings = new ArrayList<String>();
+        if (value instanceof String[])
+        {
+            strings.addAll(List.of((String[]) value));
+        }
+        else if (value instanceof List)
+        {
+            ((List<?>) value).forEach(element -> strings.add(String.valueOf(element)));
+        }
+        else if (value != null)
+        {
+            strings.add(value.toString());
+        }
+        return strings;
+    }
+
+    /**
+     * Convert to extended request, for actions not part of ServerAction
+     * @return extended request with all parameters as strings
+     * @throws IllegalArgumentException if action is unknown
+     */
+    public ExtendedRequest toExtendedRequest()
+    {
+        var strings = new HashMap<String, String>();
+        parameters.forEach((name, value) -> {
+            if (value != null)
+            {
+                strings.put(name, ExtendedRequest.toParameter(value));
+            }
+        });
+        return new ExtendedRequest(ExtendedAction.valueOf(actionName), strings);
+    }
+
+    @Override
+    public String toString() {
+        return requestId + " " + actionName + " " + parameters.keySet();
+    }
+}
@@ -0,0 +1,126 @@
+package server.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+/**
+ * Options a client may enable for its connection.
+ * <p>
+ * Old clients just send their serialized request, so nothing changes for them.
+ * Newer clients may send a preamble first: the int {@link #Magic} followed by an int of option flags.
+ * Afterwards the request is sent like before. The preamble can't be mistaken for a request,
+ * since serialized data always starts with 0xACED.
+ * </p>
+ * <p>
+ * {@link #StreamFiles}: responses of StreamFile and GetUpdate are sent as a long with the file size
+ * (-1 if there's no file) followed by the raw file bytes instead of a serialized byte array.
+ * </p>
+ * <p>
+ * {@link #Ranges} (together with StreamFiles): the client sends long offset, long length (-1 for rest of file) and
+ * utf string of the checksum of the file it has already (empty if none) after its request.
+ * The response is long file size (-1 if there's no file), utf sha-256 checksum of the whole file (empty if the file is
+ * flagged corrupt, see {@link server.index.ContentIndex}), long offset, long count and count raw bytes.
+ * Count is 0 if the client has the file already.
+ * </p>
+ * <p>
+ * {@link #Session}: the connection carries many requests. Each request is preceded by an int request id (written to the
+ * object stream), each response starts with the id of its request followed by the response like above. Responses are
+ * sent in the order they finish and the object stream is reset after each of them. Failed actions answer null.
+ * </p>
+ * <p>
+ * {@link #Binary}: no java serialization at all, requests and responses are frames of {@link BinaryCodec}
+ * (see {@link server.BinaryConnection}). Other flags are ignored. The server sent the 4 byte object stream header before
+ * it read the preamble, clients skip it.
+ * </p>
+ */
+public class ConnectionOptions {
+
+    /**
+     * First bytes of preamble ("SCNP")
+     */
+    public final static int Magic = 0x53434E50;
+
+    /**
+     * Flag to send files raw instead of serialized
+     */
+    public final static int StreamFiles = 1;
+
+    /**
+     * Flag to request parts of files, requires {@link #StreamFiles}
+     */
+    public final static int Ranges = 2;
+
+    /**
+     * Flag to send multiple requests over one connection, see {@link server.ClientSession}
+     */
+    public final static int Session = 4;
+
+    /**
+     * Flag to use binary frames instead of java serialization
+     */
+    public final static int Binary = 8;
+
+    /**
+     * Options of clients not sending a preamble
+     */
+    public final static ConnectionOptions Legacy = new ConnectionOptions(0);
+
+    /**
+     * Enabled flags
+     */
+    private final int flags;
+
+    public ConnectionOptions(int flags)
+    {
+        this.flags = flags;
+    }
+
+    /**
+     * Read preamble if client sent one. Input is reset to the start of the request if not.
+     * @param input input of client, must support mark/reset
+     * @return options of connection, {@link #Legacy} if there's no preamble
+     * @throws IOException if reading failed
+     */
+    public static ConnectionOptions read(BufferedInputStream input) throws IOException {
+        input.mark(Integer.BYTES);
+        var dataInput = new DataInputStream(input);
+        int magic;
+        try {
+            magic = dataInput.readInt();
+        }
+        catch (SocketTimeoutException e)
+        {
+            // client sent nothing, waiting again for a legacy request would double the timeout
+            throw e;
+        }
+        catch (IOException e)
+        {
+            // too short for preamble, let deserialization report the error
+            input.reset();
+            return Legacy;
+        }
+        if (magic != Magic)
+        {
+            input.reset();
+            return Legacy;
+        }
+        return new ConnectionOptions(dataInput.readInt());
+    }
+
+    /**
+     * Check if flag is set
+     * @param flag flag to check, like {@link #StreamFiles}
+     * @return flag enabled or not
+     */
+    public boolean isEnabled(int flag)
+    {
+        return (flags & flag) == flag;
+    }
+
+    @Override
+    public String toString() {
+        return "flags " + Integer.toBinaryString(flags);
+    }
+}
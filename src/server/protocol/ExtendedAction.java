@@ -0,0 +1,73 @@
+package server.protocol;
+
+/**
+ * Actions served in addition to {@link data.ServerAction}.
+ * These are requested with an {@link ExtendedRequest}, since ServerAction is part of the shared ScanData package.
+ */
+public enum ExtendedAction {
+
+    /**
+     * Queue scan and return job id right away.
+     * Parameters: folderName (optional), chosenName, chosenOption (like Scan)
+     */
+    ScanAsync,
+
+    /**
+     * Queue scan of multiple pages merged into one file and return job id right away.
+     * Parameters: folderName (optional), chosenName, chosenOption, pageCount (optional, till feeder is empty if not set),
+     * source (optional, like "ADF")
+     */
+    BatchScan,
+
+    /**
+     * Return status of job as map (state, progress, stage durations, file name, error).
+     * Parameters: jobId
+     */
+    GetJobStatus,
+
+    /**
+     * Return resulting file of finished job like StreamFile, null if job is not done.
+     * Parameters: jobId
+     */
+    GetJobResult,
+
+    /**
+     * Cancel job, returns if job was found and not finished yet.
+     * Parameters: jobId
+     */
+    CancelJob,
+
+    /**
+     * Return metadata of latest apk as map (version, fileName, size, checksum), null if there is none.
+     * Lets clients skip GetUpdate if they have the apk already.
+     */
+    GetUpdateInfo,
+
+    /**
+     * Merge files like MergeFiles, but validate and merge them in parallel and return a report (map) with success,
+     * page count and timing of the merge and of every file. Nothing is merged if a file is invalid.
+     * Parameters: folderName (optional), filesToMerge (list, entries may select pages like "scan.pdf#1-3"), mergedFileName
+     */
+    MergeFilesReport,
+
+    /**
+     * Return jpeg preview of first page of a pdf like StreamFile. Previews are cached, new scans and merges get theirs
+     * in the background.
+     * Parameters: folderName (optional), fileName, size (optional, longer side in pixels, default 320)
+     */
+    GetPreview,
+
+    /**
+     * Return metadata of files as map: total, offset, columns ("name", "size", "modified", "pageCount") and files
+     * (array of string arrays in order of columns, modified in ms, pageCount -1 if not a readable pdf).
+     * Parameters: folderName (optional), sort (optional, "name", "size" or "modified"), descending (optional, "true"),
+     * offset (optional), limit (optional, all files if not set)
+     */
+    ReadFileInfos,
+
+    /**
+     * Return metrics in Prometheus text format as string: action, stage and serialization durations, bytes in and out,
+     * connections and jobs. No parameters
+     */
+    GetMetrics
+}
@@ -0,0 +1,145 @@
+package server.protocol;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Request for an {@link ExtendedAction}.
+ * <p>
+ * Clients send it as serialized map (like a HashMap) instead of an IPackageData, so only jdk classes are needed.
+ * The key "action" holds the name of the action, all other entries are its parameters.
+ * Values are read as strings, so numbers may be sent as Integer or String.
+ * </p>
+ */
+public class ExtendedRequest {
+
+    /**
+     * Key of action name
+     */
+    public final static String ActionKey = "action";
+
+    /**
+     * Separator of list values, lists sent by clients are joined with it
+     */
+    private final static String ListSeparator = "\n";
+
+    /**
+     * Requested action
+     */
+    private final ExtendedAction action;
+
+    /**
+     * Parameters of action
+     */
+    private final Map<String, String> parameters;
+
+    public ExtendedRequest(ExtendedAction action, Map<String, String> parameters)
+    {
+        this.action = action;
+        this.parameters = parameters;
+    }
+
+    /**
+     * Create request from map sent by client
+     * @param map map read from client
+     * @return request
+     * @throws IllegalArgumentException if action is missing or unknown
+     */
+    public static ExtendedRequest from(Map<?, ?> map)
+    {
+        var parameters = new HashMap<String, String>();
+        for (var entry : map.entrySet())
+        {
+            if (entry.getKey() != null && entry.getValue() != null)
+            {
+                parameters.put(entry.getKey().toString(), toParameter(entry.getValue()));
+            }
+        }
+        var actionName = parameters.remove(ActionKey);
+        if (actionName == null)
+        {
+            throw new IllegalArgumentException("request has no action");
+        }
+        return new ExtendedRequest(ExtendedAction.valueOf(actionName), parameters);
+    }
+
+    /**
+     * Convert value sent by client, lists and arrays are joined
+     */
+    public static String toParameter(Object value)
+    {
+        if (value instanceof Object[])
+        {
+            value = Arrays.asList((Object[]) value);
+        }
+        if (value instanceof Collection)
+        {
+            return ((Collection<?>) value).stream().map(String::valueOf).collect(Collectors.joining(ListSeparator));
+        }
+        return value.toString();
+    }
+
+    public ExtendedAction getAction()
+    {
+        return action;
+    }
+
+    /**
+     * Get parameter
+     * @param name name of parameter
+     * @return value or null if not set
+     */
+    public String getString(String name)
+    {
+        return parameters.get(name);
+    }
+
+    /**
+     * Get required parameter
+     * @param name name of parameter
+     * @return value
+     * @throws IllegalArgumentException if not set
+     */
+    public String getRequiredString(String name)
+    {
+        var value = parameters.get(name);
+        if (value == null || value.isEmpty())
+        {
+            throw new IllegalArgumentException("parameter " + name + " missing for " + action);
+        }
+        return value;
+    }
+
+    /**
+     * Get list parameter
+     * @param name name of parameter
+     * @return values, empty if not set
+     */
+    public List<String> getStrings(String name)
+    {
+        var value = parameters.get(name);
+        return value == null || value.isEmpty() ? List.of() : List.of(value.split(ListSeparator));
+    }
+
+    /**
+     * Get int parameter
+     * @param name name of parameter
+     * @param defaultValue value if not set
+     * @return value or default
+     * @throws NumberFormatException if value is not a number
+     */
+    public int getInt(String name, int defaultValue)
+    {
+        var value = parameters.get(name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    @Override
+    public String toString() {
+        return action + " " + parameters;
+    }
+}
@@ -0,0 +1,145 @@
+package server.protocol;
+
+import server.helper.LogHelper;
+import server.index.ContentIndex;
+import server.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sends files raw to clients that enabled {@link ConnectionOptions#StreamFiles}.
+ * Data is transferred by the os from file to socket (sendfile on linux), so it never has to be loaded into the heap.
+ */
+public class FileStreamer {
+
+    /**
+     * Size of buffer used if socket has no channel
+     */
+    private final static int CopyBufferSize = 64 * 1024;
+
+    /**
+     * Send size of file followed by its bytes.
+     * @param writer object stream of connection, used for the size, so the header matches the other responses
+     * @param socket connection to client
+     * @param file file to send, null to only send -1 as size
+     * @return number of bytes sent
+     * @throws IOException if reading file or writing to socket failed
+     */
+    public static long send(ObjectOutputStream writer, Socket socket, File file) throws IOException {
+        if (file == null)
+        {
+            writer.writeLong(-1);
+            writer.flush();
+            return 0;
+        }
+        try (var fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            var size = fileChannel.size();
+            writer.writeLong(size);
+            writer.flush();
+            transfer(fileChannel, 0, size, socket);
+            LogHelper.log("streamed " + size + " bytes of " + file.getName());
+            return size;
+        }
+    }
+
+    /**
+     * Send part of file, see {@link ConnectionOptions#Ranges} for the format.
+     * Nothing but the header is sent if the client has the file already.
+     * @param writer object stream of connection, used for the header
+     * @param socket connection to client
+     * @param file file to send, null to only send -1 as size
+     * @param range part of file requested by client
+     * @return number of bytes sent
+     * @throws IOException if reading file or writing to socket failed
+     */
+    public static long sendRange(ObjectOutputStream writer, Socket socket, File file, TransferRange range) throws IOException {
+        if (file == null)
+        {
+            writer.writeLong(-1);
+            writer.flush();
+            return 0;
+        }
+        // the indexed checksum of a corrupt file is the one of its original content
+        var checksum = ContentIndex.isCorrupt(file) ? "" : ContentIndex.getChecksum(file);
+        try (var fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            var size = fileChannel.size();
+            var offset = Math.min(Math.max(range.getOffset(), 0), size);
+            var count = range.getLength() < 0 ? size - offset : Math.min(range.getLength(), size - offset);
+            if (!checksum.isEmpty() && checksum.equals(range.getKnownChecksum()))
+            {
+                LogHelper.log("client has " + file.getName() + " already");
+                count = 0;
+            }
+            writer.writeLong(size);
+            writer.writeUTF(checksum);
+            writer.writeLong(offset);
+            writer.writeLong(count);
+            writer.flush();
+            transfer(fileChannel, offset, count, socket);
+            LogHelper.log("streamed " + count + " of " + size + " bytes of " + file.getName() + " from " + offset);
+            return count;
+        }
+    }
+
+    /**
+     * Transfer part of file to socket, directly from channel to channel if possible
+     * @param fileChannel file to send
+     * @param offset position of first byte to send
+     * @param count number of bytes to send
+     * @param socket connection to client
+     * @throws IOException if reading file or writing to socket failed
+     */
+    public static void transfer(FileChannel fileChannel, long offset, long count, Socket socket) throws IOException {
+        var socketChannel = socket.getChannel();
+        if (socketChannel == null)
+        {
+            copy(fileChannel.position(offset), socket.getOutputStream(), count);
+            Metrics.addBytesOut("socket", count);
+            return;
+        }
+        var position = offset;
+        var end = offset + count;
+        while (position < end) {
+            var transferred = fileChannel.transferTo(position, end - position, socketChannel);
+            if (transferred <= 0)
+            {
+                throw new IOException("file shrank while sending");
+            }
+            position += transferred;
+        }
+        Metrics.addBytesOut("socket", count);
+    }
+
+    /**
+     * Fallback for sockets created without channel
+     */
+    private static void copy(FileChannel fileChannel, OutputStream output, long size) throws IOException {
+        var buffer = ByteBuffer.allocate(CopyBufferSize);
+        var remaining = size;
+        while (remaining > 0)
+        {
+            buffer.clear();
+            if (remaining < CopyBufferSize)
+            {
+                buffer.limit((int) remaining);
+            }
+            var read = fileChannel.read(buffer);
+            if (read < 0)
+            {
+                throw new IOException("file shrank while sending");
+            }
+            output.write(buffer.array(), 0, read);
+            remaining -= read;
+        }
+        output.flush();
+    }
+}
@@ -0,0 +1,96 @@
+package server.protocol;
+
+import server.helper.LogHelper;
+import server.metrics.Metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Writes results to clients as size followed by the serialized result.
+ * <p>
+ * Results are serialized only once into a buffer reused by the worker thread. The size is taken from that buffer
+ * and the buffer is copied to the socket afterwards. The bytes are the same as writing the result to the
+ * connections object stream, since a fresh stream serializes its first object the same way.
+ * </p>
+ */
+public class ResponseWriter {
+
+    /**
+     * Length of header every object stream starts with, which the connection stream already sent.
+     */
+    private final static int StreamHeaderLength = 4;
+
+    /**
+     * Buffers above this size are not kept for the next response, so one big listing doesn't pin memory.
+     */
+    private final static int MaxPooledBufferSize = 1024 * 1024;
+
+    /**
+     * Buffer of each worker thread
+     */
+    private final static ThreadLocal<ReusableBuffer> Buffers = ThreadLocal.withInitial(ReusableBuffer::new);
+
+    /**
+     * Write result to client.
+     * The connection stream must not have written any object since it was created or last reset.
+     * @param writer object stream of connection
+     * @param output raw output of connection, which writer writes to
+     * @param actionName action the result belongs to, used for metrics
+     * @param result result to write
+     * @throws IOException if serialization or writing failed
+     */
+    public static void write(ObjectOutputStream writer, OutputStream output, String actionName, Object result) throws IOException {
+        if (result instanceof byte[])
+        {
+            // size of byte arrays has always been their length, not their serialized size
+            var bytes = (byte[]) result;
+            writer.writeInt(bytes.length);
+            writer.writeObject(bytes);
+            writer.flush();
+            Metrics.addBytesOut("socket", Integer.BYTES + bytes.length);
+            return;
+        }
+        var start = System.nanoTime();
+        var buffer = Buffers.get();
+        buffer.reset();
+        try {
+            var objectStream = new ObjectOutputStream(buffer);
+            objectStream.writeObject(result);
+            objectStream.flush();
+            var size = buffer.size();
+            var duration = System.nanoTime() - start;
+            Metrics.observeSerialization(actionName, size, duration);
+            LogHelper.debug(() -> "serialized result of " + actionName + ": " + size + " bytes in " + (duration / 1000) + "us");
+            writer.writeInt(size);
+            writer.flush();
+            output.write(buffer.getBuffer(), StreamHeaderLength, size - StreamHeaderLength);
+            output.flush();
+            Metrics.addBytesOut("socket", Integer.BYTES + size - StreamHeaderLength);
+        }
+        finally {
+            if (buffer.getBuffer().length > MaxPooledBufferSize)
+            {
+                Buffers.remove();
+            }
+        }
+    }
+
+    /**
+     * ByteArrayOutputStream giving access to its buffer, so it can be written without copying.
+     */
+    private static class ReusableBuffer extends ByteArrayOutputStream {
+
+        ReusableBuffer()
+        {
+            super(8 * 1024);
+        }
+
+        byte[] getBuffer()
+        {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package server.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Input of a client socket. Reads through the stream of the socket, so its timeout applies, till
+ * {@link #readFromChannel()} switches to reading from the channel of the socket directly.
+ * <p>
+ * On Java 11 the stream of a socket opened as channel holds the blocking lock of the channel while it waits for data,
+ * and writes to the socket and file transfers into it need that lock too. Connections sending responses while they wait
+ * for the next request have to read from the channel, which ignores the socket timeout.
+ * </p>
+ */
+public class SocketInput extends InputStream {
+
+    private final InputStream socketInput;
+
+    private final SocketChannel channel;
+
+    private volatile boolean fromChannel;
+
+    /**
+     * @param socket connected socket
+     * @throws IOException if input of socket can't be opened
+     */
+    public SocketInput(Socket socket) throws IOException {
+        this.socketInput = socket.getInputStream();
+        this.channel = socket.getChannel();
+    }
+
+    /**
+     * Read from the channel from now on, if the socket has one. The socket timeout doesn't apply anymore.
+     */
+    public void readFromChannel()
+    {
+        fromChannel = channel != null;
+    }
+
+    @Override
+    public int read() throws IOException {
+        var buffer = new byte[1];
+        var read = read(buffer, 0, 1);
+        return read < 0 ? -1 : buffer[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (!fromChannel)
+        {
+            return socketInput.read(buffer, offset, length);
+        }
+        if (length == 0)
+        {
+            return 0;
+        }
+        // blocking channel, reads at least one byte unless the input ended
+        return channel.read(ByteBuffer.wrap(buffer, offset, length));
+    }
+
+    @Override
+    public int available() throws IOException {
+        return fromChannel ? 0 : socketInput.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socketInput.close();
+    }
+}
@@ -0,0 +1,62 @@
+package server.protocol;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+/**
+ * Part of a file requested by a client with {@link ConnectionOptions#Ranges} enabled.
+ */
+public class TransferRange {
+
+    /**
+     * Position of first byte to send
+     */
+    private final long offset;
+
+    /**
+     * Number of bytes to send, negative for all bytes after offset
+     */
+    private final long length;
+
+    /**
+     * Checksum of the file the client has already, empty if none
+     */
+    private final String knownChecksum;
+
+    public TransferRange(long offset, long length, String knownChecksum)
+    {
+        this.offset = offset;
+        this.length = length;
+        this.knownChecksum = knownChecksum;
+    }
+
+    /**
+     * Read range sent by client after its request: long offset, long length and utf string of known checksum.
+     * @param inReader stream of client
+     * @return range
+     * @throws IOException if reading failed
+     */
+    public static TransferRange read(ObjectInputStream inReader) throws IOException {
+        return new TransferRange(inReader.readLong(), inReader.readLong(), inReader.readUTF());
+    }
+
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    public long getLength()
+    {
+        return length;
+    }
+
+    public String getKnownChecksum()
+    {
+        return knownChecksum;
+    }
+
+    @Override
+    public String toString() {
+        return offset + "+" + (length < 0 ? "*" : String.valueOf(length));
+    }
+}
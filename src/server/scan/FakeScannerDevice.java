@@ -0,0 +1,186 @@
+package server.scan;
+
+import server.helper.LogHelper;
+import server.helper.ServerConfigHelper;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Scanner for testing without hardware. Writes a white page as uncompressed tiff, sized by resolution and mode.
+ * <p>
+ * Like a real device, opening it takes time (scanserver.fakeScanner.openMs, default 1500) and it is closed after
+ * being idle. Every page takes scanserver.fakeScanner.pageMs (default 300). With scanserver.fakeScanner.feederPages
+ * the feeder is empty after that many pages (exit code 7 like scanimage), and full again afterwards.
+ * </p>
+ * <p>
+ * The stand-in for scanimage ({@code scanserver.tool.scanimage=fake}) writes the same pages with the same timing,
+ * so the other devices can be tested without hardware too.
+ * </p>
+ */
+public class FakeScannerDevice implements ScannerDevice {
+
+    /**
+     * Size of an A4 page in inch
+     */
+    private final static double PageWidth = 8.27, PageHeight = 11.69;
+
+    /**
+     * Time the device was last used, 0 if closed
+     */
+    private volatile long lastUsed;
+
+    private int pagesFromFeeder;
+
+    private volatile boolean cancelled;
+
+    @Override
+    public synchronized void scan(List<String> arguments, File target) throws IOException, InterruptedException {
+        cancelled = false;
+        var start = System.currentTimeMillis();
+        if (!isOpen())
+        {
+            LogHelper.log("Fake scanner: opening device");
+            sleep(ServerConfigHelper.getFakeScannerOpenMs());
+        }
+        var feederPages = ServerConfigHelper.getFakeScannerFeederPages();
+        if (feederPages > 0 && pagesFromFeeder++ >= feederPages)
+        {
+            pagesFromFeeder = 0;
+            lastUsed = System.currentTimeMillis();
+            throw new ToolException("scanimage", FeederEmptyExitCode);
+        }
+        sleep(ServerConfigHelper.getFakeScannerPageMs());
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(target), 64 * 1024))
+        {
+            writePage(arguments, output);
+        }
+        lastUsed = System.currentTimeMillis();
+        LogHelper.log("Fake scanner: scanned " + target.getName() + " " + arguments + " in " + (lastUsed - start) + " ms");
+    }
+
+    @Override
+    public void prepare(List<String> arguments) {
+        if (!isOpen())
+        {
+            // opening in the background isn't worth it for a fake, the next scan just won't wait
+            lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public void close() {
+        lastUsed = 0;
+    }
+
+    private boolean isOpen()
+    {
+        return lastUsed > 0 && System.currentTimeMillis() - lastUsed < ServerConfigHelper.getScannerIdleTimeout() * 1000L;
+    }
+
+    private void sleep(long ms) throws InterruptedException, IOException {
+        var end = System.currentTimeMillis() + ms;
+        while (System.currentTimeMillis() < end)
+        {
+            if (cancelled)
+            {
+                throw new IOException("scan cancelled");
+            }
+            Thread.sleep(Math.min(50, Math.max(1, end - System.currentTimeMillis())));
+        }
+    }
+
+    /**
+     * Write white page as tiff, sized by resolution and mode
+     * @param arguments scanimage arguments, like "--resolution" "300" and "--mode" "Lineart"
+     * @param output stream to write tiff to
+     * @throws IOException if writing failed
+     */
+    public static void writePage(List<String> arguments, OutputStream output) throws IOException {
+        writeTiff(output, getArgument(arguments, "--resolution", 150), getArgument(arguments, "--mode", "Gray"));
+    }
+
+    private static int getArgument(List<String> arguments, String name, int defaultValue)
+    {
+        var value = getArgument(arguments, name, (String) null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static String getArgument(List<String> arguments, String name, String defaultValue)
+    {
+        var index = arguments.indexOf(name);
+        return index < 0 || index + 1 >= arguments.size() ? defaultValue : arguments.get(index + 1);
+    }
+
+    /**
+     * Write white page as single strip tiff: bitonal for Lineart, rgb for Color, grey otherwise
+     */
+    private static void writeTiff(OutputStream output, int resolution, String mode) throws IOException {
+        var width = (int) Math.round(PageWidth * resolution);
+        var height = (int) Math.round(PageHeight * resolution);
+        var bitonal = mode.equals("Lineart");
+        var samples = mode.equals("Color") ? 3 : 1;
+        var rowBytes = bitonal ? (width + 7) / 8 : width * samples;
+        var entryCount = 12;
+        var extraOffset = 8 + 2 + entryCount * 12 + 4;
+        var imageOffset = extraOffset + 8 + 8 + 6;
+        var header = ByteBuffer.allocate(imageOffset).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] { 'I', 'I', 42, 0 }).putInt(8);
+        header.putShort((short) entryCount);
+        putEntry(header, 256, 4, 1, width);
+        putEntry(header, 257, 4, 1, height);
+        if (samples == 3)
+        {
+            putEntry(header, 258, 3, 3, extraOffset + 16);
+        }
+        else
+        {
+            putEntry(header, 258, 3, 1, bitonal ? 1 : 8);
+        }
+        putEntry(header, 259, 3, 1, 1);
+        // bitonal zeros are white, grey and rgb zeros are black
+        putEntry(header, 262, 3, 1, bitonal ? 0 : samples == 3 ? 2 : 1);
+        putEntry(header, 273, 4, 1, imageOffset);
+        putEntry(header, 277, 3, 1, samples);
+        putEntry(header, 278, 4, 1, height);
+        putEntry(header, 279, 4, 1, rowBytes * height);
+        putEntry(header, 282, 5, 1, extraOffset);
+        putEntry(header, 283, 5, 1, extraOffset + 8);
+        putEntry(header, 296, 3, 1, 2);
+        header.putInt(0);
+        header.putInt(resolution).putInt(1).putInt(resolution).putInt(1);
+        header.putShort((short) 8).putShort((short) 8).putShort((short) 8);
+        output.write(header.array());
+        var row = new byte[rowBytes];
+        Arrays.fill(row, bitonal ? 0 : (byte) 0xFF);
+        for (var y = 0; y < height; y++)
+        {
+            output.write(row);
+        }
+    }
+
+    private static void putEntry(ByteBuffer buffer, int tag, int type, int count, int value)
+    {
+        buffer.putShort((short) tag).putShort((short) type).putInt(count);
+        if (type == 3 && count == 1)
+        {
+            buffer.putShort((short) value).putShort((short) 0);
+        }
+        else
+        {
+            buffer.putInt(value);
+        }
+    }
+}
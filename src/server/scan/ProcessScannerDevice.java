@@ -0,0 +1,43 @@
+package server.scan;
+
+import server.helper.LogHelper;
+import server.tools.ProcessRun;
+import server.tools.ProcessRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Starts scanimage for every page. Simple, but scanimage searches the backends and opens the device every time.
+ */
+public class ProcessScannerDevice implements ScannerDevice {
+
+    private volatile ProcessRun run;
+
+    @Override
+    public void scan(List<String> arguments, File target) throws IOException, InterruptedException {
+        var command = new ArrayList<>(List.of("scanimage", "--format=tiff"));
+        command.addAll(arguments);
+        LogHelper.log("Will execute command: \"" + String.join(" ", command) + "\"");
+        // tiff is redirected to the file by the os
+        try (var started = ProcessRunner.start(new ProcessBuilder(command).directory(target.getParentFile()).redirectOutput(target)))
+        {
+            run = started;
+            started.waitFor();
+        }
+        finally {
+            run = null;
+        }
+    }
+
+    @Override
+    public void cancel() {
+        var running = run;
+        if (running != null)
+        {
+            running.destroy();
+        }
+    }
+}
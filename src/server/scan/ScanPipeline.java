@@ -0,0 +1,374 @@
+package server.scan;
+
+import server.helper.FileHelper;
+import server.helper.LogHelper;
+import server.helper.ServerConfigHelper;
+import server.metrics.Metrics;
+import server.tools.ProcessRun;
+import server.tools.ProcessRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans one page and converts it into a small pdf.
+ * <p>
+ * Stages:
+ * <ol>
+ *     <li>the {@link ScannerDevice} writes the tiff directly into the temp file (not buffered in the heap)</li>
+ *     <li>conversion depends on the {@link ScanProfile}:
+ *     <ul>
+ *         <li>jpeg: tiff2pdf compresses the tiff and writes the target file</li>
+ *         <li>CCITT G4: tiffcp compresses the bitonal tiff, tiff2pdf copies the compressed data into the target file</li>
+ *         <li>legacy: tiff2pdf converts the tiff into a temp pdf (tiff2pdf needs a seekable input, so this temp file stays),
+ *         pdftops pipes postscript directly into ps2pdf, which writes the target file (no temp postscript file)</li>
+ *     </ul>
+ *     </li>
+ * </ol>
+ * Acquisition and conversion can be run separately, so the scanner can be released before converting.
+ * Every stage is timed and the pipeline can be cancelled from another thread at any time.
+ * </p>
+ */
+public class ScanPipeline {
+
+    /**
+     * Directory the scan is saved to, working directory of the tools
+     */
+    private final File targetDir;
+
+    /**
+     * Name of target file without extension
+     */
+    private final String fileName;
+
+    /**
+     * Hidden file the result is written to, reserved when acquisition starts, so concurrent scans with the same name
+     * don't write the same file. It gets its name when the conversion is done.
+     */
+    private volatile File reservedFile;
+
+    /**
+     * File the result was saved to, set when the conversion is done
+     */
+    private volatile File targetFile;
+
+    /**
+     * Base path of temp files (without suffix)
+     */
+    private final String tempFilePath;
+
+    /**
+     * Mode, resolution and compression
+     */
+    private final ScanProfile profile;
+
+    /**
+     * Additional arguments for scanimage, like the source to scan from
+     */
+    private final List<String> scanArguments;
+
+    /**
+     * Tools currently running, destroyed on cancel
+     */
+    private final List<ProcessRun> runningTools = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Duration of finished stages in ms, by stage name
+     */
+    private final Map<String, Long> stageDurations = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /**
+     * Device while page is scanned, so cancel can abort the scan
+     */
+    private volatile ScannerDevice scanningDevice;
+
+    /**
+     * Set by {@link #cancel()}
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * Create pipeline
+     * @param id id of job, part of temp file names, so scans with the same name don't share them
+     * @param targetDir directory to save scan to
+     * @param fileName name of target file without extension, a counter is added if file exists already
+     * @param profile how to scan and compress
+     */
+    public ScanPipeline(String id, File targetDir, String fileName, ScanProfile profile)
+    {
+        this(id, targetDir, fileName, profile, List.of());
+    }
+
+    /**
+     * Create pipeline
+     * @param id id of job, part of temp file names, so scans with the same name don't share them
+     * @param targetDir directory to save scan to
+     * @param fileName name of target file without extension, a counter is added if file exists already
+     * @param profile how to scan and compress
+     * @param scanArguments additional arguments for scanimage, like "--source" "ADF"
+     */
+    public ScanPipeline(String id, File targetDir, String fileName, ScanProfile profile, List<String> scanArguments)
+    {
+        this.scanArguments = scanArguments;
+        this.targetDir = targetDir;
+        this.fileName = fileName;
+        var tempDir = ServerConfigHelper.getScanTempDir();
+        var tempBaseName = fileName + "_" + id + "_temp";
+        this.tempFilePath = Paths.get(tempDir == null ? targetDir.getAbsolutePath() : tempDir, tempBaseName).toString();
+        this.profile = profile;
+    }
+
+    /**
+     * Scan and convert.
+     * @return file the scan was saved to
+     * @throws IOException if a tool failed
+     * @throws InterruptedException if interrupted while waiting for a tool
+     * @throws CancellationException if cancelled
+     */
+    public File run() throws IOException, InterruptedException {
+        var start = System.currentTimeMillis();
+        try {
+            acquire();
+            convert();
+        }
+        finally {
+            log("Pipeline finished after " + (System.currentTimeMillis() - start) + " ms, stages: " + stageDurations);
+        }
+        return targetFile;
+    }
+
+    /**
+     * Reserve target file and scan page into temp tiff. Only this stage needs the scanner.
+     * @throws IOException if target file could not be reserved or scanning failed, {@link ToolException} contains the exit code of scanimage
+     * @throws InterruptedException if interrupted while waiting for the scanner
+     * @throws CancellationException if cancelled
+     * @see ScannerDevices#getDevice()
+     */
+    public void acquire() throws IOException, InterruptedException {
+        var start = System.currentTimeMillis();
+        try {
+            checkCancelled();
+            reservedFile = FileHelper.reserveFreeFile(targetDir, fileName, ".pdf");
+            scanningDevice = ScannerDevices.getDevice();
+            // cancel might have missed the device set just now
+            checkCancelled();
+            scanningDevice.scan(ScannerDevices.getArguments(profile, scanArguments), getTempTiffFile());
+        }
+        catch (IOException | InterruptedException | RuntimeException e)
+        {
+            cleanUp(true);
+            checkCancelled();
+            throw e;
+        }
+        finally {
+            scanningDevice = null;
+            var duration = System.currentTimeMillis() - start;
+            stageDurations.put("scanimage", duration);
+            Metrics.observeStage("scanimage", TimeUnit.MILLISECONDS.toNanos(duration));
+            log("Stage scanimage took " + duration + " ms");
+        }
+    }
+
+    /**
+     * Convert temp tiff into target pdf and give it its name. Temp files are deleted afterwards.
+     * @throws IOException if a tool failed
+     * @throws InterruptedException if interrupted while waiting for a tool
+     * @throws CancellationException if cancelled
+     */
+    public void convert() throws IOException, InterruptedException {
+        var failed = true;
+        try {
+            switch (profile.getCompression())
+            {
+                case Jpeg:
+                    runStage("tiff2pdf", newProcessBuilder("tiff2pdf", "-j", "-q", "" + profile.getQuality(),
+                            "-o", reservedFile.getAbsolutePath(), getTempTiffFile().getAbsolutePath()).redirectOutput(ProcessBuilder.Redirect.DISCARD));
+                    break;
+                case CcittG4:
+                    var compressedTiffFile = getTempCompressedTiffFile();
+                    runStage("tiffcp", newProcessBuilder("tiffcp", "-c", "g4", getTempTiffFile().getAbsolutePath(), compressedTiffFile.getAbsolutePath())
+                            .redirectOutput(ProcessBuilder.Redirect.DISCARD));
+                    runStage("tiff2pdf", newProcessBuilder("tiff2pdf", "-o", reservedFile.getAbsolutePath(), compressedTiffFile.getAbsolutePath())
+                            .redirectOutput(ProcessBuilder.Redirect.DISCARD));
+                    break;
+                default:
+                    convertLegacy();
+                    break;
+            }
+            targetFile = FileHelper.publish(reservedFile);
+            failed = false;
+        }
+        finally {
+            cleanUp(failed);
+        }
+    }
+
+    /**
+     * Convert with a postscript round trip, which shrinks the jpeg tiff2pdf writes by default
+     */
+    private void convertLegacy() throws IOException, InterruptedException {
+        var tempPdfFile = getTempPdfFile();
+        runStage("tiff2pdf", newProcessBuilder("tiff2pdf", "-o", tempPdfFile.getAbsolutePath(), getTempTiffFile().getAbsolutePath())
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD));
+        // "-" makes pdftops write to stdout and ps2pdf read from stdin
+        @SuppressWarnings("SpellCheckingInspection")
+        var toPostScript = newProcessBuilder("pdftops", tempPdfFile.getAbsolutePath(), "-");
+        var toPdf = newProcessBuilder("ps2pdf", "-", reservedFile.getAbsolutePath()).redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        runStage("pdftops|ps2pdf", toPostScript, toPdf);
+    }
+
+    /**
+     * Cancel pipeline, running tools are destroyed.
+     * The thread running the pipeline gets a {@link CancellationException}.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+        var device = scanningDevice;
+        if (device != null)
+        {
+            device.cancel();
+        }
+        synchronized (runningTools)
+        {
+            for (var run : runningTools)
+            {
+                run.destroy();
+            }
+        }
+    }
+
+    /**
+     * @return if pipeline got cancelled
+     */
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * @return file the scan was saved to, null till the conversion is done
+     */
+    public File getTargetFile()
+    {
+        return targetFile;
+    }
+
+    /**
+     * @return profile the page is scanned with
+     */
+    public ScanProfile getProfile()
+    {
+        return profile;
+    }
+
+    /**
+     * @return durations of finished stages in ms by stage name, in order of execution
+     */
+    public Map<String, Long> getStageDurations()
+    {
+        synchronized (stageDurations)
+        {
+            return new LinkedHashMap<>(stageDurations);
+        }
+    }
+
+    private File getTempTiffFile()
+    {
+        return new File(tempFilePath + ".tiff");
+    }
+
+    private File getTempPdfFile()
+    {
+        return new File(tempFilePath + ".pdf");
+    }
+
+    private File getTempCompressedTiffFile()
+    {
+        return new File(tempFilePath + "_g4.tiff");
+    }
+
+    private ProcessBuilder newProcessBuilder(String... command)
+    {
+        log("Will execute command: \"" + String.join(" ", command) + "\"");
+        return new ProcessBuilder(command).directory(targetDir);
+    }
+
+    /**
+     * Run tools with output of each tool piped into the next one and wait for all of them
+     */
+    private void runStage(String stageName, ProcessBuilder... processBuilders) throws IOException, InterruptedException {
+        checkCancelled();
+        var start = System.currentTimeMillis();
+        try (var run = ProcessRunner.start(processBuilders))
+        {
+            runningTools.add(run);
+            try {
+                // cancel might have missed the tools started just now
+                checkCancelled();
+                run.waitFor();
+            }
+            catch (ToolException e)
+            {
+                // destroyed by cancel
+                checkCancelled();
+                throw e;
+            }
+            finally {
+                runningTools.remove(run);
+            }
+            checkCancelled();
+        }
+        finally {
+            var duration = System.currentTimeMillis() - start;
+            stageDurations.put(stageName, duration);
+            Metrics.observeStage(stageName, TimeUnit.MILLISECONDS.toNanos(duration));
+            log("Stage " + stageName + " took " + duration + " ms");
+        }
+    }
+
+    private void checkCancelled()
+    {
+        if (cancelled)
+        {
+            throw new CancellationException("scan to " + fileName + " cancelled");
+        }
+    }
+
+    /**
+     * Delete temp files, and the reserved target file if pipeline failed
+     */
+    private void cleanUp(boolean failed)
+    {
+        log("Deleting temp files...");
+        var deletion = deleteIfExists(getTempTiffFile());
+        deletion &= deleteIfExists(getTempPdfFile());
+        deletion &= deleteIfExists(getTempCompressedTiffFile());
+        if (failed && reservedFile != null)
+        {
+            deletion &= deleteIfExists(reservedFile);
+        }
+        if (!deletion)
+        {
+            log("At least one file failed to delete!");
+        }
+    }
+
+    private static boolean deleteIfExists(File file)
+    {
+        return !file.exists() || file.delete();
+    }
+
+    private static void log(String message)
+    {
+        LogHelper.log(message);
+    }
+}
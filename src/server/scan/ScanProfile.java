@@ -0,0 +1,240 @@
+package server.scan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How to scan and compress a page: colour mode, resolution and compression.
+ * <p>
+ * Profiles are converted in a single pass: bitonal pages are stored CCITT G4 compressed, grey and colour pages
+ * as jpeg with the profile's quality. The legacy profile keeps the old conversion (postscript round trip),
+ * it is used for requests only sending a quality option.
+ * </p>
+ */
+public class ScanProfile {
+
+    public enum Compression {
+        /**
+         * tiff2pdf, then pdftops | ps2pdf
+         */
+        Legacy,
+        /**
+         * Bitonal, tiffcp -c g4, then tiff2pdf (passes the G4 data through)
+         */
+        CcittG4,
+        /**
+         * tiff2pdf -j
+         */
+        Jpeg
+    }
+
+    /**
+     * Black and white text, smallest files
+     */
+    public final static ScanProfile Text = new ScanProfile("text", "Lineart", 300, Compression.CcittG4, 0);
+
+    /**
+     * Documents with pictures or handwriting
+     */
+    public final static ScanProfile Greyscale = new ScanProfile("greyscale", "Gray", 200, Compression.Jpeg, 60);
+
+    /**
+     * Colour photos
+     */
+    public final static ScanProfile Photo = new ScanProfile("photo", "Color", 300, Compression.Jpeg, 85);
+
+    /**
+     * Resolutions tried to reach a target size, highest first
+     */
+    private final static int[] Resolutions = { 300, 200, 150, 100 };
+
+    /**
+     * Lowest jpeg quality used to reach a target size
+     */
+    private final static int MinQuality = 30;
+
+    /**
+     * Preferred lowest quality, resolution is lowered before going below it
+     */
+    private final static int MinPreferredQuality = 50;
+
+    /**
+     * Area of an A4 page in square inch, size estimates assume full pages
+     */
+    private final static double PageArea = 8.27 * 11.69;
+
+    private final String name;
+
+    /**
+     * Scan mode of sane, null for scanner default
+     */
+    private final String mode;
+
+    private final int resolution;
+
+    private final Compression compression;
+
+    /**
+     * Jpeg quality (1-100), unused for other compressions
+     */
+    private final int quality;
+
+    private ScanProfile(String name, String mode, int resolution, Compression compression, int quality)
+    {
+        this.name = name;
+        this.mode = mode;
+        this.resolution = resolution;
+        this.compression = compression;
+        this.quality = quality;
+    }
+
+    /**
+     * Profile of old clients, scanner default mode, converted like before
+     * @param resolution resolution to scan with
+     * @return profile
+     */
+    public static ScanProfile legacy(int resolution)
+    {
+        return new ScanProfile("legacy", null, resolution, Compression.Legacy, 0);
+    }
+
+    /**
+     * Get profile by name
+     * @param name "text", "greyscale" or "photo", case is ignored
+     * @return profile
+     * @throws IllegalArgumentException if name is unknown
+     */
+    public static ScanProfile forName(String name)
+    {
+        for (var profile : List.of(Text, Greyscale, Photo))
+        {
+            if (profile.name.equalsIgnoreCase(name.trim()))
+            {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("unknown scan profile " + name);
+    }
+
+    /**
+     * Adjust resolution and quality, so a page is expected to be at most given size.
+     * Sizes are estimated from the pixel count, so the page is scanned and converted only once.
+     * Keeps resolution and quality if the page fits already, never raises them.
+     * @param targetSizeKb size a page should have at most
+     * @return adjusted profile
+     */
+    public ScanProfile withTargetSize(int targetSizeKb)
+    {
+        if (compression == Compression.Legacy || targetSizeKb <= 0)
+        {
+            return this;
+        }
+        var targetBytes = targetSizeKb * 1024L;
+        var candidates = new ArrayList<ScanProfile>();
+        for (var candidateResolution : Resolutions)
+        {
+            if (candidateResolution > resolution)
+            {
+                continue;
+            }
+            if (compression == Compression.CcittG4)
+            {
+                candidates.add(withSettings(candidateResolution, 0));
+                continue;
+            }
+            for (var candidateQuality = quality; candidateQuality >= MinQuality; candidateQuality -= 5)
+            {
+                candidates.add(withSettings(candidateResolution, candidateQuality));
+            }
+        }
+        // highest resolution with acceptable quality first, then anything fitting
+        for (var candidate : candidates)
+        {
+            if ((candidate.compression != Compression.Jpeg || candidate.quality >= MinPreferredQuality) && candidate.estimateSize() <= targetBytes)
+            {
+                return candidate;
+            }
+        }
+        for (var candidate : candidates)
+        {
+            if (candidate.estimateSize() <= targetBytes)
+            {
+                return candidate;
+            }
+        }
+        // target too small, smallest there is
+        return candidates.get(candidates.size() - 1);
+    }
+
+    private ScanProfile withSettings(int resolution, int quality)
+    {
+        return new ScanProfile(name, mode, resolution, compression, quality);
+    }
+
+    /**
+     * Rough size of a full page with this profile, from typical bytes per pixel of scanned documents
+     * @return estimated size in bytes
+     */
+    long estimateSize()
+    {
+        var pixels = PageArea * resolution * resolution;
+        double bytesPerPixel;
+        switch (compression)
+        {
+            case CcittG4:
+                bytesPerPixel = 0.012;
+                break;
+            case Jpeg:
+                // grows slowly till quality 80, then fast
+                bytesPerPixel = 0.04 + 0.0012 * quality + (quality > 80 ? 0.012 * (quality - 80) : 0);
+                if (!"Color".equals(mode))
+                {
+                    bytesPerPixel *= 0.6;
+                }
+                break;
+            default:
+                bytesPerPixel = 0.25;
+                break;
+        }
+        return (long) (pixels * bytesPerPixel);
+    }
+
+    /**
+     * @return arguments for scanimage, resolution and mode
+     */
+    List<String> getScanArguments()
+    {
+        var arguments = new ArrayList<>(List.of("--resolution", "" + resolution));
+        if (mode != null)
+        {
+            arguments.addAll(List.of("--mode", mode));
+        }
+        return arguments;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getResolution()
+    {
+        return resolution;
+    }
+
+    public Compression getCompression()
+    {
+        return compression;
+    }
+
+    public int getQuality()
+    {
+        return quality;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + (mode == null ? "default mode" : mode) + ", " + resolution + " dpi, " + compression
+                + (compression == Compression.Jpeg ? " " + quality : "") + ")";
+    }
+}
@@ -0,0 +1,48 @@
+package server.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Acquires pages from a scanner. Only used by the scanner thread of the job manager, so scans never overlap.
+ * @see ScannerDevices#getDevice()
+ */
+public interface ScannerDevice {
+
+    /**
+     * Exit code of scanimage if the document feeder is empty (SANE_STATUS_NO_DOCS)
+     */
+    int FeederEmptyExitCode = 7;
+
+    /**
+     * Scan one page
+     * @param arguments scanimage arguments like "--resolution" "300" or "--source" "ADF", without format and output
+     * @param target file to write the tiff to
+     * @throws ToolException if scanning failed, exit code {@link #FeederEmptyExitCode} if the document feeder is empty
+     * @throws IOException if the scanner can't be used
+     * @throws InterruptedException if interrupted while waiting for the scanner
+     */
+    void scan(List<String> arguments, File target) throws IOException, InterruptedException;
+
+    /**
+     * Get ready for a scan with given arguments, like opening the device. Returns right away,
+     * does nothing if the device is busy.
+     * @param arguments arguments the next scan will likely use
+     */
+    default void prepare(List<String> arguments)
+    {
+    }
+
+    /**
+     * Abort running scan, {@link #scan(List, File)} throws afterwards. May be called from any thread.
+     */
+    void cancel();
+
+    /**
+     * Release scanner
+     */
+    default void close()
+    {
+    }
+}
@@ -0,0 +1,67 @@
+package server.scan;
+
+import server.helper.LogHelper;
+import server.helper.ServerConfigHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the scanner device of the server, chosen by {@link ServerConfigHelper#getScannerDevice()}.
+ */
+public class ScannerDevices {
+
+    private static ScannerDevice device;
+
+    /**
+     * @return device used for all scans
+     */
+    public static synchronized ScannerDevice getDevice()
+    {
+        if (device == null)
+        {
+            // devices starting scanimage run its stand-in if it's faked
+            var name = ServerConfigHelper.getScannerDevice();
+            switch (name)
+            {
+                case "process":
+                    device = new ProcessScannerDevice();
+                    break;
+                case "fake":
+                    device = new FakeScannerDevice();
+                    break;
+                default:
+                    if (!name.equals("warm"))
+                    {
+                        LogHelper.log("Unknown scanner device " + name + ", using warm");
+                    }
+                    device = new WarmScannerDevice();
+                    break;
+            }
+        }
+        return device;
+    }
+
+    /**
+     * Get device ready for a scan, like when a scan got queued
+     * @param profile how the page will be scanned
+     * @param scanArguments additional arguments, like the source
+     */
+    public static void prepare(ScanProfile profile, List<String> scanArguments)
+    {
+        getDevice().prepare(getArguments(profile, scanArguments));
+    }
+
+    /**
+     * Arguments for scanimage
+     * @param profile how to scan
+     * @param scanArguments additional arguments, like the source
+     * @return arguments of profile followed by additional ones
+     */
+    static List<String> getArguments(ScanProfile profile, List<String> scanArguments)
+    {
+        var arguments = new ArrayList<>(profile.getScanArguments());
+        arguments.addAll(scanArguments);
+        return arguments;
+    }
+}
@@ -0,0 +1,37 @@
+package server.scan;
+
+import java.io.IOException;
+
+/**
+ * Thrown if an external tool exits with an error
+ */
+public class ToolException extends IOException {
+
+    private final static long serialVersionUID = 1L;
+
+    /**
+     * Exit code of tool
+     */
+    private final int exitCode;
+
+    public ToolException(String tool, int exitCode)
+    {
+        super(tool + " failed with exit code " + exitCode);
+        this.exitCode = exitCode;
+    }
+
+    /**
+     * @param exitCode exit code of tool
+     * @param message description of error
+     */
+    protected ToolException(int exitCode, String message)
+    {
+        super(message);
+        this.exitCode = exitCode;
+    }
+
+    public int getExitCode()
+    {
+        return exitCode;
+    }
+}
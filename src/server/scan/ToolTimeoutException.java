@@ -0,0 +1,19 @@
+package server.scan;
+
+/**
+ * Thrown if an external tool didn't finish in time and got killed
+ */
+public class ToolTimeoutException extends ToolException {
+
+    private final static long serialVersionUID = 1L;
+
+    /**
+     * Exit code reported for killed tools
+     */
+    public final static int TimeoutExitCode = -1;
+
+    public ToolTimeoutException(String tool, int timeoutSeconds)
+    {
+        super(TimeoutExitCode, tool + " killed after running for " + timeoutSeconds + " s");
+    }
+}
@@ -0,0 +1,319 @@
+package server.scan;
+
+import server.helper.LogHelper;
+import server.helper.ServerConfigHelper;
+import server.helper.ThreadHelper;
+import server.metrics.Metrics;
+import server.tools.Tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps one scanimage running in batch prompt mode, so the device stays open between scans.
+ * <p>
+ * scanimage opens the device once, then waits for return before every page and writes each page into its own file.
+ * A page is done when the prompt for the next page shows up. The process is restarted when the arguments change
+ * and ended after being idle for {@link ServerConfigHelper#getScannerIdleTimeout()}, so the device isn't blocked forever.
+ * </p>
+ */
+public class WarmScannerDevice implements ScannerDevice {
+
+    /**
+     * Start of the line scanimage prints before every page
+     */
+    private final static String PromptPrefix = "Place document no.";
+
+    /**
+     * Queued after the last line of output
+     */
+    private final static String EndOfOutput = "\u0000end";
+
+    private final static ThreadFactory OutputReaderFactory = ThreadHelper.newThreadFactory("scanner-output");
+
+    private final static ScheduledExecutorService IdleTimer = Executors.newSingleThreadScheduledExecutor(ThreadHelper.newThreadFactory("scanner-idle"));
+
+    /**
+     * Guards the process, scans hold it while scanning
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Directory scanimage writes its pages to
+     */
+    private Path batchDir;
+
+    private Process process;
+
+    /**
+     * Arguments the process was started with
+     */
+    private List<String> processArguments;
+
+    /**
+     * Lines scanimage printed to its error output
+     */
+    private BlockingQueue<String> output;
+
+    /**
+     * Number of next page in the batch
+     */
+    private int pageNumber;
+
+    /**
+     * If scanimage is waiting for return
+     */
+    private boolean ready;
+
+    private ScheduledFuture<?> idleClose;
+
+    private volatile boolean cancelled;
+
+    @Override
+    public void scan(List<String> arguments, File target) throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            cancelled = false;
+            cancelIdleClose();
+            if (!isRunning(arguments))
+            {
+                start(arguments);
+            }
+            if (!ready)
+            {
+                waitForPrompt(false);
+            }
+            var input = process.getOutputStream();
+            input.write('\n');
+            input.flush();
+            ready = false;
+            waitForPrompt(true);
+            ready = true;
+            Files.move(getPageFile(pageNumber), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            pageNumber++;
+        }
+        catch (IOException | InterruptedException | RuntimeException e)
+        {
+            stop();
+            throw e;
+        }
+        finally {
+            scheduleIdleClose();
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void prepare(List<String> arguments) {
+        if (!lock.tryLock())
+        {
+            // scanning right now, so it is warm already
+            return;
+        }
+        try {
+            if (!isRunning(arguments))
+            {
+                start(arguments);
+                scheduleIdleClose();
+            }
+        }
+        catch (IOException e)
+        {
+            LogHelper.log("Could not prepare scanner: " + e.getMessage());
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        var running = process;
+        if (running != null)
+        {
+            running.destroy();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            cancelIdleClose();
+            stop();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isRunning(List<String> arguments)
+    {
+        return process != null && process.isAlive() && arguments.equals(processArguments);
+    }
+
+    private void start(List<String> arguments) throws IOException {
+        stop();
+        if (batchDir == null)
+        {
+            var tempDir = ServerConfigHelper.getScanTempDir();
+            batchDir = tempDir == null ? Files.createTempDirectory("scanner") : Files.createTempDirectory(Paths.get(tempDir), "scanner");
+            batchDir.toFile().deleteOnExit();
+        }
+        var command = new ArrayList<>(List.of("scanimage", "--format=tiff", "--batch-prompt", "--batch=" + batchDir.resolve("page%d.tiff")));
+        command.addAll(arguments);
+        LogHelper.log("Will execute command: \"" + String.join(" ", command) + "\"");
+        var started = Tools.start(new ProcessBuilder(command).directory(batchDir.toFile()).redirectOutput(ProcessBuilder.Redirect.DISCARD));
+        var lines = new LinkedBlockingQueue<String>();
+        OutputReaderFactory.newThread(() -> readOutput(started, lines)).start();
+        process = started;
+        processArguments = List.copyOf(arguments);
+        output = lines;
+        pageNumber = 1;
+        ready = false;
+    }
+
+    /**
+     * End scanimage. Closing its input ends the batch like ctrl+d, it is killed if that doesn't work.
+     */
+    private void stop()
+    {
+        if (process == null)
+        {
+            return;
+        }
+        try {
+            process.getOutputStream().close();
+            if (!process.waitFor(2, TimeUnit.SECONDS))
+            {
+                process.destroyForcibly();
+            }
+        }
+        catch (IOException | InterruptedException e)
+        {
+            process.destroyForcibly();
+            if (e instanceof InterruptedException)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        LogHelper.log("Scanner closed");
+        process = null;
+        processArguments = null;
+        output = null;
+        ready = false;
+    }
+
+    /**
+     * Wait till scanimage asks for the next page. Waits at most {@link ServerConfigHelper#getToolTimeout(String)} of
+     * scanimage, a device that stopped answering would block all scans otherwise.
+     * @param scanning if a page is scanned, scanimage ending then without error means the feeder is empty
+     * @throws ToolException if scanimage ended, with its exit code
+     * @throws ToolTimeoutException if scanimage didn't ask in time, it is stopped then
+     */
+    private void waitForPrompt(boolean scanning) throws IOException, InterruptedException {
+        var timeoutSeconds = ServerConfigHelper.getToolTimeout("scanimage");
+        var start = System.nanoTime();
+        var deadline = start + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        while (true)
+        {
+            var line = output.poll(1, TimeUnit.SECONDS);
+            if (cancelled)
+            {
+                throw new IOException("scan cancelled");
+            }
+            if (line == null)
+            {
+                if (System.nanoTime() - deadline > 0)
+                {
+                    LogHelper.warn("scanimage didn't ask for the next page within " + timeoutSeconds + " s, stopping it");
+                    Metrics.countToolTimeout("scanimage");
+                    stop();
+                    throw new ToolTimeoutException("scanimage", timeoutSeconds);
+                }
+                continue;
+            }
+            if (line.equals(EndOfOutput))
+            {
+                var exitCode = process.waitFor();
+                if (exitCode == 0 && scanning)
+                {
+                    // once a batch has pages, scanimage ends without error when the feeder is empty
+                    throw new ToolException("scanimage", FeederEmptyExitCode);
+                }
+                throw exitCode == 0 ? new IOException("scanimage ended") : new ToolException("scanimage", exitCode);
+            }
+            if (line.startsWith(PromptPrefix))
+            {
+                if (scanning)
+                {
+                    // the process runs for many pages, so the time of a page is recorded instead of the whole run
+                    Metrics.observeTool("scanimage", System.nanoTime() - start, 0);
+                }
+                return;
+            }
+            if (!line.startsWith("Press "))
+            {
+                LogHelper.log("scanimage: " + line);
+            }
+        }
+    }
+
+    private static void readOutput(Process process, BlockingQueue<String> lines)
+    {
+        try (var reader = new BufferedReader(new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8)))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                lines.add(line);
+            }
+        }
+        catch (IOException e)
+        {
+            // process got destroyed
+        }
+        lines.add(EndOfOutput);
+    }
+
+    private Path getPageFile(int number)
+    {
+        return batchDir.resolve("page" + number + ".tiff");
+    }
+
+    private void scheduleIdleClose()
+    {
+        cancelIdleClose();
+        if (process != null)
+        {
+            idleClose = IdleTimer.schedule(this::close, ServerConfigHelper.getScannerIdleTimeout(), TimeUnit.SECONDS);
+        }
+    }
+
+    private void cancelIdleClose()
+    {
+        if (idleClose != null)
+        {
+            idleClose.cancel(false);
+            idleClose = null;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package server.tools;
+
+import server.helper.ThreadHelper;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link FakeTool} running on a thread, looking like a started process to its caller.
+ * Standard input, output and errors are pipes unless the builder redirects them.
+ */
+class FakeProcess extends Process {
+
+    /**
+     * Exit code of destroyed tools, like a process ended by SIGTERM
+     */
+    private final static int DestroyedExitCode = 143;
+
+    private final static int PipeSize = 64 * 1024;
+
+    private final static ExecutorService Runner = Executors.newCachedThreadPool(ThreadHelper.newThreadFactory("fake-tool"));
+
+    private final CompletableFuture<Integer> exitCode = new CompletableFuture<>();
+
+    private final OutputStream stdin;
+
+    private final InputStream stdout;
+
+    private final InputStream stderr;
+
+    /**
+     * Thread running the tool, guarded by this
+     */
+    private Thread thread;
+
+    private volatile boolean destroyed;
+
+    private FakeProcess(OutputStream stdin, InputStream stdout, InputStream stderr)
+    {
+        this.stdin = stdin;
+        this.stdout = stdout;
+        this.stderr = stderr;
+    }
+
+    /**
+     * Start fake tool for builder
+     * @param builder builder with tool name as first part of command
+     * @return running fake
+     * @throws IOException if a redirected file can't be opened
+     */
+    static FakeProcess start(ProcessBuilder builder) throws IOException {
+        var command = builder.command();
+        InputStream toolInput;
+        OutputStream stdin;
+        if (builder.redirectInput() == ProcessBuilder.Redirect.PIPE)
+        {
+            var pipe = new PipedInputStream(PipeSize);
+            stdin = new PipedOutputStream(pipe);
+            toolInput = pipe;
+        }
+        else
+        {
+            stdin = OutputStream.nullOutputStream();
+            toolInput = InputStream.nullInputStream();
+        }
+        OutputStream toolOutput;
+        InputStream stdout;
+        var redirect = builder.redirectOutput();
+        if (redirect == ProcessBuilder.Redirect.PIPE)
+        {
+            var pipe = new PipedInputStream(PipeSize);
+            toolOutput = new PipedOutputStream(pipe);
+            stdout = pipe;
+        }
+        else
+        {
+            toolOutput = redirect.file() != null ? new FileOutputStream(redirect.file(), redirect.type() == ProcessBuilder.Redirect.Type.APPEND)
+                    : OutputStream.nullOutputStream();
+            stdout = InputStream.nullInputStream();
+        }
+        OutputStream toolError;
+        InputStream stderr;
+        if (builder.redirectError() == ProcessBuilder.Redirect.PIPE)
+        {
+            var pipe = new PipedInputStream(PipeSize);
+            toolError = new PipedOutputStream(pipe);
+            stderr = pipe;
+        }
+        else
+        {
+            toolError = OutputStream.nullOutputStream();
+            stderr = InputStream.nullInputStream();
+        }
+        var process = new FakeProcess(stdin, stdout, stderr);
+        var directory = builder.directory();
+        Runner.execute(() -> {
+            int result;
+            synchronized (process)
+            {
+                process.thread = Thread.currentThread();
+            }
+            try (toolInput; toolOutput; toolError)
+            {
+                if (process.destroyed)
+                {
+                    throw new InterruptedException();
+                }
+                result = FakeTool.run(command, directory, toolInput, toolOutput, toolError);
+            }
+            catch (InterruptedException | InterruptedIOException e)
+            {
+                result = DestroyedExitCode;
+            }
+            catch (Exception e)
+            {
+                result = 1;
+            }
+            synchronized (process)
+            {
+                process.thread = null;
+                // clear an interrupt of destroy, the thread is reused
+                Thread.interrupted();
+            }
+            process.exitCode.complete(result);
+        });
+        return process;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return stdin;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return stdout;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return stderr;
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+        try {
+            return exitCode.get();
+        }
+        catch (ExecutionException e)
+        {
+            return 1;
+        }
+    }
+
+    @Override
+    public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            exitCode.get(timeout, unit);
+            return true;
+        }
+        catch (ExecutionException e)
+        {
+            return true;
+        }
+        catch (TimeoutException e)
+        {
+            return false;
+        }
+    }
+
+    @Override
+    public int exitValue() {
+        var value = exitCode.getNow(null);
+        if (value == null)
+        {
+            throw new IllegalThreadStateException("fake tool still running");
+        }
+        return value;
+    }
+
+    @Override
+    public synchronized void destroy() {
+        destroyed = true;
+        if (thread != null)
+        {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isAlive() {
+        return !exitCode.isDone();
+    }
+}
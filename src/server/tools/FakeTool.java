@@ -0,0 +1,223 @@
+package server.tools;
+
+import server.helper.ServerConfigHelper;
+import server.scan.FakeScannerDevice;
+import server.scan.ScannerDevice;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Stand-in for external tools: waits {@code scanserver.fakeTool.<name>.ms} and writes the file the real tool would
+ * write, {@code scanserver.fakeTool.<name>.outputKb} big. Pdfs are valid one page pdfs padded to that size, so they
+ * can be merged and counted. tiffcp copies its input, so the tiff stays readable.
+ * <p>
+ * scanimage writes the pages of {@link FakeScannerDevice} with its timing, also in batch prompt mode: it asks for every
+ * page on its error output and scans after reading a line. With scanserver.fakeScanner.feederPages the feeder is empty
+ * after that many pages, scanimage ends then like the real one: without error if the batch has pages, with exit code
+ * {@link ScannerDevice#FeederEmptyExitCode} otherwise.
+ * </p>
+ */
+class FakeTool {
+
+    /**
+     * Run tool
+     * @param command command of real tool, the name first
+     * @param directory working directory, null for the current one
+     * @param input standard input
+     * @param output standard output
+     * @param error error output
+     * @return exit code
+     * @throws IOException if writing output failed
+     * @throws InterruptedException if destroyed
+     */
+    static int run(List<String> command, File directory, InputStream input, OutputStream output, OutputStream error) throws IOException, InterruptedException {
+        var name = command.get(0);
+        var arguments = command.subList(1, command.size());
+        if (name.equals("scanimage"))
+        {
+            return scan(arguments, input, output, error);
+        }
+        Thread.sleep(ServerConfigHelper.getFakeToolMs(name));
+        var size = ServerConfigHelper.getFakeToolOutputKb(name) * 1024L;
+        switch (name)
+        {
+            case "tiff2pdf":
+                // tiff2pdf [options] -o output input
+                writePdf(resolve(directory, getOption(arguments, "-o")), size);
+                return 0;
+            case "tiffcp":
+                // tiffcp [options] input output
+                Files.copy(resolve(directory, arguments.get(arguments.size() - 2)).toPath(), resolve(directory, last(arguments)).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                return 0;
+            case "pdftops":
+                // pdftops input output, "-" for stdout
+                writePostScript(last(arguments).equals("-") ? output : new FileOutputStream(resolve(directory, last(arguments))), size);
+                return 0;
+            case "ps2pdf":
+                // ps2pdf input output, "-" for stdin
+                if (arguments.get(0).equals("-"))
+                {
+                    input.transferTo(OutputStream.nullOutputStream());
+                }
+                writePdf(resolve(directory, last(arguments)), size);
+                return 0;
+            case "pdftk":
+                // pdftk inputs cat [ranges] output target
+                writePdf(resolve(directory, getOption(arguments, "output")), size);
+                return 0;
+            case "pdftoppm":
+                // pdftoppm [options] -singlefile input outputBase, writes outputBase.jpg
+                writeJpeg(resolve(directory, last(arguments) + ".jpg"), size);
+                return 0;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * scanimage [--batch-prompt --batch=pattern] [options], writes the tiff to standard output without batch
+     */
+    private static int scan(List<String> arguments, InputStream input, OutputStream output, OutputStream error) throws IOException, InterruptedException {
+        Thread.sleep(ServerConfigHelper.getFakeScannerOpenMs());
+        var pageMs = ServerConfigHelper.getFakeScannerPageMs();
+        String batch = null;
+        for (var argument : arguments)
+        {
+            if (argument.startsWith("--batch="))
+            {
+                batch = argument.substring("--batch=".length());
+            }
+        }
+        if (batch == null)
+        {
+            Thread.sleep(pageMs);
+            FakeScannerDevice.writePage(arguments, output);
+            return 0;
+        }
+        var feederPages = ServerConfigHelper.getFakeScannerFeederPages();
+        var prompt = arguments.contains("--batch-prompt");
+        var errors = new PrintStream(error, true, StandardCharsets.UTF_8);
+        var lines = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        var scanned = 0;
+        while (true)
+        {
+            var page = scanned + 1;
+            if (prompt)
+            {
+                errors.println("Place document no. " + page + " on the scanner.");
+                errors.println("Press <RETURN> to continue.");
+                errors.println("Press Ctrl + D to terminate.");
+                if (lines.readLine() == null)
+                {
+                    errors.println("Batch terminated, " + scanned + " pages scanned");
+                    return 0;
+                }
+            }
+            if (feederPages > 0 && scanned >= feederPages)
+            {
+                errors.println("scanimage: sane_start: Document feeder out of documents");
+                return scanned > 0 ? 0 : ScannerDevice.FeederEmptyExitCode;
+            }
+            Thread.sleep(pageMs);
+            try (var pageOutput = new BufferedOutputStream(new FileOutputStream(String.format(batch, page)), 64 * 1024))
+            {
+                FakeScannerDevice.writePage(arguments, pageOutput);
+            }
+            errors.println("Scanned page " + page + ". (scanner status = 5)");
+            scanned++;
+        }
+    }
+
+    private static String getOption(List<String> arguments, String option)
+    {
+        var index = arguments.indexOf(option);
+        if (index < 0 || index + 1 >= arguments.size())
+        {
+            throw new IllegalArgumentException("fake tool needs " + option);
+        }
+        return arguments.get(index + 1);
+    }
+
+    private static String last(List<String> arguments)
+    {
+        return arguments.get(arguments.size() - 1);
+    }
+
+    private static File resolve(File directory, String path)
+    {
+        var file = new File(path);
+        return file.isAbsolute() || directory == null ? file : new File(directory, path);
+    }
+
+    /**
+     * Write one page pdf, padded with a stream to about size bytes
+     */
+    static void writePdf(File file, long size) throws IOException {
+        var objects = new String[] {
+                "<< /Type /Catalog /Pages 2 0 R >>",
+                "<< /Type /Pages /Kids [3 0 R] /Count 1 >>",
+                "<< /Type /Page /Parent 2 0 R /MediaBox [0 0 595 842] >>",
+                null
+        };
+        var padding = (int) Math.max(0, size - 400);
+        objects[3] = "<< /Length " + padding + " >>\nstream\n" + " ".repeat(padding) + "\nendstream";
+        var pdf = new StringBuilder(padding + 512).append("%PDF-1.4\n");
+        var offsets = new int[objects.length];
+        for (var i = 0; i < objects.length; i++)
+        {
+            offsets[i] = pdf.length();
+            pdf.append(i + 1).append(" 0 obj\n").append(objects[i]).append("\nendobj\n");
+        }
+        var xref = pdf.length();
+        pdf.append("xref\n0 ").append(objects.length + 1).append("\n0000000000 65535 f \n");
+        for (var offset : offsets)
+        {
+            pdf.append(String.format("%010d 00000 n \n", offset));
+        }
+        pdf.append("trailer\n<< /Size ").append(objects.length + 1).append(" /Root 1 0 R >>\nstartxref\n").append(xref).append("\n%%EOF\n");
+        Files.write(file.toPath(), pdf.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Write small grey jpeg, padded after its end to about size bytes
+     */
+    private static void writeJpeg(File file, long size) throws IOException {
+        var image = new BufferedImage(8, 8, BufferedImage.TYPE_BYTE_GRAY);
+        try (var output = new FileOutputStream(file))
+        {
+            var jpeg = new ByteArrayOutputStream();
+            ImageIO.write(image, "jpeg", jpeg);
+            jpeg.writeTo(output);
+            output.write(new byte[(int) Math.max(0, size - jpeg.size())]);
+        }
+    }
+
+    private static void writePostScript(OutputStream output, long size) throws IOException {
+        try (output)
+        {
+            output.write("%!PS-Adobe-3.0\n".getBytes(StandardCharsets.US_ASCII));
+            var line = "% fake page content\n".getBytes(StandardCharsets.US_ASCII);
+            for (var written = 0L; written < size; written += line.length)
+            {
+                output.write(line);
+            }
+            output.write("showpage\n%%EOF\n".getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package server.tools;
+
+import server.helper.LogHelper;
+import server.metrics.Metrics;
+import server.scan.ToolException;
+import server.scan.ToolTimeoutException;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tools started by {@link ProcessRunner}, piped into each other.
+ * <p>
+ * CPU time is sampled while waiting, every {@link #SamplePeriodMs} ms, as the os forgets it once the tool ended.
+ * Short runs are counted low, fake tools use none.
+ * </p>
+ */
+public class ProcessRun implements AutoCloseable {
+
+    private final static long SamplePeriodMs = 50;
+
+    /**
+     * Time destroyed tools get to end before they are killed
+     */
+    private final static long DestroyGraceMs = 2000;
+
+    private final List<String> names;
+
+    private final List<Process> processes;
+
+    /**
+     * End of error output of every tool, complete when the tool closed it
+     */
+    private final List<CompletableFuture<String>> errors;
+
+    private final int timeoutSeconds;
+
+    /**
+     * CPU slots held till closed
+     */
+    private final int slots;
+
+    private final long startNanos = System.nanoTime();
+
+    private boolean closed;
+
+    ProcessRun(List<String> names, List<Process> processes, List<CompletableFuture<String>> errors, int timeoutSeconds, int slots)
+    {
+        this.names = names;
+        this.processes = processes;
+        this.errors = errors;
+        this.timeoutSeconds = timeoutSeconds;
+        this.slots = slots;
+    }
+
+    /**
+     * Wait for all tools, kill them if they don't end in time
+     * @throws ToolException if a tool failed, {@link ToolTimeoutException} if it timed out
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void waitFor() throws ToolException, InterruptedException {
+        var deadline = startNanos + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        for (var i = 0; i < processes.size(); i++)
+        {
+            var name = names.get(i);
+            var process = processes.get(i);
+            var cpuNanos = 0L;
+            while (!process.waitFor(SamplePeriodMs, TimeUnit.MILLISECONDS))
+            {
+                cpuNanos = getCpuNanos(process, cpuNanos);
+                if (System.nanoTime() - deadline > 0)
+                {
+                    LogHelper.warn(name + " still running after " + timeoutSeconds + " s, killing " + String.join("|", names));
+                    Metrics.countToolTimeout(name);
+                    destroy();
+                    throw new ToolTimeoutException(name, timeoutSeconds);
+                }
+            }
+            Metrics.observeTool(name, System.nanoTime() - startNanos, cpuNanos);
+            var exitCode = process.exitValue();
+            var error = getError(i);
+            if (exitCode != 0)
+            {
+                LogHelper.warn(name + " failed with exit code " + exitCode + (error.isEmpty() ? "" : ":\n" + error));
+                throw new ToolException(name, exitCode);
+            }
+            if (!error.isEmpty())
+            {
+                LogHelper.debug(() -> name + " wrote:\n" + error);
+            }
+        }
+    }
+
+    /**
+     * Destroy tools still running, like on cancel. Tools ignoring that are killed after a grace period.
+     */
+    public void destroy()
+    {
+        for (var process : processes)
+        {
+            destroyDescendants(process);
+            process.destroy();
+        }
+        for (var process : processes)
+        {
+            process.onExit().completeOnTimeout(null, DestroyGraceMs, TimeUnit.MILLISECONDS).thenRun(() -> {
+                if (process.isAlive())
+                {
+                    process.destroyForcibly();
+                }
+            });
+        }
+    }
+
+    /**
+     * Destroy tools still running and free their CPU slots
+     */
+    @Override
+    public void close()
+    {
+        synchronized (this)
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+        }
+        for (var process : processes)
+        {
+            if (process.isAlive())
+            {
+                destroy();
+                break;
+            }
+        }
+        ProcessRunner.release(slots);
+    }
+
+    /**
+     * Destroy processes started by tool, like the ones of a script
+     */
+    private static void destroyDescendants(Process process)
+    {
+        try {
+            process.descendants().forEach(ProcessHandle::destroy);
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // fake tool
+        }
+    }
+
+    /**
+     * Error output of tool, waits shortly as it's read in the background
+     */
+    private String getError(int index) throws InterruptedException {
+        try {
+            return errors.get(index).get(1, TimeUnit.SECONDS);
+        }
+        catch (ExecutionException | TimeoutException e)
+        {
+            return "";
+        }
+    }
+
+    /**
+     * @return CPU time of running process, last value if it's not known (anymore)
+     */
+    private static long getCpuNanos(Process process, long lastValue)
+    {
+        try {
+            return process.info().totalCpuDuration().map(duration -> Math.max(lastValue, duration.toNanos())).orElse(lastValue);
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // fake tool
+            return lastValue;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package server.tools;
+
+import server.helper.ServerConfigHelper;
+import server.helper.ThreadHelper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs external tools for scans, merges and previews.
+ * <ul>
+ *     <li>error output is read in the background, a chatty tool can't block on a full pipe. The end of it is logged
+ *     if the tool fails</li>
+ *     <li>standard output of the last tool is discarded, unless it's redirected</li>
+ *     <li>tools are killed after {@link ServerConfigHelper#getToolTimeout(String)}</li>
+ *     <li>CPU heavy tools wait for one of {@link ServerConfigHelper#getToolThreads()} slots, so merges, conversions
+ *     and previews together don't run on more cores than there are</li>
+ *     <li>wall and CPU time of every tool is recorded in {@link server.metrics.Metrics}</li>
+ * </ul>
+ */
+public class ProcessRunner {
+
+    /**
+     * Tools keeping a core busy while they run. scanimage mostly waits for the scanner.
+     */
+    private final static Set<String> CpuHeavyTools = Set.of("tiff2pdf", "tiffcp", "pdftops", "ps2pdf", "pdftk", "pdftoppm");
+
+    private final static int CpuSlotCount = ServerConfigHelper.getToolThreads();
+
+    /**
+     * Slots for CPU heavy tools. Fair, so a pipeline needing two slots isn't overtaken by single tools forever.
+     */
+    private final static Semaphore CpuSlots = new Semaphore(CpuSlotCount, true);
+
+    /**
+     * Reads error output of tools
+     */
+    private final static ExecutorService Drainers = Executors.newCachedThreadPool(ThreadHelper.newThreadFactory("tool-output"));
+
+    /**
+     * Maximum number of bytes of error output kept per tool
+     */
+    private final static int ErrorTailSize = 4096;
+
+    /**
+     * Start tools with output of each tool piped into the next one. Waits for CPU slots first.
+     * The run has to be closed, that destroys tools still running and frees their slots.
+     * @param builders builders with tool names as first part of their commands
+     * @return running tools
+     * @throws IOException if a tool could not be started
+     * @throws InterruptedException if interrupted while waiting for a slot
+     */
+    public static ProcessRun start(ProcessBuilder... builders) throws IOException, InterruptedException {
+        var names = new ArrayList<String>();
+        var slots = 0;
+        for (var builder : builders)
+        {
+            var name = builder.command().get(0);
+            names.add(name);
+            if (CpuHeavyTools.contains(name))
+            {
+                slots++;
+            }
+        }
+        // a pipeline longer than the slots would wait forever
+        slots = Math.min(slots, CpuSlotCount);
+        var last = builders[builders.length - 1];
+        if (last.redirectOutput() == ProcessBuilder.Redirect.PIPE)
+        {
+            last.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        }
+        CpuSlots.acquire(slots);
+        try {
+            var processes = Tools.start(List.of(builders));
+            var errors = new ArrayList<CompletableFuture<String>>();
+            for (var i = 0; i < builders.length; i++)
+            {
+                var error = new CompletableFuture<String>();
+                if (builders[i].redirectError() == ProcessBuilder.Redirect.PIPE)
+                {
+                    var stream = processes.get(i).getErrorStream();
+                    Drainers.execute(() -> error.complete(readTail(stream)));
+                }
+                else
+                {
+                    error.complete("");
+                }
+                errors.add(error);
+            }
+            var timeout = 0;
+            for (var name : names)
+            {
+                timeout = Math.max(timeout, ServerConfigHelper.getToolTimeout(name));
+            }
+            return new ProcessRun(names, processes, errors, timeout, slots);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            CpuSlots.release(slots);
+            throw e;
+        }
+    }
+
+    /**
+     * Run tools and wait for them
+     * @param builders builders with tool names as first part of their commands
+     * @throws IOException if a tool could not be started, failed or timed out
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static void run(ProcessBuilder... builders) throws IOException, InterruptedException {
+        try (var run = start(builders))
+        {
+            run.waitFor();
+        }
+    }
+
+    /**
+     * @return CPU slots used by running tools
+     */
+    public static int getUsedSlots()
+    {
+        return CpuSlotCount - CpuSlots.availablePermits();
+    }
+
+    /**
+     * @return tools waiting for a CPU slot
+     */
+    public static int getWaiting()
+    {
+        return CpuSlots.getQueueLength();
+    }
+
+    static void release(int slots)
+    {
+        CpuSlots.release(slots);
+    }
+
+    /**
+     * Read stream till its end, keeping only the last {@link #ErrorTailSize} bytes
+     */
+    private static String readTail(InputStream stream)
+    {
+        var tail = new byte[ErrorTailSize];
+        var length = 0;
+        var buffer = new byte[8192];
+        try (stream)
+        {
+            int read;
+            while ((read = stream.read(buffer)) >= 0)
+            {
+                if (read >= tail.length)
+                {
+                    System.arraycopy(buffer, read - tail.length, tail, 0, tail.length);
+                    length = tail.length;
+                    continue;
+                }
+                var keep = Math.min(length, tail.length - read);
+                System.arraycopy(tail, length - keep, tail, 0, keep);
+                System.arraycopy(buffer, 0, tail, keep, read);
+                length = keep + read;
+            }
+        }
+        catch (IOException e)
+        {
+            // tool got destroyed
+        }
+        return new String(tail, 0, length).trim();
+    }
+}
@@ -0,0 +1,115 @@
+package server.tools;
+
+import server.helper.ServerConfigHelper;
+import server.helper.ThreadHelper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Starts external tools (tiff2pdf, tiffcp, pdftops, ps2pdf, pdftk, pdftoppm).
+ * <p>
+ * The command of a tool can be replaced with {@code scanserver.tool.<name>}, like a path to another version.
+ * The value "fake" (or {@code scanserver.fakeTools=true} for all tools) runs {@link FakeTool} in process instead,
+ * so scans and merges can be tested and load tested without the tools installed.
+ * </p>
+ */
+public class Tools {
+
+    /**
+     * Copies output of a tool into the next one of a pipeline, if a pipeline contains fake tools
+     */
+    private final static ExecutorService Pipes = Executors.newCachedThreadPool(ThreadHelper.newThreadFactory("tool-pipe"));
+
+    /**
+     * Command to run for tool
+     * @param name name of tool, like "tiff2pdf"
+     * @return configured command, name if not configured
+     */
+    public static String getCommand(String name)
+    {
+        return ServerConfigHelper.getToolCommand(name);
+    }
+
+    /**
+     * @param name name of tool
+     * @return if tool is replaced by {@link FakeTool}
+     */
+    public static boolean isFake(String name)
+    {
+        return getCommand(name).equals("fake");
+    }
+
+    /**
+     * Start tool
+     * @param builder builder with tool name as first part of command
+     * @return started tool
+     * @throws IOException if tool could not be started
+     */
+    public static Process start(ProcessBuilder builder) throws IOException {
+        return start(List.of(builder)).get(0);
+    }
+
+    /**
+     * Start tools with output of each tool piped into the next one
+     * @param builders builders with tool names as first part of their commands
+     * @return started tools, in order
+     * @throws IOException if a tool could not be started
+     */
+    public static List<Process> start(List<ProcessBuilder> builders) throws IOException {
+        var anyFake = false;
+        for (var builder : builders)
+        {
+            var name = builder.command().get(0);
+            if (isFake(name))
+            {
+                anyFake = true;
+            }
+            else
+            {
+                builder.command().set(0, getCommand(name));
+            }
+        }
+        if (!anyFake)
+        {
+            return builders.size() == 1 ? List.of(builders.get(0).start()) : ProcessBuilder.startPipeline(builders);
+        }
+        var processes = new ArrayList<Process>();
+        try {
+            for (var builder : builders)
+            {
+                var name = builder.command().get(0);
+                processes.add(isFake(name) ? FakeProcess.start(builder) : builder.start());
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            processes.forEach(Process::destroy);
+            throw e;
+        }
+        for (var i = 0; i + 1 < processes.size(); i++)
+        {
+            var from = processes.get(i).getInputStream();
+            var to = processes.get(i + 1).getOutputStream();
+            Pipes.execute(() -> pipe(from, to));
+        }
+        return processes;
+    }
+
+    private static void pipe(InputStream from, OutputStream to)
+    {
+        try (from; to)
+        {
+            from.transferTo(to);
+        }
+        catch (IOException e)
+        {
+            // a tool ended early, its exit code tells why
+        }
+    }
+}